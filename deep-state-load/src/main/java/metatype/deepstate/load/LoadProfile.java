@@ -0,0 +1,60 @@
+package metatype.deepstate.load;
+
+import java.time.Duration;
+
+/**
+ * Describes the load applied to a scenario.
+ */
+public class LoadProfile {
+  /** the number of targets */
+  private final int machines;
+
+  /** the number of threads sending requests */
+  private final int producers;
+
+  /** the total number of requests per second */
+  private final int rate;
+
+  /** the time spent warming up before measuring */
+  private final Duration warmup;
+
+  /** the time spent measuring */
+  private final Duration duration;
+
+  public LoadProfile(int machines, int producers, int rate, Duration warmup, Duration duration) {
+    if (machines <= 0 || producers <= 0 || rate <= 0) {
+      throw new IllegalArgumentException("Machines, producers and rate must be positive");
+    }
+    this.machines = machines;
+    this.producers = producers;
+    this.rate = rate;
+    this.warmup = warmup;
+    this.duration = duration;
+  }
+
+  public int getMachines() {
+    return machines;
+  }
+
+  public int getProducers() {
+    return producers;
+  }
+
+  public int getRate() {
+    return rate;
+  }
+
+  public Duration getWarmup() {
+    return warmup;
+  }
+
+  public Duration getDuration() {
+    return duration;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d machines, %d producers, %d requests/s for %ds after %ds warmup",
+        machines, producers, rate, duration.getSeconds(), warmup.getSeconds());
+  }
+}
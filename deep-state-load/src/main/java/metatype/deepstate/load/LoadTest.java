@@ -0,0 +1,146 @@
+package metatype.deepstate.load;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import metatype.deepstate.core.VirtualScheduler;
+import metatype.deepstate.example.ConcurrentToaster;
+import metatype.deepstate.example.FsmToaster;
+
+/**
+ * Drives scenarios at a fixed request rate and reports their throughput and latency percentiles.
+ * Each producer thread sends requests on a fixed schedule, spread round robin over the targets.
+ * When a producer falls behind it sends the overdue requests immediately, and their latency still
+ * counts from the scheduled time.
+ * <p>
+ * Run with {@code --machines N --producers M --rate R --warmup S --duration S}.  By default the
+ * toasters are compared with each dispatch mode of a DeepState model.
+ */
+public class LoadTest {
+  /** the histogram precision in significant digits */
+  private static final int PRECISION = 3;
+
+  /** discards what the toasters describe doing */
+  private static final PrintStream QUIET = new PrintStream(new OutputStream() {
+    @Override
+    public void write(int b) {
+    }
+  });
+
+  private final LoadProfile profile;
+
+  public LoadTest(LoadProfile profile) {
+    this.profile = profile;
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    LoadProfile profile = parse(args);
+    List<Scenario> scenarios = new ArrayList<>();
+    scenarios.add(Scenario.toaster("FsmToaster", () -> new FsmToaster(Duration.ofDays(1), new VirtualScheduler(), QUIET)));
+    scenarios.add(Scenario.toaster("ConcurrentToaster", () -> new ConcurrentToaster(Duration.ofDays(1), new VirtualScheduler(), QUIET)));
+    scenarios.add(Scenario.model("model (interpreted)", factory -> { }));
+    scenarios.add(Scenario.model("model (compiled)", factory -> factory.compile()));
+    scenarios.add(Scenario.model("model (adaptive)", factory -> factory.profile(1000)));
+
+    System.out.println(profile);
+    System.out.println(Result.HEADER);
+    LoadTest test = new LoadTest(profile);
+    for (Scenario scenario : scenarios) {
+      System.out.println(test.run(scenario));
+    }
+  }
+
+  /**
+   * Warms up and then measures a scenario.
+   *
+   * @param scenario the scenario
+   * @return the measurements
+   * @throws InterruptedException if interrupted while waiting for the producers
+   */
+  public Result run(Scenario scenario) throws InterruptedException {
+    Target[] targets = new Target[profile.getMachines()];
+    for (int i = 0; i < targets.length; i++) {
+      targets[i] = scenario.createTarget();
+    }
+
+    drive(scenario.getName(), targets, profile.getWarmup());
+    return drive(scenario.getName(), targets, profile.getDuration());
+  }
+
+  private Result drive(String name, Target[] targets, Duration duration) throws InterruptedException {
+    Histogram latency = new ConcurrentHistogram(PRECISION);
+    Histogram serviceTime = new ConcurrentHistogram(PRECISION);
+    AtomicLong sent = new AtomicLong();
+
+    int producers = profile.getProducers();
+    long interval = TimeUnit.SECONDS.toNanos(1) * producers / profile.getRate();
+    long start = System.nanoTime();
+    long end = start + duration.toNanos();
+
+    CountDownLatch done = new CountDownLatch(producers);
+    for (int p = 0; p < producers; p++) {
+      int producer = p;
+      Thread thread = new Thread(() -> {
+        try {
+          // stagger the producers so their requests are spread evenly over each interval
+          long intended = start + interval * producer / producers;
+          for (int i = producer; intended < end; i += producers, intended += interval) {
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+              LockSupport.parkNanos(intended - now);
+            }
+            targets[i % targets.length].send(new Request(intended, now, latency, serviceTime));
+            sent.incrementAndGet();
+          }
+        } finally {
+          done.countDown();
+        }
+      }, "load-producer-" + p);
+      thread.start();
+    }
+
+    done.await();
+    awaitCompletion(latency, sent.get());
+    return new Result(name, sent.get(), System.nanoTime() - start, latency, serviceTime);
+  }
+
+  /**
+   * Waits briefly for requests handed off to another thread to complete.
+   */
+  private static void awaitCompletion(Histogram latency, long sent) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (latency.getTotalCount() < sent && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  private static LoadProfile parse(String[] args) {
+    int machines = 100;
+    int producers = 4;
+    int rate = 100_000;
+    int warmup = 5;
+    int duration = 10;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      int value = Integer.parseInt(args[i + 1]);
+      switch (args[i]) {
+        case "--machines": machines = value; break;
+        case "--producers": producers = value; break;
+        case "--rate": rate = value; break;
+        case "--warmup": warmup = value; break;
+        case "--duration": duration = value; break;
+        default: throw new IllegalArgumentException("Unknown option " + args[i]);
+      }
+    }
+    return new LoadProfile(machines, producers, rate, Duration.ofSeconds(warmup), Duration.ofSeconds(duration));
+  }
+}
@@ -0,0 +1,41 @@
+package metatype.deepstate.load;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * A single request sent to a target.  The latency of the request is measured from the time it was
+ * meant to be sent according to the target rate, rather than the time it was actually sent, so
+ * that a stalled target is charged for the requests it delayed.  This corrects for coordinated
+ * omission.  The service time, measured from the time the request was actually sent, is recorded
+ * as well for comparison.
+ */
+public class Request {
+  private final long intendedNanos;
+  private final long sentNanos;
+  private final Histogram latency;
+  private final Histogram serviceTime;
+  private boolean complete;
+
+  Request(long intendedNanos, long sentNanos, Histogram latency, Histogram serviceTime) {
+    this.intendedNanos = intendedNanos;
+    this.sentNanos = sentNanos;
+    this.latency = latency;
+    this.serviceTime = serviceTime;
+  }
+
+  /**
+   * Records the completion of the request.  Only the first completion is recorded, so a target may
+   * complete a request from more than one action.  Must not be invoked concurrently for the same
+   * request.
+   */
+  public void complete() {
+    if (complete) {
+      return;
+    }
+    complete = true;
+
+    long now = System.nanoTime();
+    latency.recordValue(now - intendedNanos);
+    serviceTime.recordValue(now - sentNanos);
+  }
+}
@@ -0,0 +1,76 @@
+package metatype.deepstate.load;
+
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * The measurements of one scenario.
+ */
+public class Result {
+  /** the columns of {@link #toString()} */
+  public static final String HEADER = String.format("%-24s %12s %10s %10s %10s %10s %10s %12s",
+      "scenario", "requests/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us", "svc p99 us");
+
+  private final String name;
+  private final long sent;
+  private final long elapsedNanos;
+  private final Histogram latency;
+  private final Histogram serviceTime;
+
+  public Result(String name, long sent, long elapsedNanos, Histogram latency, Histogram serviceTime) {
+    this.name = name;
+    this.sent = sent;
+    this.elapsedNanos = elapsedNanos;
+    this.latency = latency;
+    this.serviceTime = serviceTime;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the number of requests sent that never completed.
+   * @return the number of lost requests
+   */
+  public long getLost() {
+    return sent - latency.getTotalCount();
+  }
+
+  /**
+   * Returns the completed requests per second.
+   * @return the throughput
+   */
+  public double getThroughput() {
+    return latency.getTotalCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+  }
+
+  /**
+   * Returns the latencies corrected for coordinated omission, in nanoseconds.
+   * @return the latency histogram
+   */
+  public Histogram getLatency() {
+    return latency;
+  }
+
+  /**
+   * Returns the service times, which are not corrected for coordinated omission, in nanoseconds.
+   * @return the service time histogram
+   */
+  public Histogram getServiceTime() {
+    return serviceTime;
+  }
+
+  @Override
+  public String toString() {
+    String row = String.format("%-24s %12.0f %10.1f %10.1f %10.1f %10.1f %10.1f %12.1f", name, getThroughput(),
+        micros(latency, 50), micros(latency, 90), micros(latency, 99), micros(latency, 99.9),
+        latency.getMaxValue() / 1000.0, micros(serviceTime, 99));
+    return getLost() == 0 ? row : row + "  (" + getLost() + " lost)";
+  }
+
+  private static double micros(Histogram histogram, double percentile) {
+    return histogram.getValueAtPercentile(percentile) / 1000.0;
+  }
+}
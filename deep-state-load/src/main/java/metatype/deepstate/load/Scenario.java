@@ -0,0 +1,123 @@
+package metatype.deepstate.load;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import metatype.deepstate.DeepState;
+import metatype.deepstate.DeepState.FsmFactory;
+import metatype.deepstate.FiniteStateMachine;
+import metatype.deepstate.FiniteStateMachine.Event;
+import metatype.deepstate.example.Toaster;
+
+/**
+ * Creates the targets put under load.
+ */
+public interface Scenario {
+  /**
+   * Returns the name reported for the scenario.
+   * @return the name
+   */
+  String getName();
+
+  /**
+   * Creates one target.
+   * @return the target
+   */
+  Target createTarget();
+
+  /**
+   * Creates a scenario from a supplier of targets.
+   *
+   * @param name the name of the scenario
+   * @param targets creates the targets
+   * @return the scenario
+   */
+  static Scenario of(String name, Supplier<Target> targets) {
+    return new Scenario() {
+      @Override
+      public String getName() {
+        return name;
+      }
+
+      @Override
+      public Target createTarget() {
+        return targets.get();
+      }
+    };
+  }
+
+  /**
+   * Puts toasters under load by alternately depressing the lever and pressing cancel.  A request
+   * completes when the toaster returns from the call.
+   *
+   * @param name the name of the scenario
+   * @param toasters creates the toasters
+   * @return the scenario
+   */
+  static Scenario toaster(String name, Supplier<Toaster> toasters) {
+    return of(name, () -> {
+      Toaster toaster = toasters.get();
+      toaster.changeToasterSetting(Toaster.Dial.ELEVEN);
+      AtomicInteger presses = new AtomicInteger();
+      return request -> {
+        if ((presses.getAndIncrement() & 1) == 0) {
+          toaster.depressLever();
+        } else {
+          toaster.pressCancel();
+        }
+        request.complete();
+      };
+    });
+  }
+
+  /**
+   * Puts state machines built with DeepState under load.  Each machine switches between two
+   * states, and a request completes when the action of the current state has handled its event.
+   *
+   * @param name the name of the scenario
+   * @param options configures the model, such as selecting the dispatch mode
+   * @return the scenario
+   */
+  static Scenario model(String name, Consumer<FsmFactory<String, String>> options) {
+    return of(name, () -> {
+      FsmFactory<String, String> factory = DeepState.<String, String>model();
+      options.accept(factory);
+      FiniteStateMachine<String, String> fsm = factory
+          .startingWith("OFF")
+          .when("ON", Scenario::complete)
+          .when("OFF", Scenario::complete)
+          .and().define("ON")
+          .when("ON", Scenario::complete)
+          .when("OFF", Scenario::complete)
+          .and().transition("ON").from("OFF").to("ON")
+          .and().transition("OFF").from("ON").to("OFF")
+          .and().ready();
+
+      AtomicInteger sent = new AtomicInteger();
+      return request -> fsm.accept(new RequestEvent((sent.getAndIncrement() & 1) == 0 ? "ON" : "OFF", request));
+    });
+  }
+
+  private static void complete(FiniteStateMachine.State<String> state, Event<String> event) {
+    ((RequestEvent) event).request.complete();
+  }
+
+  /**
+   * An event carrying the request it belongs to.
+   */
+  class RequestEvent implements Event<String> {
+    private final String trigger;
+    private final Request request;
+
+    RequestEvent(String trigger, Request request) {
+      this.trigger = trigger;
+      this.request = request;
+    }
+
+    @Override
+    public String getTrigger() {
+      return trigger;
+    }
+  }
+}
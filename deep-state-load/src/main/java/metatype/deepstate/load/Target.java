@@ -0,0 +1,14 @@
+package metatype.deepstate.load;
+
+/**
+ * One instance of the system under load, such as a single state machine.
+ */
+public interface Target {
+  /**
+   * Sends a request, which the target must {@link Request#complete() complete} once it has been
+   * handled.  May be invoked by several producer threads at once.
+   *
+   * @param request the request
+   */
+  void send(Request request);
+}
@@ -0,0 +1,59 @@
+package metatype.deepstate.load;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+public class LoadTestTest {
+  private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  public void testSchedule() throws InterruptedException {
+    List<AtomicInteger> received = new CopyOnWriteArrayList<>();
+    Scenario scenario = Scenario.of("counting", () -> {
+      AtomicInteger count = new AtomicInteger();
+      received.add(count);
+      return request -> {
+        count.incrementAndGet();
+        request.complete();
+      };
+    });
+
+    // two producers share 1000 requests/s, sending one request every 2ms each, offset by 1ms
+    Result result = new LoadTest(new LoadProfile(4, 2, 1000, Duration.ZERO, Duration.ofMillis(200))).run(scenario);
+
+    assertThat(result.getLost()).isZero();
+    assertThat(result.getLatency().getTotalCount()).isEqualTo(200);
+    assertThat(received).hasSize(4).allSatisfy(count -> assertThat(count.get()).isEqualTo(50));
+  }
+
+  @Test
+  public void testStalledTargetIsCharged() throws InterruptedException {
+    AtomicBoolean stalled = new AtomicBoolean();
+    Scenario scenario = Scenario.of("stalling", () -> request -> {
+      if (stalled.compareAndSet(false, true)) {
+        long end = System.nanoTime() + 50 * MILLIS;
+        for (long now = System.nanoTime(); now < end; now = System.nanoTime()) {
+          LockSupport.parkNanos(end - now);
+        }
+      }
+      request.complete();
+    });
+
+    Result result = new LoadTest(new LoadProfile(1, 1, 1000, Duration.ZERO, Duration.ofMillis(200))).run(scenario);
+
+    // the requests held up by the stall are charged from the time they were meant to be sent
+    assertThat(result.getLatency().getTotalCount()).isEqualTo(200);
+    assertThat(result.getLatency().getMaxValue()).isGreaterThanOrEqualTo(50 * MILLIS);
+    assertThat(result.getLatency().getCountBetweenValues(10 * MILLIS, Long.MAX_VALUE)).isGreaterThanOrEqualTo(30);
+    assertThat(result.getServiceTime().getCountBetweenValues(10 * MILLIS, Long.MAX_VALUE)).isLessThanOrEqualTo(5);
+  }
+}
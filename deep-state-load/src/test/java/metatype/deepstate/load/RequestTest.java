@@ -0,0 +1,42 @@
+package metatype.deepstate.load;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+public class RequestTest {
+  private static final long DELAY = TimeUnit.MILLISECONDS.toNanos(50);
+
+  @Test
+  public void testLatencyFromIntendedTime() {
+    Histogram latency = new Histogram(3);
+    Histogram serviceTime = new Histogram(3);
+    long now = System.nanoTime();
+
+    // the request was meant to be sent earlier, but the producer fell behind
+    Request request = new Request(now - DELAY, now, latency, serviceTime);
+    request.complete();
+
+    assertThat(latency.getTotalCount()).isEqualTo(1);
+    assertThat(latency.getMaxValue()).isGreaterThanOrEqualTo(DELAY);
+    assertThat(serviceTime.getTotalCount()).isEqualTo(1);
+    assertThat(serviceTime.getMaxValue()).isLessThan(DELAY);
+  }
+
+  @Test
+  public void testCompleteOnce() {
+    Histogram latency = new Histogram(3);
+    Histogram serviceTime = new Histogram(3);
+    long now = System.nanoTime();
+
+    Request request = new Request(now, now, latency, serviceTime);
+    request.complete();
+    request.complete();
+
+    assertThat(latency.getTotalCount()).isEqualTo(1);
+    assertThat(serviceTime.getTotalCount()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,230 @@
+package metatype.deepstate.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+
+import metatype.deepstate.annotation.DeepStateMachine;
+import metatype.deepstate.annotation.Transition;
+import metatype.deepstate.annotation.When;
+import metatype.deepstate.annotation.WhenEntering;
+import metatype.deepstate.annotation.WhenExiting;
+import metatype.deepstate.annotation.WhenNothingElseMatches;
+import metatype.deepstate.processor.MachineModel.Call;
+import metatype.deepstate.processor.MachineModel.StateModel;
+import metatype.deepstate.processor.MachineModel.TransitionModel;
+
+/**
+ * Generates a {@link metatype.deepstate.FiniteStateMachine} implementation for each class annotated
+ * with {@link DeepStateMachine}.  The definition is validated at compile time so the generated
+ * machine does not need to check anything when it starts.
+ */
+@SupportedAnnotationTypes("metatype.deepstate.annotation.DeepStateMachine")
+public class DeepStateProcessor extends AbstractProcessor {
+  /**
+   * Signals an invalid definition, reported as a compile error on the offending element.
+   */
+  private static class DefinitionException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final Element element;
+
+    public DefinitionException(Element element, String message) {
+      super(message);
+      this.element = element;
+    }
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    Messager messager = processingEnv.getMessager();
+    for (Element element : roundEnv.getElementsAnnotatedWith(DeepStateMachine.class)) {
+      try {
+        MachineModel model = define(element);
+        try (Writer out = processingEnv.getFiler().createSourceFile(model.getQualifiedName(), element).openWriter()) {
+          out.write(new MachineWriter(model).write());
+        }
+      } catch (DefinitionException e) {
+        messager.printMessage(Kind.ERROR, e.getMessage(), e.element);
+      } catch (IOException e) {
+        messager.printMessage(Kind.ERROR, "Unable to write state machine: " + e.getMessage(), element);
+      }
+    }
+    return true;
+  }
+
+  private MachineModel define(Element element) {
+    if (element.getKind() != ElementKind.CLASS && element.getKind() != ElementKind.INTERFACE) {
+      throw new DefinitionException(element, "@DeepStateMachine must be applied to a class or interface");
+    }
+
+    TypeElement definition = (TypeElement) element;
+    if (definition.getModifiers().contains(Modifier.FINAL) || definition.getModifiers().contains(Modifier.PRIVATE)) {
+      throw new DefinitionException(element, "State machine definition must not be final or private");
+    }
+    if (definition.getNestingKind().isNested() && !definition.getModifiers().contains(Modifier.STATIC)
+        && definition.getKind() == ElementKind.CLASS) {
+      throw new DefinitionException(element, "Nested state machine definition must be static");
+    }
+    if (!definition.getTypeParameters().isEmpty()) {
+      throw new DefinitionException(element, "State machine definition must not be generic");
+    }
+
+    DeepStateMachine annotation = definition.getAnnotation(DeepStateMachine.class);
+    TypeElement states = enumType(definition, annotation::states);
+    TypeElement triggers = enumType(definition, annotation::triggers);
+
+    String packageName = processingEnv.getElementUtils().getPackageOf(definition).getQualifiedName().toString();
+    String name = annotation.name().isEmpty() ? definition.getSimpleName() + "Fsm" : annotation.name();
+    MachineModel model = new MachineModel(packageName, name, definition, states, triggers);
+
+    Map<String, StateModel> stateModels = new LinkedHashMap<>();
+    constants(states).forEach(state -> stateModels.put(state, new StateModel(state)));
+    List<String> triggerNames = constants(triggers);
+
+    model.setInitial(lookup(stateModels, annotation.initial(), definition, "initial state").getName());
+
+    for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(definition))) {
+      WhenEntering entering = method.getAnnotation(WhenEntering.class);
+      if (entering != null) {
+        StateModel state = lookup(stateModels, entering.value(), method, "state");
+        if (state.getEntry() != null) {
+          throw new DefinitionException(method, "Entry action is already defined for state " + state.getName());
+        }
+        state.setEntry(call(method, 1));
+      }
+
+      WhenExiting exiting = method.getAnnotation(WhenExiting.class);
+      if (exiting != null) {
+        StateModel state = lookup(stateModels, exiting.value(), method, "state");
+        if (state.getExit() != null) {
+          throw new DefinitionException(method, "Exit action is already defined for state " + state.getName());
+        }
+        state.setExit(call(method, 1));
+      }
+
+      When when = method.getAnnotation(When.class);
+      if (when != null) {
+        StateModel state = lookup(stateModels, when.state(), method, "state");
+        requireConstant(triggerNames, when.trigger(), method, "trigger");
+        if (state.getActions().put(when.trigger(), call(method, 2)) != null) {
+          throw new DefinitionException(method, "Action for trigger " + when.trigger() + " is already defined for state " + state.getName());
+        }
+      }
+
+      WhenNothingElseMatches otherwise = method.getAnnotation(WhenNothingElseMatches.class);
+      if (otherwise != null) {
+        StateModel state = lookup(stateModels, otherwise.value(), method, "state");
+        if (state.getDefaultAction() != null) {
+          throw new DefinitionException(method, "Default action is already defined for state " + state.getName());
+        }
+        state.setDefaultAction(call(method, 2));
+      }
+    }
+
+    for (Transition transition : definition.getAnnotationsByType(Transition.class)) {
+      StateModel from = lookup(stateModels, transition.from(), definition, "from state");
+      StateModel to = lookup(stateModels, transition.to(), definition, "to state");
+      requireConstant(triggerNames, transition.on(), definition, "trigger");
+
+      if (from == to && transition.guard().isEmpty()) {
+        throw new DefinitionException(definition, "Unguarded self transitions will cause an infinite loop in state " + to.getName());
+      }
+
+      Call guard = transition.guard().isEmpty() ? null : method(definition, transition.guard(), true);
+      Call action = transition.action().isEmpty() ? null : method(definition, transition.action(), false);
+      from.getTransitions().add(new TransitionModel(transition.on(), to.getName(), guard, action));
+    }
+
+    model.getStates().addAll(stateModels.values());
+    return model;
+  }
+
+  private TypeElement enumType(TypeElement definition, Supplier<Class<?>> value) {
+    TypeElement type;
+    try {
+      type = processingEnv.getElementUtils().getTypeElement(value.get().getCanonicalName());
+    } catch (MirroredTypeException e) {
+      type = (TypeElement) processingEnv.getTypeUtils().asElement(e.getTypeMirror());
+    }
+
+    if (type.getKind() != ElementKind.ENUM) {
+      throw new DefinitionException(definition, type + " is not an enum");
+    }
+    if (type.getModifiers().contains(Modifier.PRIVATE)) {
+      throw new DefinitionException(definition, type + " must not be private");
+    }
+    return type;
+  }
+
+  private List<String> constants(TypeElement type) {
+    List<String> constants = new ArrayList<>();
+    for (Element member : type.getEnclosedElements()) {
+      if (member.getKind() == ElementKind.ENUM_CONSTANT) {
+        constants.add(member.getSimpleName().toString());
+      }
+    }
+    return constants;
+  }
+
+  private StateModel lookup(Map<String, StateModel> states, String name, Element element, String description) {
+    StateModel state = states.get(name);
+    if (state == null) {
+      throw new DefinitionException(element, "Undefined " + description + " " + name);
+    }
+    return state;
+  }
+
+  private void requireConstant(List<String> triggers, String name, Element element, String description) {
+    if (!triggers.contains(name)) {
+      throw new DefinitionException(element, "Undefined " + description + " " + name);
+    }
+  }
+
+  private Call method(TypeElement definition, String name, boolean guard) {
+    for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(definition))) {
+      if (method.getSimpleName().contentEquals(name) && method.getParameters().size() <= 1) {
+        if (guard && method.getReturnType().getKind() != TypeKind.BOOLEAN) {
+          throw new DefinitionException(method, "Guard " + name + " must return boolean");
+        }
+        return call(method, 1);
+      }
+    }
+    throw new DefinitionException(definition, "Undefined method " + name);
+  }
+
+  private Call call(ExecutableElement method, int maxParameters) {
+    if (method.getModifiers().contains(Modifier.PRIVATE)) {
+      throw new DefinitionException(method, "State machine method " + method.getSimpleName() + " must not be private");
+    }
+    if (method.getParameters().size() > maxParameters) {
+      throw new DefinitionException(method, "State machine method " + method.getSimpleName() + " accepts at most " + maxParameters + " parameters");
+    }
+    return new Call(method.getSimpleName().toString(), method.getParameters().size());
+  }
+}
@@ -0,0 +1,181 @@
+package metatype.deepstate.processor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.lang.model.element.TypeElement;
+
+/**
+ * A validated state machine definition ready for code generation.
+ */
+class MachineModel {
+  /**
+   * An invocation of a method on the definition.
+   */
+  static class Call {
+    /** the method name */
+    private final String method;
+
+    /** the number of arguments the method accepts */
+    private final int arity;
+
+    public Call(String method, int arity) {
+      this.method = method;
+      this.arity = arity;
+    }
+
+    public String getMethod() {
+      return method;
+    }
+
+    public int getArity() {
+      return arity;
+    }
+  }
+
+  /**
+   * A state and its behaviors.
+   */
+  static class StateModel {
+    private final String name;
+    private final Map<String, Call> actions;
+    private final List<TransitionModel> transitions;
+    private Call entry;
+    private Call exit;
+    private Call defaultAction;
+
+    public StateModel(String name) {
+      this.name = name;
+      this.actions = new LinkedHashMap<>();
+      this.transitions = new ArrayList<>();
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Map<String, Call> getActions() {
+      return actions;
+    }
+
+    public List<TransitionModel> getTransitions() {
+      return transitions;
+    }
+
+    public Call getEntry() {
+      return entry;
+    }
+
+    public void setEntry(Call entry) {
+      this.entry = entry;
+    }
+
+    public Call getExit() {
+      return exit;
+    }
+
+    public void setExit(Call exit) {
+      this.exit = exit;
+    }
+
+    public Call getDefaultAction() {
+      return defaultAction;
+    }
+
+    public void setDefaultAction(Call defaultAction) {
+      this.defaultAction = defaultAction;
+    }
+  }
+
+  /**
+   * A transition leaving a state.
+   */
+  static class TransitionModel {
+    private final String trigger;
+    private final String destination;
+    private final Call guard;
+    private final Call action;
+
+    public TransitionModel(String trigger, String destination, Call guard, Call action) {
+      this.trigger = trigger;
+      this.destination = destination;
+      this.guard = guard;
+      this.action = action;
+    }
+
+    public String getTrigger() {
+      return trigger;
+    }
+
+    public String getDestination() {
+      return destination;
+    }
+
+    public Call getGuard() {
+      return guard;
+    }
+
+    public Call getAction() {
+      return action;
+    }
+  }
+
+  private final String packageName;
+  private final String name;
+  private final TypeElement definition;
+  private final TypeElement stateType;
+  private final TypeElement triggerType;
+  private final List<StateModel> states;
+  private String initial;
+
+  public MachineModel(String packageName, String name, TypeElement definition, TypeElement stateType, TypeElement triggerType) {
+    this.packageName = packageName;
+    this.name = name;
+    this.definition = definition;
+    this.stateType = stateType;
+    this.triggerType = triggerType;
+    this.states = new ArrayList<>();
+  }
+
+  public String getPackageName() {
+    return packageName;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getQualifiedName() {
+    return packageName.isEmpty() ? name : packageName + "." + name;
+  }
+
+  public TypeElement getDefinition() {
+    return definition;
+  }
+
+  public TypeElement getStateType() {
+    return stateType;
+  }
+
+  public TypeElement getTriggerType() {
+    return triggerType;
+  }
+
+  /**
+   * Returns the states in the declaration order of the state enum.
+   * @return the states
+   */
+  public List<StateModel> getStates() {
+    return states;
+  }
+
+  public String getInitial() {
+    return initial;
+  }
+
+  public void setInitial(String initial) {
+    this.initial = initial;
+  }
+}
@@ -0,0 +1,454 @@
+package metatype.deepstate.processor;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+
+import metatype.deepstate.processor.MachineModel.Call;
+import metatype.deepstate.processor.MachineModel.StateModel;
+import metatype.deepstate.processor.MachineModel.TransitionModel;
+
+/**
+ * Writes the source of a generated state machine.  The generated class follows the same
+ * run-to-completion rules as {@link metatype.deepstate.core.DeepStateFsm}, including its cascade
+ * limit, default exception handler and state change publisher, but dispatches each event with a
+ * switch on the current state and the event trigger.
+ */
+class MachineWriter {
+  private final MachineModel model;
+  private final StringBuilder source;
+  private final String states;
+  private final String triggers;
+  private int indent;
+
+  public MachineWriter(MachineModel model) {
+    this.model = model;
+    this.source = new StringBuilder();
+    this.states = model.getStateType().getQualifiedName().toString();
+    this.triggers = model.getTriggerType().getQualifiedName().toString();
+  }
+
+  public String write() {
+    if (!model.getPackageName().isEmpty()) {
+      line("package %s;", model.getPackageName());
+      line("");
+    }
+    line("import java.util.ArrayDeque;");
+    line("import java.util.Deque;");
+    line("import java.util.Objects;");
+    line("import java.util.concurrent.ConcurrentLinkedQueue;");
+    line("import java.util.function.Consumer;");
+    line("import java.util.function.Supplier;");
+    line("");
+    line("import org.slf4j.Logger;");
+    line("import org.slf4j.LoggerFactory;");
+    line("");
+    line("import metatype.deepstate.FiniteStateMachine;");
+    line("import metatype.deepstate.core.CascadeException;");
+    line("import metatype.deepstate.core.DeepStateFsm;");
+    line("import metatype.deepstate.core.StateChangePublisher;");
+    line("");
+    line("/**");
+    line(" * State machine generated by {@code metatype.deepstate.processor.DeepStateProcessor} from");
+    line(" * {@link %s}.", model.getDefinition().getQualifiedName());
+    line(" */");
+
+    String definition = model.getDefinition().getQualifiedName().toString();
+    String inheritance = model.getDefinition().getKind() == ElementKind.INTERFACE
+        ? "implements " + definition + ", "
+        : "extends " + definition + " implements ";
+    open("public final class %s %sFiniteStateMachine<%s, %s> {", model.getName(), inheritance, triggers, states);
+
+    writeStateClass();
+    writeFields();
+    writeConstructors();
+    writeConfiguration();
+    writeQueries();
+    writeLifecycle();
+    writeDispatch();
+    model.getStates().forEach(this::writeState);
+
+    close("}");
+    return source.toString();
+  }
+
+  private void writeStateClass() {
+    open("private static final class CompiledState implements State<%s> {", states);
+    line("private final %s identity;", states);
+    line("");
+    open("CompiledState(%s identity) {", states);
+    line("this.identity = identity;");
+    close("}");
+    line("");
+    line("@Override");
+    open("public %s getIdentity() {", states);
+    line("return identity;");
+    close("}");
+    line("");
+    line("@Override");
+    open("public String toString() {");
+    line("return identity.toString();");
+    close("}");
+    close("}");
+    line("");
+  }
+
+  private void writeFields() {
+    open("private static final CompiledState[] STATES = {");
+    model.getStates().forEach(state -> line("new CompiledState(%s.%s),", states, state.getName()));
+    close("};");
+    line("");
+    line("private static final Logger LOG = LoggerFactory.getLogger(%s.class);", model.getName());
+    line("");
+    line("private final Object lock = new Object();");
+    line("private final ConcurrentLinkedQueue<Event<%s>> events = new ConcurrentLinkedQueue<>();", triggers);
+    open("private Consumer<Exception> uncaughtExceptionHandler = (e) -> {");
+    line("LOG.warn(\"Unexpected error\", e);");
+    close("};");
+    line("private Consumer<Event<%s>> auditor;", triggers);
+    line("private boolean active;");
+    line("private %s current;", states);
+    line("private int cascadeLimit = DeepStateFsm.DEFAULT_CASCADE_LIMIT;");
+    line("private int steps;");
+    line("private StateChangePublisher<%s, %s> changes;", triggers, states);
+    line("");
+  }
+
+  private void writeConstructors() {
+    if (model.getDefinition().getKind() == ElementKind.INTERFACE) {
+      open("public %s() {", model.getName());
+      close("}");
+      line("");
+      return;
+    }
+
+    for (ExecutableElement constructor : ElementFilter.constructorsIn(model.getDefinition().getEnclosedElements())) {
+      if (constructor.getModifiers().contains(Modifier.PRIVATE)) {
+        continue;
+      }
+
+      List<? extends VariableElement> parameters = constructor.getParameters();
+      StringBuilder declaration = new StringBuilder();
+      for (int i = 0; i < parameters.size(); i++) {
+        String type = parameters.get(i).asType().toString();
+        if (constructor.isVarArgs() && i == parameters.size() - 1) {
+          type = type.substring(0, type.length() - 2) + "...";
+        }
+        declaration.append(i == 0 ? "" : ", ").append(type).append(' ').append(parameters.get(i).getSimpleName());
+      }
+      String arguments = parameters.stream().map(p -> p.getSimpleName().toString()).collect(Collectors.joining(", "));
+      String exceptions = constructor.getThrownTypes().isEmpty() ? "" : " throws "
+          + constructor.getThrownTypes().stream().map(TypeMirror::toString).collect(Collectors.joining(", "));
+
+      open("public %s(%s)%s {", model.getName(), declaration, exceptions);
+      line("super(%s);", arguments);
+      close("}");
+      line("");
+    }
+  }
+
+  private void writeConfiguration() {
+    open("public %s catchExceptionsUsing(Consumer<Exception> exceptionHandler) {", model.getName());
+    line("this.uncaughtExceptionHandler = Objects.requireNonNull(exceptionHandler, \"exception handler must not be null\");");
+    line("return this;");
+    close("}");
+    line("");
+    open("public %s audit(Consumer<Event<%s>> auditor) {", model.getName(), triggers);
+    line("this.auditor = Objects.requireNonNull(auditor, \"auditor must not be null\");");
+    line("return this;");
+    close("}");
+    line("");
+    open("public %s limitCascades(int steps) {", model.getName());
+    open("if (steps <= 0) {");
+    line("throw new IllegalArgumentException(\"Cascade limit must be positive\");");
+    close("}");
+    open("synchronized (lock) {");
+    line("cascadeLimit = steps;");
+    close("}");
+    line("return this;");
+    close("}");
+    line("");
+  }
+
+  private void writeQueries() {
+    line("@Override");
+    open("public State<%s> getCurrentState() {", states);
+    open("synchronized (lock) {");
+    line("return current == null ? null : STATES[current.ordinal()];");
+    close("}");
+    close("}");
+    line("");
+    line("@Override");
+    open("public Deque<State<%s>> getCurrentStates() {", states);
+    open("synchronized (lock) {");
+    line("Deque<State<%s>> states = new ArrayDeque<>();", states);
+    open("if (current != null) {");
+    line("states.add(STATES[current.ordinal()]);");
+    close("}");
+    line("return states;");
+    close("}");
+    close("}");
+    line("");
+    line("@Override");
+    open("public <R> R read(Supplier<R> value) {");
+    open("synchronized (lock) {");
+    line("return value.get();");
+    close("}");
+    close("}");
+    line("");
+    line("@Override");
+    open("public StateChangePublisher<%s, %s> getStateChanges() {", triggers, states);
+    open("synchronized (lock) {");
+    open("if (changes == null) {");
+    line("changes = new StateChangePublisher<>();");
+    close("}");
+    line("return changes;");
+    close("}");
+    close("}");
+    line("");
+  }
+
+  private void writeLifecycle() {
+    line("@Override");
+    open("public void accept(Event<%s> event) {", triggers);
+    line("events.add(event);");
+    line("");
+    open("synchronized (lock) {");
+    open("if (active) {");
+    line("return;");
+    close("}");
+    line("");
+    line("active = true;");
+    open("try {");
+    line("runToCompletion();");
+    close("} finally {");
+    indent++;
+    line("active = false;");
+    close("}");
+    close("}");
+    close("}");
+    line("");
+    open("public %s begin() {", model.getName());
+    open("synchronized (lock) {");
+    line("current = %s.%s;", states, model.getInitial());
+    line("publish(null, STATES[current.ordinal()], null);");
+    line("enter(current);");
+    close("}");
+    line("return this;");
+    close("}");
+    line("");
+    open("public %s end() {", model.getName());
+    open("synchronized (lock) {");
+    line("exit(current);");
+    line("publish(STATES[current.ordinal()], null, null);");
+    line("current = null;");
+    close("}");
+    line("return this;");
+    close("}");
+    line("");
+    open("private void runToCompletion() {");
+    line("Event<%s> event;", triggers);
+    open("while ((event = events.poll()) != null) {");
+    open("if (auditor != null) {");
+    line("auditor.accept(event);");
+    close("}");
+    line("steps = 0;");
+    open("while (dispatch(event)) {");
+    line("// each transition sends the event to the new state until no further transition matches");
+    close("}");
+    close("}");
+    close("}");
+    line("");
+    open("private boolean step(Event<%s> event) {", triggers);
+    open("if (steps == cascadeLimit) {");
+    line("uncaughtExceptionHandler.accept(new CascadeException(\"Event \" + event + \" exceeded the limit of \" + cascadeLimit + \" transitions in state \" + current));");
+    line("return false;");
+    close("}");
+    line("steps++;");
+    line("return true;");
+    close("}");
+    line("");
+    open("private void publish(State<%s> exited, State<%s> entered, Event<%s> event) {", states, states, triggers);
+    open("if (changes != null) {");
+    line("changes.publish(exited, entered, event);");
+    close("}");
+    close("}");
+    line("");
+  }
+
+  private void writeDispatch() {
+    open("private boolean dispatch(Event<%s> event) {", triggers);
+    open("switch (current) {");
+    for (StateModel state : model.getStates()) {
+      if (state.getActions().isEmpty() && state.getDefaultAction() == null && state.getTransitions().isEmpty()) {
+        continue;
+      }
+      open("case %s:", state.getName());
+      line("return dispatch$%s(event);", state.getName());
+      indent--;
+    }
+    open("default:");
+    line("return false;");
+    indent--;
+    close("}");
+    close("}");
+    line("");
+    writeTransitionSwitch("enter", StateModel::getEntry);
+    writeTransitionSwitch("exit", StateModel::getExit);
+  }
+
+  private void writeTransitionSwitch(String name, Function<StateModel, Call> action) {
+    open("private void %s(%s state) {", name, states);
+    open("try {");
+    open("switch (state) {");
+    for (StateModel state : model.getStates()) {
+      Call call = action.apply(state);
+      if (call == null) {
+        continue;
+      }
+      open("case %s:", state.getName());
+      line("%s;", invoke(call, stateArgument(state)));
+      line("break;");
+      indent--;
+    }
+    open("default:");
+    line("break;");
+    indent--;
+    close("}");
+    close("} catch (Exception e) {");
+    indent++;
+    line("uncaughtExceptionHandler.accept(e);");
+    close("}");
+    close("}");
+    line("");
+  }
+
+  private void writeState(StateModel state) {
+    if (state.getActions().isEmpty() && state.getDefaultAction() == null && state.getTransitions().isEmpty()) {
+      return;
+    }
+
+    open("private boolean dispatch$%s(Event<%s> event) {", state.getName(), triggers);
+    line("%s trigger = event.getTrigger();", triggers);
+    open("if (trigger != null) {");
+    open("switch (trigger) {");
+    for (String trigger : model.getTriggerType().getEnclosedElements().stream()
+        .filter(e -> e.getKind() == ElementKind.ENUM_CONSTANT)
+        .map(e -> e.getSimpleName().toString())
+        .collect(Collectors.toList())) {
+      Call action = state.getActions().get(trigger);
+      List<TransitionModel> transitions = state.getTransitions().stream()
+          .filter(t -> t.getTrigger().equals(trigger))
+          .collect(Collectors.toList());
+      if (action == null && transitions.isEmpty()) {
+        continue;
+      }
+
+      open("case %s:", trigger);
+      writeStateAction(state, action == null ? state.getDefaultAction() : action);
+      boolean unguarded = false;
+      for (TransitionModel transition : transitions) {
+        writeTransition(state, transition);
+        if (transition.getGuard() == null) {
+          unguarded = true;
+          break;
+        }
+      }
+      if (!unguarded) {
+        line("return false;");
+      }
+      indent--;
+    }
+    open("default:");
+    line("break;");
+    indent--;
+    close("}");
+    close("}");
+    writeStateAction(state, state.getDefaultAction());
+    line("return false;");
+    close("}");
+    line("");
+  }
+
+  private void writeStateAction(StateModel state, Call action) {
+    if (action == null) {
+      return;
+    }
+    open("try {");
+    switch (action.getArity()) {
+      case 0:
+        line("%s();", action.getMethod());
+        break;
+      case 1:
+        line("%s(event);", action.getMethod());
+        break;
+      default:
+        line("%s(%s, event);", action.getMethod(), stateArgument(state));
+        break;
+    }
+    close("} catch (Exception e) {");
+    indent++;
+    line("uncaughtExceptionHandler.accept(e);");
+    close("}");
+  }
+
+  private void writeTransition(StateModel state, TransitionModel transition) {
+    if (transition.getGuard() != null) {
+      open("if (%s) {", invoke(transition.getGuard(), "event"));
+    }
+    open("if (!step(event)) {");
+    line("return false;");
+    close("}");
+    line("exit(%s.%s);", states, state.getName());
+    if (transition.getAction() != null) {
+      open("try {");
+      line("%s;", invoke(transition.getAction(), "event"));
+      close("} catch (Exception e) {");
+      indent++;
+      line("uncaughtExceptionHandler.accept(e);");
+      close("}");
+    }
+    line("current = %s.%s;", states, transition.getDestination());
+    line("publish(%s, STATES[current.ordinal()], event);", stateArgument(state));
+    line("enter(current);");
+    line("return true;");
+    if (transition.getGuard() != null) {
+      close("}");
+    }
+  }
+
+  private String stateArgument(StateModel state) {
+    return "STATES[" + model.getStates().indexOf(state) + "]";
+  }
+
+  private String invoke(Call call, String argument) {
+    return call.getMethod() + (call.getArity() == 0 ? "()" : "(" + argument + ")");
+  }
+
+  private void open(String format, Object... args) {
+    line(format, args);
+    indent++;
+  }
+
+  private void close(String format, Object... args) {
+    indent--;
+    line(format, args);
+  }
+
+  private void line(String format, Object... args) {
+    if (!format.isEmpty()) {
+      for (int i = 0; i < indent; i++) {
+        source.append("  ");
+      }
+      source.append(args.length == 0 ? format : String.format(format, args));
+    }
+    source.append('\n');
+  }
+}
@@ -0,0 +1,75 @@
+package metatype.deepstate;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import metatype.deepstate.core.BatchEngine;
+
+/**
+ * Measures the events per microsecond applied by a batch engine to an order tracking model, on one
+ * thread and split across the common pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+  private static final int EVENTS = 1 << 22;
+
+  @Param({ "false", "true" })
+  public boolean parallel;
+
+  private BatchEngine<String, String> engine;
+  private int[] states;
+  private int[] instances;
+  private int[] triggers;
+
+  @Setup
+  public void setup() {
+    engine = DeepState.<String, String>model()
+        .startingWith("CREATED")
+        .and().define("PAID")
+        .and().define("SHIPPED")
+        .and().define("CANCELLED")
+        .and().transition("PAY").from("CREATED").to("PAID")
+        .and().transition("SHIP").from("PAID").to("SHIPPED")
+        .and().transition("CANCEL").from("CREATED").to("CANCELLED")
+        .and().transition("CANCEL").from("PAID").to("CANCELLED")
+        .and().transition("REOPEN").from("CANCELLED").to("CREATED")
+        .and().batch();
+
+    String[] names = { "PAY", "SHIP", "CANCEL", "REOPEN" };
+    Random random = new Random(42);
+    states = engine.newInstances(1 << 16);
+    instances = new int[EVENTS];
+    triggers = new int[EVENTS];
+    for (int i = 0; i < EVENTS; i++) {
+      instances[i] = random.nextInt(states.length);
+      triggers[i] = engine.triggerId(names[random.nextInt(names.length)]);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(EVENTS)
+  public long advance() {
+    return parallel 
+        ? engine.advance(states, instances, triggers, ForkJoinPool.commonPool()) 
+        : engine.advance(states, instances, triggers);
+  }
+}
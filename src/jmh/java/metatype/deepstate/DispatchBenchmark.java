@@ -0,0 +1,101 @@
+package metatype.deepstate;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import metatype.deepstate.DeepState.FsmFactory;
+import metatype.deepstate.FiniteStateMachine.Event;
+import metatype.deepstate.FiniteStateMachine.Guard;
+
+/**
+ * Compares interpreted and compiled transition dispatch.  Several state machine definitions with
+ * their own guard implementations are driven together so the guard call sites see many types, as
+ * they do in an application with many kinds of state machines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+  private static final int STATES = 8;
+  private static final int DECOYS = 3;
+  private static final int MODELS = 4;
+
+  public enum Dispatch { INTERPRETED, COMPILED }
+
+  @Param({ "INTERPRETED", "COMPILED" })
+  public Dispatch dispatch;
+
+  private FiniteStateMachine<Integer, Integer>[] machines;
+  private Event<Integer>[] events;
+  private int step;
+
+  @Setup
+  @SuppressWarnings("unchecked")
+  public void setup() {
+    events = new Event[STATES];
+    for (int i = 0; i < STATES; i++) {
+      events[i] = new DeepStateEvent<>(i);
+    }
+
+    machines = new FiniteStateMachine[MODELS];
+    for (int model = 0; model < MODELS; model++) {
+      FsmFactory<Integer, Integer> factory = DeepState.<Integer, Integer>model();
+      if (dispatch == Dispatch.COMPILED) {
+        factory.compile();
+      }
+
+      factory.startingWith(0);
+      for (int state = 1; state < STATES; state++) {
+        factory.define(state);
+      }
+      for (int state = 0; state < STATES; state++) {
+        for (int decoy = 0; decoy < DECOYS; decoy++) {
+          factory.transition(state).from(state).to((state + decoy + 2) % STATES).guardedBy(never(model));
+        }
+        factory.transition(state).from(state).to((state + 1) % STATES).guardedBy(always(model));
+      }
+      machines[model] = factory.ready();
+    }
+  }
+
+  @Benchmark
+  public void dispatch() {
+    Event<Integer> event = events[step];
+    for (FiniteStateMachine<Integer, Integer> machine : machines) {
+      machine.accept(event);
+    }
+    step = (step + 1) % STATES;
+  }
+
+  private static Guard<Integer> always(int model) {
+    switch (model) {
+      case 0: return (event) -> event.getTrigger() >= 0;
+      case 1: return (event) -> event.getTrigger() != null;
+      case 2: return (event) -> event.getTrigger() < STATES;
+      default: return (event) -> event.getTrigger() > -1;
+    }
+  }
+
+  private static Guard<Integer> never(int model) {
+    switch (model) {
+      case 0: return (event) -> event.getTrigger() < 0;
+      case 1: return (event) -> event.getTrigger() == null;
+      case 2: return (event) -> event.getTrigger() >= STATES;
+      default: return (event) -> event.getTrigger() < -1;
+    }
+  }
+}
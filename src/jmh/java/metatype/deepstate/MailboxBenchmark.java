@@ -0,0 +1,59 @@
+package metatype.deepstate;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import metatype.deepstate.DeepState.FsmFactory;
+import metatype.deepstate.core.RingMailbox;
+
+/**
+ * Measures the cost of sending trigger-only events to a state machine, queueing them in a linked
+ * queue or in a ring of preallocated slots.  Run with {@code -prof gc} to compare the allocation
+ * rates.  With more than one thread the senders can outpace the thread processing the events, and
+ * the linked queue grows without bound.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(1)
+@Fork(1)
+public class MailboxBenchmark {
+  public enum Mailbox { QUEUE, RING }
+
+  @Param({ "QUEUE", "RING" })
+  public Mailbox mailbox;
+
+  private FiniteStateMachine<String, String> fsm;
+  private long received;
+
+  @Setup
+  public void setup() {
+    FsmFactory<String, String> factory = DeepState.<String, String>model();
+    if (mailbox == Mailbox.RING) {
+      factory.queueEventsUsing(() -> new RingMailbox<>(1024));
+    }
+    fsm = factory
+        .startingWith("RUNNING")
+        .when("PING", (state, event) -> received++)
+        .and().ready();
+  }
+
+  @Benchmark
+  public void send() {
+    fsm.trigger("PING");
+  }
+}
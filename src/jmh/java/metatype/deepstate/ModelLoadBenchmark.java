@@ -0,0 +1,71 @@
+package metatype.deepstate;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import metatype.deepstate.DeepState.FsmFactory;
+
+/**
+ * Measures the time to build a generated model and start a machine, as the number of states grows,
+ * when defining the model with a factory or loading it from text.  Each state has a transition to
+ * the next state and another back to the first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelLoadBenchmark {
+  @Param({ "100", "1000", "10000" })
+  public int states;
+
+  private String text;
+
+  @Setup
+  public void setup() {
+    StringBuilder model = new StringBuilder("initial S0\n");
+    for (int i = 0; i < states; i++) {
+      model.append("state S").append(i).append('\n');
+      model.append("transition S").append(i).append(" S").append((i + 1) % states).append(" next").append(i).append('\n');
+      if (i > 0) {
+        model.append("transition S").append(i).append(" S0 reset\n");
+      }
+    }
+    text = model.toString();
+  }
+
+  @Benchmark
+  public FiniteStateMachine<String, String> factory() {
+    FsmFactory<String, String> model = DeepState.<String, String>model();
+    model.startingWith("S0");
+    for (int i = 1; i < states; i++) {
+      model.define("S" + i);
+    }
+    for (int i = 0; i < states; i++) {
+      model.transition("next" + i).from("S" + i).to("S" + (i + 1) % states);
+      if (i > 0) {
+        model.transition("reset").from("S" + i).to("S0");
+      }
+    }
+    return model.ready();
+  }
+
+  @Benchmark
+  public FiniteStateMachine<String, String> loader() throws IOException {
+    return new ModelLoader().load(new StringReader(text)).ready();
+  }
+}
@@ -0,0 +1,75 @@
+package metatype.deepstate;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import metatype.deepstate.DeepState.FsmFactory;
+import metatype.deepstate.FiniteStateMachine.Event;
+
+/**
+ * Measures the cost of sending an event to a transition at the bottom of a chain of nested state
+ * machines, with a machine nested in each composite state or with the hierarchy flattened.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NestingBenchmark {
+  private static final int GO = 0;
+  private static final int BACK = 1;
+  private static final int LEFT = -1;
+  private static final int RIGHT = -2;
+
+  public enum Engine { NESTED, FLATTENED }
+
+  @Param({ "NESTED", "FLATTENED" })
+  public Engine engine;
+
+  @Param({ "1", "3", "5" })
+  public int depth;
+
+  private FiniteStateMachine<Integer, Integer> fsm;
+  private Event<Integer>[] events;
+  private int step;
+
+  @Setup
+  @SuppressWarnings("unchecked")
+  public void setup() {
+    events = new Event[] { new DeepStateEvent<>(GO), new DeepStateEvent<>(BACK) };
+
+    FsmFactory<Integer, Integer> root = DeepState.<Integer, Integer>model();
+    if (engine == Engine.FLATTENED) {
+      root.flatten();
+    }
+
+    FsmFactory<Integer, Integer> factory = root;
+    for (int level = 1; level < depth; level++) {
+      factory = factory.startingWith(level).nest();
+    }
+    factory.startingWith(LEFT)
+        .and().define(RIGHT)
+        .and().transition(GO).from(LEFT).to(RIGHT)
+        .and().transition(BACK).from(RIGHT).to(LEFT);
+
+    fsm = root.ready();
+  }
+
+  @Benchmark
+  public FiniteStateMachine<Integer, Integer> dispatch() {
+    fsm.accept(events[step++ & 1]);
+    return fsm;
+  }
+}
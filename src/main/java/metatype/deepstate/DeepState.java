@@ -1,20 +1,49 @@
 package metatype.deepstate;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import metatype.deepstate.FiniteStateMachine.Action;
 import metatype.deepstate.FiniteStateMachine.Event;
 import metatype.deepstate.FiniteStateMachine.Guard;
 import metatype.deepstate.FiniteStateMachine.StateAction;
 import metatype.deepstate.FiniteStateMachine.TransitionAction;
+import metatype.deepstate.core.ActiveStates;
+import metatype.deepstate.core.AdaptiveDispatcher;
+import metatype.deepstate.core.BatchEngine;
+import metatype.deepstate.core.CompiledDispatcher;
 import metatype.deepstate.core.CompositeState;
 import metatype.deepstate.core.DeepStateFsm;
+import metatype.deepstate.core.Dispatcher;
+import metatype.deepstate.core.HierarchicalFsm;
+import metatype.deepstate.core.HierarchicalFsm.Submachine;
+import metatype.deepstate.core.InterpretedDispatcher;
+import metatype.deepstate.core.Mailbox;
+import metatype.deepstate.core.Propagation;
+import metatype.deepstate.core.Scheduler;
 import metatype.deepstate.core.SimpleState;
+import metatype.deepstate.core.StateChangePublisher;
+import metatype.deepstate.core.TriggerIndex;
+import metatype.deepstate.core.TriggerSet;
 import metatype.deepstate.core.TriggeredTransition;
 
 public class DeepState {
@@ -32,6 +61,32 @@ public class DeepState {
     private Consumer<Exception> uncaughtExceptionHandler;
     private StateFactory<T, U> parent;
     private Consumer<Event<T>> auditor;
+    private boolean compile;
+    private int profilingPeriod;
+    private boolean flatten;
+    private boolean dropIgnored;
+    private int cascadeLimit;
+    private boolean detectCycles;
+    private Supplier<Mailbox<T>> mailboxes;
+    private int drainEvents;
+    private Duration drainTime;
+    private Executor handOff;
+    private Propagation propagation;
+    private Executor notificationExecutor;
+    private int notificationBuffer;
+    private Scheduler scheduler;
+    
+    /** the publisher shared by the machines created by the top level factory */
+    private StateChangePublisher<T, U> changes;
+    
+    /** the active states of the machines created by the top level factory */
+    private ActiveStates<U> activeStates;
+    
+    /** the triggers each state listens for while the top level factory creates a machine, or null */
+    private Map<StateFactory<T, U>, TriggerSet> interests;
+    
+    /** the state each machine resumes in while the top level machine is built, or null */
+    private Map<FsmFactory<T, U>, U> resumeStates;
     
     private FsmFactory() {
       this(null);
@@ -39,7 +94,7 @@ public class DeepState {
     
     private FsmFactory(StateFactory<T, U> parentState) {
       this.states = new HashMap<>();
-      this.transitions = new HashSet<>();
+      this.transitions = new LinkedHashSet<>();
       this.parent = parentState;
     }
 
@@ -78,9 +133,245 @@ public class DeepState {
       return this;
     }
     
+    /**
+     * Compiles a specialized dispatcher for each state machine created by this factory and its
+     * nested factories, instead of interpreting the transitions for every event.
+     * 
+     * @return the factory
+     * @see CompiledDispatcher
+     */
+    public FsmFactory<T, U> compile() {
+      compile = true;
+      return this;
+    }
+    
+    /**
+     * Counts how often each transition is selected and periodically reorders the evaluation of
+     * transitions declared {@link TransitionFactory#exclusive() exclusive} so the most frequently
+     * selected transition is tested first.  Applies to this factory and its nested factories.
+     * 
+     * @param period the number of events sent to a state between reorderings
+     * @return the factory
+     * @see AdaptiveDispatcher
+     */
+    public FsmFactory<T, U> profile(int period) {
+      if (period <= 0) {
+        throw new IllegalArgumentException("Profiling period must be positive");
+      }
+      profilingPeriod = period;
+      return this;
+    }
+    
+    /**
+     * Limits the number of transitions a single event may cause in each state machine created by
+     * this factory and its nested factories.
+     * 
+     * @param steps the maximum number of transitions per event
+     * @return the factory
+     * @see DeepStateFsm#limitCascades(int)
+     */
+    public FsmFactory<T, U> limitCascades(int steps) {
+      if (steps <= 0) {
+        throw new IllegalArgumentException("Cascade limit must be positive");
+      }
+      cascadeLimit = steps;
+      return this;
+    }
+    
+    /**
+     * Abandons the transitions caused by an event when they revisit a state, in each state machine
+     * created by this factory and its nested factories.
+     * 
+     * @return the factory
+     * @see DeepStateFsm#detectCycles()
+     */
+    public FsmFactory<T, U> detectCycles() {
+      detectCycles = true;
+      return this;
+    }
+    
+    /**
+     * Queues the events of each state machine created by this factory and its nested factories in
+     * a mailbox from the supplier, such as a {@link metatype.deepstate.core.RingMailbox}.  By
+     * default events are queued in an unbounded {@link metatype.deepstate.core.QueueMailbox}.
+     * 
+     * @param mailboxes supplies a new mailbox for each state machine
+     * @return the factory
+     * @see DeepStateFsm#queueEventsUsing(Mailbox)
+     */
+    public FsmFactory<T, U> queueEventsUsing(Supplier<Mailbox<T>> mailboxes) {
+      this.mailboxes = Objects.requireNonNull(mailboxes, "mailboxes must not be null");
+      return this;
+    }
+    
+    /**
+     * Limits the work a sending thread does processing the events of other threads, in each state
+     * machine created by this factory and its nested factories.
+     * 
+     * @param events the number of events processed before handing off, or zero for no limit
+     * @param time the time spent processing events before handing off, or null for no limit
+     * @return the factory
+     * @see DeepStateFsm#limitDrain(int, Duration)
+     */
+    public FsmFactory<T, U> limitDrain(int events, Duration time) {
+      if (events < 0 || (time != null && time.isNegative())) {
+        throw new IllegalArgumentException("Drain budget must not be negative");
+      }
+      drainEvents = events;
+      drainTime = time;
+      return this;
+    }
+    
+    /**
+     * Continues processing events on the executor once a thread has spent its drain budget, in
+     * each state machine created by this factory and its nested factories.
+     * 
+     * @param executor the executor
+     * @return the factory
+     * @see DeepStateFsm#handOffTo(Executor)
+     */
+    public FsmFactory<T, U> handOffTo(Executor executor) {
+      handOff = Objects.requireNonNull(executor, "executor must not be null");
+      return this;
+    }
+    
+    /**
+     * Decides which levels of the state machines created by this factory and its nested factories
+     * receive each event.  By default every level receives every event.
+     * 
+     * @param propagation the policy
+     * @return the factory
+     * @see DeepStateFsm#propagateEvents(Propagation)
+     */
+    public FsmFactory<T, U> propagateEvents(Propagation propagation) {
+      this.propagation = Objects.requireNonNull(propagation, "propagation must not be null");
+      return this;
+    }
+    
+    /**
+     * Runs this state machine and all nested state machines as a single machine with one lock and
+     * one event queue, rather than nesting a separate machine inside each composite state.
+     * Transitions of a flattened machine may also enter a state at any depth of the hierarchy, as
+     * long as the state name is only defined once.
+     * 
+     * @return the factory
+     * @see HierarchicalFsm
+     */
+    public FsmFactory<T, U> flatten() {
+      if (parent != null) {
+        throw new IllegalStateException("Only the top level state machine can be flattened");
+      }
+      flatten = true;
+      return this;
+    }
+    
+    /**
+     * Drops the events that none of the active states, including those of nested machines, react
+     * to by an internal action or a transition, without queueing them.  The triggers each state
+     * reacts to are collected when the machine is created; a state with a default action, or with
+     * a transition matching triggers by predicate, receives every event.
+     * 
+     * @return the factory
+     * @see DeepStateFsm#dropIgnoredEvents(TriggerIndex)
+     */
+    public FsmFactory<T, U> dropIgnoredEvents() {
+      if (parent != null) {
+        throw new IllegalStateException("Only the top level state machine can drop ignored events");
+      }
+      dropIgnored = true;
+      return this;
+    }
+    
+    /**
+     * Delivers the state changes of this state machine and all nested state machines to
+     * subscribers using the supplied executor, buffering at most the given number of changes for
+     * each subscriber.  By default changes are delivered using the common fork-join pool.
+     * 
+     * @param executor delivers the changes
+     * @param bufferCapacity the maximum number of undelivered changes per subscriber
+     * @return the factory
+     * @see FiniteStateMachine#getStateChanges()
+     */
+    public FsmFactory<T, U> publishStateChanges(Executor executor, int bufferCapacity) {
+      Objects.requireNonNull(executor, "executor must not be null");
+      if (parent != null) {
+        throw new IllegalStateException("State changes are published by the top level state machine");
+      }
+      if (bufferCapacity <= 0) {
+        throw new IllegalArgumentException("Buffer capacity must be positive");
+      }
+      notificationExecutor = executor;
+      notificationBuffer = bufferCapacity;
+      return this;
+    }
+    
+    /**
+     * Delivers the state changes of this state machine and all nested state machines on the
+     * supplied scheduler, and timestamps them with its clock, unless another executor is given
+     * to {@link #publishStateChanges(Executor, int)}.
+     * 
+     * @param scheduler the scheduler
+     * @return the factory
+     * @see metatype.deepstate.core.VirtualScheduler
+     */
+    public FsmFactory<T, U> scheduleUsing(Scheduler scheduler) {
+      Objects.requireNonNull(scheduler, "scheduler must not be null");
+      if (parent != null) {
+        throw new IllegalStateException("The scheduler is set on the top level state machine");
+      }
+      this.scheduler = scheduler;
+      return this;
+    }
+    
     public TransitionFactory<T, U> transition(T trigger) {
       Objects.requireNonNull(trigger, "trigger must not be null");
-      TransitionFactory<T, U> factory = new TransitionFactory<>(this, trigger);
+      return transition(Collections.singleton(trigger));
+    }
+    
+    /**
+     * Defines a transition caused by any of the supplied triggers.
+     * 
+     * @param triggers the triggers
+     * @return the transition factory
+     */
+    @SafeVarargs
+    public final TransitionFactory<T, U> transition(T... triggers) {
+      List<T> category = new ArrayList<>(triggers.length);
+      for (T trigger : triggers) {
+        category.add(trigger);
+      }
+      return transition(category);
+    }
+    
+    /**
+     * Defines a transition caused by any trigger in a category of triggers, such as an
+     * {@link java.util.EnumSet}.  The category is copied.
+     * 
+     * @param category the triggers
+     * @return the transition factory
+     */
+    public TransitionFactory<T, U> transition(Collection<? extends T> category) {
+      Objects.requireNonNull(category, "category must not be null");
+      if (category.isEmpty()) {
+        throw new IllegalArgumentException("category must contain at least one trigger");
+      }
+      category.forEach(trigger -> Objects.requireNonNull(trigger, "trigger must not be null"));
+      
+      TransitionFactory<T, U> factory = new TransitionFactory<>(this, new LinkedHashSet<>(category), null);
+      transitions.add(factory);
+      return factory;
+    }
+    
+    /**
+     * Defines a transition caused by any trigger accepted by the predicate.  The predicate is tested
+     * for every event sent to the source state, so prefer listing the triggers when they are known.
+     * 
+     * @param predicate the trigger predicate
+     * @return the transition factory
+     */
+    public TransitionFactory<T, U> transition(Predicate<T> predicate) {
+      Objects.requireNonNull(predicate, "predicate must not be null");
+      TransitionFactory<T, U> factory = new TransitionFactory<>(this, null, predicate);
       transitions.add(factory);
       return factory;
     }
@@ -91,32 +382,367 @@ public class DeepState {
     }
     
     public DeepStateFsm<T, U> ready() {
-      return create().begin();
+      return build(Collections.emptyMap());
+    }
+    
+    /**
+     * Creates the state machine like {@link #ready()}, but begins in the named state instead of
+     * the initial state.  Any nested state machines begin in their initial states.
+     * 
+     * @param state the name of a top level state
+     * @return the state machine
+     * @see #resume(List)
+     */
+    public DeepStateFsm<T, U> resume(U state) {
+      return resume(Collections.singletonList(state));
+    }
+    
+    /**
+     * Creates the state machine like {@link #ready()}, but begins in the supplied configuration
+     * instead of the initial states.  The configuration lists the active states in the order of
+     * {@link FiniteStateMachine#getCurrentStates()}: a top level state followed by the
+     * configuration of each of its nested machines in turn.  Nested machines missing from the end
+     * of the list begin in their initial states.  This restores a machine from its active states,
+     * for example when it moves to another node.
+     * 
+     * @param configuration the names of the active states, outermost first
+     * @return the state machine
+     */
+    public DeepStateFsm<T, U> resume(List<? extends U> configuration) {
+      Objects.requireNonNull(configuration, "configuration must not be null");
+      if (configuration.isEmpty()) {
+        throw new IllegalArgumentException("Unable to resume without a state");
+      }
+      
+      Map<FsmFactory<T, U>, U> starts = new IdentityHashMap<>();
+      Iterator<? extends U> names = configuration.iterator();
+      collectResumeStates(names, starts);
+      if (names.hasNext()) {
+        throw new IllegalArgumentException("Unable to resume in " + configuration + ", which has more states than the machines nested in " + configuration.get(0));
+      }
+      return build(starts);
+    }
+    
+    /**
+     * Creates an engine that advances many instances of this model at once, held as arrays of
+     * state ids rather than state machines.  The model must not have nested machines, actions or
+     * guards, and its transitions must list their triggers.
+     * 
+     * @return the engine
+     * @see BatchEngine
+     */
+    public BatchEngine<T, U> batch() {
+      Objects.requireNonNull(initialState, "initial state must not be null");
+      
+      Map<U, SimpleState<T, U>> realStates = new HashMap<>();
+      states.forEach((name, factory) -> {
+        if (!factory.regions.isEmpty() || factory.entryAction != null || factory.exitAction != null 
+            || !factory.actions.isEmpty() || factory.defaultAction != null) {
+          throw new IllegalStateException("State " + name + " has actions or nested machines, which a batch engine cannot run");
+        }
+        realStates.put(name, new SimpleState<>(name, null, null, factory.actions, null, uncaughtExceptionHandler));
+      });
+      return new BatchEngine<>(realStates.get(initialState), realStates.values(), createTransitions(realStates, realStates::get, new HashSet<>()));
+    }
+    
+    private DeepStateFsm<T, U> build(Map<FsmFactory<T, U>, U> starts) {
+      TriggerIndex<T> triggers = new TriggerIndex<>();
+      resumeStates = starts;
+      changes = createStateChangePublisher();
+      activeStates = new ActiveStates<>();
+      if (dropIgnored) {
+        interests = new IdentityHashMap<>();
+        collectInterests(TriggerSet.empty(), triggers);
+      }
+      
+      DeepStateFsm<T, U> fsm = flatten ? createHierarchy(triggers) : create(triggers);
+      if (dropIgnored) {
+        fsm.dropIgnoredEvents(triggers);
+      }
+      return fsm.trackActiveStates(activeStates).begin();
+    }
+    
+    /**
+     * Takes the state this machine resumes in from the configuration, followed by the states of
+     * the machines nested in it.
+     */
+    private void collectResumeStates(Iterator<? extends U> configuration, Map<FsmFactory<T, U>, U> starts) {
+      if (!configuration.hasNext()) {
+        return;
+      }
+      
+      U name = configuration.next();
+      StateFactory<T, U> state = states.get(name);
+      if (state == null) {
+        throw new IllegalArgumentException("Unable to resume in undefined state " + name);
+      }
+      starts.put(this, name);
+      state.regions.forEach(region -> region.collectResumeStates(configuration, starts));
+    }
+    
+    /**
+     * Records the triggers each state of this machine listens for: those of its own actions and
+     * transitions, of the states enclosing it and of every state nested in it.
+     * 
+     * @param enclosing the triggers of the enclosing states, or null if any
+     * @return the triggers the states of this machine and their nested machines react to, or null
+     *         if any
+     */
+    private TriggerSet collectInterests(TriggerSet enclosing, TriggerIndex<T> triggers) {
+      TriggerSet machine = TriggerSet.empty();
+      for (Map.Entry<U, StateFactory<T, U>> entry : states.entrySet()) {
+        StateFactory<T, U> state = entry.getValue();
+        TriggerSet own = state.defaultAction == null ? triggers.intern(state.actions.keySet()) : null;
+        for (TransitionFactory<T, U> transition : transitions) {
+          if (entry.getKey().equals(transition.from)) {
+            own = union(own, transition.triggers == null ? null : triggers.intern(transition.triggers));
+          }
+        }
+        
+        TriggerSet reached = own;
+        for (FsmFactory<T, U> region : state.regions) {
+          reached = union(reached, region.collectInterests(union(enclosing, own), triggers));
+        }
+        getInterests().put(state, union(enclosing, reached));
+        machine = union(machine, reached);
+      }
+      return machine;
+    }
+    
+    private static TriggerSet union(TriggerSet a, TriggerSet b) {
+      return a == null || b == null ? null : a.union(b);
+    }
+    
+    private StateChangePublisher<T, U> createStateChangePublisher() {
+      int capacity = notificationBuffer > 0 ? notificationBuffer : Flow.defaultBufferSize();
+      if (notificationExecutor != null) {
+        return new StateChangePublisher<>(notificationExecutor, capacity);
+      }
+      return scheduler == null ? new StateChangePublisher<>() : new StateChangePublisher<>(scheduler, capacity);
+    }
+    
+    private DeepStateFsm<T, U> configure(DeepStateFsm<T, U> fsm) {
+      fsm.limitCascades(getCascadeLimit());
+      fsm.publishStateChanges(getStateChanges());
+      Supplier<Mailbox<T>> mailbox = getMailboxes();
+      if (mailbox != null) {
+        fsm.queueEventsUsing(mailbox.get());
+      }
+      if (isDetectingCycles()) {
+        fsm.detectCycles();
+      }
+      FsmFactory<T, U> budget = getDrainBudget();
+      if (budget != null) {
+        fsm.limitDrain(budget.drainEvents, budget.drainTime);
+      }
+      fsm.handOffTo(getHandOff());
+      fsm.propagateEvents(getPropagation());
+      return fsm;
     }
     
-    private DeepStateFsm<T, U> create() {
+    private DeepStateFsm<T, U> create(TriggerIndex<T> triggers) {
       Objects.requireNonNull(initialState, "initial state must not be null");
       
       Map<U, SimpleState<T, U>> realStates = new HashMap<>();
       states.forEach((name, factory) -> {
-        realStates.put(name, factory.create(name, uncaughtExceptionHandler));
+        realStates.put(name, factory.create(name, uncaughtExceptionHandler, triggers));
       });
       
-      Set<TriggeredTransition<T, U>> realTransitions = new HashSet<>();
+      // nested machines run separately, so a transition cannot leave its own machine
+      for (TransitionFactory<T, U> transition : transitions) {
+        if (!states.containsKey(transition.to) && getRoot().defines(transition.to)) {
+          throw new IllegalStateException("Transition " + transition.describeTrigger() + " from state " + transition.from + " enters state "
+              + transition.to + " of another state machine in the hierarchy, which requires flatten() on the top level model");
+        }
+      }
+      
+      Set<TriggeredTransition<T, U>> exclusiveTransitions = new HashSet<>();
+      Set<TriggeredTransition<T, U>> realTransitions = createTransitions(realStates, realStates::get, exclusiveTransitions);
+      DeepStateFsm<T, U> fsm = configure(new DeepStateFsm<>(realStates.get(initialState), createDispatcher(realTransitions, exclusiveTransitions, triggers), uncaughtExceptionHandler, auditor));
+      U start = getResumeStates().get(this);
+      if (start != null) {
+        fsm.resumeIn(realStates.get(start));
+      }
+      return fsm;
+    }
+    
+    private DeepStateFsm<T, U> createHierarchy(TriggerIndex<T> triggers) {
+      Map<FsmFactory<T, U>, Map<U, SimpleState<T, U>>> hierarchy = new IdentityHashMap<>();
+      createStates(hierarchy);
+      DeepStateFsm<T, U> fsm = configure(new HierarchicalFsm<>(createSubmachine(hierarchy, triggers, initialState), uncaughtExceptionHandler, auditor));
+      
+      // a flattened machine resumes in its innermost state, entering the states containing it
+      SimpleState<T, U> innermost = null;
+      for (FsmFactory<T, U> level = this; resumeStates.containsKey(level);) {
+        U name = resumeStates.get(level);
+        innermost = hierarchy.get(level).get(name);
+        List<FsmFactory<T, U>> regions = level.states.get(name).regions;
+        if (regions.isEmpty()) {
+          break;
+        }
+        level = regions.get(0);
+      }
+      if (innermost != null) {
+        fsm.resumeIn(innermost);
+      }
+      return fsm;
+    }
+    
+    private void createStates(Map<FsmFactory<T, U>, Map<U, SimpleState<T, U>>> hierarchy) {
+      Objects.requireNonNull(initialState, "initial state must not be null");
+      
+      Map<U, SimpleState<T, U>> realStates = new HashMap<>();
+      states.forEach((name, factory) -> {
+        if (factory.regions.size() > 1) {
+          throw new IllegalStateException("Orthogonal regions of state " + name + " cannot be flattened");
+        }
+        realStates.put(name, factory.createSimple(name, uncaughtExceptionHandler));
+        factory.regions.forEach(region -> region.createStates(hierarchy));
+      });
+      hierarchy.put(this, realStates);
+    }
+    
+    private Submachine<T, U> createSubmachine(Map<FsmFactory<T, U>, Map<U, SimpleState<T, U>>> hierarchy, TriggerIndex<T> triggers, U start) {
+      Map<U, SimpleState<T, U>> realStates = hierarchy.get(this);
+      Set<TriggeredTransition<T, U>> exclusiveTransitions = new HashSet<>();
+      Set<TriggeredTransition<T, U>> realTransitions = createTransitions(realStates, (name) -> resolve(name, realStates, hierarchy), exclusiveTransitions);
+      
+      Submachine<T, U> machine = new Submachine<>(realStates.get(start), realStates.values(), realTransitions, 
+          createDispatcher(realTransitions, exclusiveTransitions, triggers), uncaughtExceptionHandler);
+      states.forEach((name, factory) -> factory.regions.forEach(region -> {
+        machine.nest(realStates.get(name), region.createSubmachine(hierarchy, triggers, region.initialState));
+      }));
+      return machine;
+    }
+    
+    private FsmFactory<T, U> getRoot() {
+      return parent == null ? this : parent.fsm.getRoot();
+    }
+    
+    /**
+     * Returns true if this state machine or one nested in it defines the named state.
+     */
+    private boolean defines(U name) {
+      if (states.containsKey(name)) {
+        return true;
+      }
+      return states.values().stream().flatMap(state -> state.regions.stream()).anyMatch(region -> region.defines(name));
+    }
+    
+    /**
+     * Finds a transition destination in this state machine, or in any other machine of a flattened
+     * hierarchy if the name is unique.
+     */
+    private SimpleState<T, U> resolve(U name, Map<U, SimpleState<T, U>> realStates, Map<FsmFactory<T, U>, Map<U, SimpleState<T, U>>> hierarchy) {
+      SimpleState<T, U> state = realStates.get(name);
+      if (state != null) {
+        return state;
+      }
+      
+      List<SimpleState<T, U>> matches = hierarchy.values().stream()
+          .map(machine -> machine.get(name))
+          .filter(Objects::nonNull)
+          .collect(Collectors.toList());
+      if (matches.size() > 1) {
+        throw new IllegalStateException("Ambiguous to state " + name + " is defined by more than one nested state machine");
+      }
+      return matches.isEmpty() ? null : matches.get(0);
+    }
+    
+    private Set<TriggeredTransition<T, U>> createTransitions(Map<U, SimpleState<T, U>> realStates, Function<U, SimpleState<T, U>> destinations, 
+        Set<TriggeredTransition<T, U>> exclusiveTransitions) {
+      Set<TriggeredTransition<T, U>> realTransitions = new LinkedHashSet<>();
       transitions.forEach((factory) -> {
         SimpleState<T, U> from = realStates.get(factory.from);
-        Objects.requireNonNull(from, "Undefined from state " + factory.from + " for transition " + factory.trigger);
+        Objects.requireNonNull(from, "Undefined from state " + factory.from + " for transition " + factory.describeTrigger());
         
-        SimpleState<T, U> to = realStates.get(factory.to);
-        Objects.requireNonNull(to, "Undefined to state " + factory.to + " for transition " + factory.trigger);
+        SimpleState<T, U> to = destinations.apply(factory.to);
+        Objects.requireNonNull(to, "Undefined to state " + factory.to + " for transition " + factory.describeTrigger());
         
         if (from == to && factory.guard == null) {
           throw new IllegalStateException("Unguarded self transitions will cause an infinite loop in state " + factory.to);
         }
         
-        realTransitions.add(new TriggeredTransition<>(factory.trigger, from, to, factory.guard, factory.action));
+        TriggeredTransition<T, U> transition = factory.triggers == null
+            ? new TriggeredTransition<>(factory.predicate, from, to, factory.guard, factory.action)
+            : new TriggeredTransition<>(factory.triggers, from, to, factory.guard, factory.action);
+        realTransitions.add(transition);
+        if (factory.exclusive) {
+          exclusiveTransitions.add(transition);
+        }
       });
-      return new DeepStateFsm<>(realStates.get(initialState), realTransitions, uncaughtExceptionHandler, auditor);
+      return realTransitions;
+    }
+    
+    private Dispatcher<T, U> createDispatcher(Set<TriggeredTransition<T, U>> transitions, Set<TriggeredTransition<T, U>> exclusive, TriggerIndex<T> triggers) {
+      int period = getProfilingPeriod();
+      if (isCompiled()) {
+        if (period > 0) {
+          throw new IllegalStateException("Transition profiling is not supported by compiled dispatch");
+        }
+        return new CompiledDispatcher<>(transitions, triggers);
+      }
+      if (period > 0) {
+        return new AdaptiveDispatcher<>(transitions, exclusive, triggers, period);
+      }
+      return new InterpretedDispatcher<>(transitions, triggers);
+    }
+    
+    private boolean isCompiled() {
+      return compile || (parent != null && parent.fsm.isCompiled());
+    }
+    
+    private int getProfilingPeriod() {
+      return profilingPeriod > 0 || parent == null ? profilingPeriod : parent.fsm.getProfilingPeriod();
+    }
+    
+    private int getCascadeLimit() {
+      if (cascadeLimit > 0) {
+        return cascadeLimit;
+      }
+      return parent == null ? DeepStateFsm.DEFAULT_CASCADE_LIMIT : parent.fsm.getCascadeLimit();
+    }
+    
+    private StateChangePublisher<T, U> getStateChanges() {
+      return changes != null || parent == null ? changes : parent.fsm.getStateChanges();
+    }
+    
+    private ActiveStates<U> getActiveStates() {
+      return activeStates != null || parent == null ? activeStates : parent.fsm.getActiveStates();
+    }
+    
+    private Map<StateFactory<T, U>, TriggerSet> getInterests() {
+      return interests != null || parent == null ? interests : parent.fsm.getInterests();
+    }
+    
+    private Map<FsmFactory<T, U>, U> getResumeStates() {
+      return resumeStates != null || parent == null ? resumeStates : parent.fsm.getResumeStates();
+    }
+    
+    private Supplier<Mailbox<T>> getMailboxes() {
+      return mailboxes != null || parent == null ? mailboxes : parent.fsm.getMailboxes();
+    }
+    
+    private FsmFactory<T, U> getDrainBudget() {
+      if (drainEvents > 0 || drainTime != null) {
+        return this;
+      }
+      return parent == null ? null : parent.fsm.getDrainBudget();
+    }
+    
+    private Propagation getPropagation() {
+      if (propagation != null) {
+        return propagation;
+      }
+      return parent == null ? Propagation.BROADCAST : parent.fsm.getPropagation();
+    }
+    
+    private Executor getHandOff() {
+      return handOff != null || parent == null ? handOff : parent.fsm.getHandOff();
+    }
+    
+    private boolean isDetectingCycles() {
+      return detectCycles || (parent != null && parent.fsm.isDetectingCycles());
     }
   }
   
@@ -126,11 +752,13 @@ public class DeepState {
     private Action<U> exitAction;
     private Map<T, StateAction<T, U>> actions;
     private StateAction<T, U> defaultAction;
-    private FsmFactory<T, U> nestedStateMachine;
+    private List<FsmFactory<T, U>> regions;
+    private ForkJoinPool pool;
     
     private StateFactory(FsmFactory<T, U> fsm) {
       this.fsm = fsm;
       actions = new HashMap<>();
+      regions = new ArrayList<>();
     }
     
     public StateFactory<T, U> configure(Consumer<StateFactory<T, U>> factory) {
@@ -158,35 +786,95 @@ public class DeepState {
       return this;
     }
     
+    /**
+     * Nests a state machine in this state.  Nesting more than once adds another
+     * {@link #region() region}.
+     * 
+     * @return the nested factory
+     */
     public FsmFactory<T, U> nest() {
-      nestedStateMachine = new FsmFactory<>(this);
-      return nestedStateMachine;
+      return region();
+    }
+    
+    /**
+     * Adds an orthogonal region to this state.  Each region is a nested state machine, and all the
+     * regions are active while this state is active.  Events sent to this state are sent to every
+     * region in the order the regions were defined.
+     * 
+     * @return the nested factory
+     */
+    public FsmFactory<T, U> region() {
+      FsmFactory<T, U> region = new FsmFactory<>(this);
+      regions.add(region);
+      return region;
+    }
+    
+    /**
+     * Sends events to the regions of this state in parallel using the common fork-join pool.
+     * 
+     * @return the factory
+     * @see #parallel(ForkJoinPool)
+     */
+    public StateFactory<T, U> parallel() {
+      return parallel(ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Sends events to the regions of this state in parallel, waiting for every region to finish
+     * before the event is complete.  The regions must be independent of each other.
+     * 
+     * @param pool runs the regions
+     * @return the factory
+     */
+    public StateFactory<T, U> parallel(ForkJoinPool pool) {
+      Objects.requireNonNull(pool, "pool must not be null");
+      this.pool = pool;
+      return this;
     }
 
     public FsmFactory<T, U> and() {
       return fsm;
     }
     
-    private SimpleState<T, U> create(U name, Consumer<Exception> uncaughtExceptionHandler) {
-      if (nestedStateMachine == null) {
-        return new SimpleState<>(name, entryAction, exitAction, actions, defaultAction, uncaughtExceptionHandler);
+    private SimpleState<T, U> create(U name, Consumer<Exception> uncaughtExceptionHandler, TriggerIndex<T> triggers) {
+      if (regions.isEmpty()) {
+        return createSimple(name, uncaughtExceptionHandler);
       }
-      return new CompositeState<>(name, entryAction, exitAction, actions, defaultAction, uncaughtExceptionHandler, nestedStateMachine.create());
+      
+      List<DeepStateFsm<T, U>> nested = new ArrayList<>(regions.size());
+      regions.forEach(region -> nested.add(region.create(triggers)));
+      return track(new CompositeState<>(name, entryAction, exitAction, actions, defaultAction, uncaughtExceptionHandler, nested, pool));
+    }
+    
+    private SimpleState<T, U> createSimple(U name, Consumer<Exception> uncaughtExceptionHandler) {
+      return track(new SimpleState<>(name, entryAction, exitAction, actions, defaultAction, uncaughtExceptionHandler));
+    }
+    
+    private SimpleState<T, U> track(SimpleState<T, U> state) {
+      state.trackIn(fsm.getActiveStates());
+      Map<StateFactory<T, U>, TriggerSet> interests = fsm.getInterests();
+      if (interests != null) {
+        state.listenFor(interests.get(this));
+      }
+      return state;
     }
   }
   
   public static class TransitionFactory<T, U> {
     private final FsmFactory<T, U> fsm;
-    private final T trigger;
+    private final Set<T> triggers;
+    private final Predicate<T> predicate;
     
     private U from;
     private U to;
     private Guard<T> guard;
     private TransitionAction<T, U> action;
+    private boolean exclusive;
 
-    private TransitionFactory(FsmFactory<T, U> fsm, T trigger) {
+    private TransitionFactory(FsmFactory<T, U> fsm, Set<T> triggers, Predicate<T> predicate) {
       this.fsm = fsm;
-      this.trigger = trigger;
+      this.triggers = triggers;
+      this.predicate = predicate;
     }
     
     public TransitionFactory<T, U> configure(Consumer<TransitionFactory<T, U>> factory) {
@@ -214,11 +902,30 @@ public class DeepState {
       return this;
     }
     
+    /**
+     * Declares that the guard of this transition never passes for an event that passes the guard
+     * of another exclusive transition leaving the same state.  Adjacent exclusive transitions may
+     * then be evaluated in any order when {@link FsmFactory#profile(int) profiling}.
+     * 
+     * @return the factory
+     */
+    public TransitionFactory<T, U> exclusive() {
+      this.exclusive = true;
+      return this;
+    }
+    
     public FsmFactory<T, U> and() {
       if (from == null || to == null) {
         throw new IllegalStateException("Transition endpoints must be set");
       }
       return fsm;
     }
+    
+    private String describeTrigger() {
+      if (triggers == null) {
+        return "matching " + predicate;
+      }
+      return triggers.size() == 1 ? triggers.iterator().next().toString() : triggers.toString();
+    }
   }
 }
@@ -12,7 +12,7 @@ import metatype.deepstate.FiniteStateMachine.Event;
  */
 public class DeepStateEvent<T, P> implements Event<T> {
   private final T trigger;
-  private final P payload;
+  private final Optional<P> payload;
 
   public DeepStateEvent(T trigger) {
     this(trigger, null);
@@ -20,7 +20,7 @@ public class DeepStateEvent<T, P> implements Event<T> {
   
   public DeepStateEvent(T trigger, P payload) {
     this.trigger = trigger;
-    this.payload = payload;
+    this.payload = Optional.ofNullable(payload);
   }
   
   @Override
@@ -34,6 +34,6 @@ public class DeepStateEvent<T, P> implements Event<T> {
   }
 
   public Optional<P> getPayload() {
-    return Optional.ofNullable(payload);
+    return payload;
   }
 }
@@ -0,0 +1,32 @@
+package metatype.deepstate;
+
+import metatype.deepstate.FiniteStateMachine.Event;
+
+/**
+ * An event that contains a trigger and a primitive double payload, which is read without boxing.
+ *
+ * @param <T> the trigger type
+ */
+public class DoubleEvent<T> implements Event<T> {
+  private final T trigger;
+  private final double payload;
+
+  public DoubleEvent(T trigger, double payload) {
+    this.trigger = trigger;
+    this.payload = payload;
+  }
+  
+  @Override
+  public T getTrigger() {
+    return trigger;
+  }
+  
+  @Override
+  public String toString() {
+    return trigger + "(" + payload + ")";
+  }
+
+  public double getPayload() {
+    return payload;
+  }
+}
@@ -1,6 +1,7 @@
 package metatype.deepstate;
 
 import java.util.Deque;
+import java.util.concurrent.Flow;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
@@ -28,6 +29,32 @@ public interface FiniteStateMachine<T, U> {
    */
   Deque<State<U>> getCurrentStates();
 
+  /**
+   * Returns true if a state with the given name is active at any level of the state machine.
+   * 
+   * @param state the name of the state
+   * @return true if the state is active
+   */
+  default boolean isIn(U state) {
+    return getCurrentStates().stream().anyMatch(current -> current.getIdentity().equals(state));
+  }
+  
+  /**
+   * Returns true if any of the named states is active at any level of the state machine.
+   * 
+   * @param states the names of the states
+   * @return true if one of the states is active
+   */
+  @SuppressWarnings("unchecked")
+  default boolean isInAny(U... states) {
+    for (U state : states) {
+      if (isIn(state)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Obtains the supplied value in a thread-safe way.  This allows reads to be coordinated
    * with updates from the state machine.
@@ -45,6 +72,37 @@ public interface FiniteStateMachine<T, U> {
    */
   void accept(Event<T> event);
   
+  /**
+   * Updates the state machine by applying each of the supplied events in order.  Implementations
+   * may queue the whole batch before processing any of it.
+   * 
+   * @param events the events to apply
+   */
+  default void acceptAll(Iterable<? extends Event<T>> events) {
+    for (Event<T> event : events) {
+      accept(event);
+    }
+  }
+  
+  /**
+   * Updates the state machine with an event that has the supplied trigger and no payload.
+   * Implementations may reuse a single event for each trigger.
+   * 
+   * @param trigger the event trigger
+   */
+  default void trigger(T trigger) {
+    accept(new DeepStateEvent<>(trigger));
+  }
+  
+  /**
+   * Returns a publisher of the state changes made by this state machine and its nested state
+   * machines.  Changes are delivered asynchronously, so subscribers never delay the processing of
+   * events, and each subscriber receives only as many changes as it has requested.
+   * 
+   * @return the publisher
+   */
+  Flow.Publisher<StateChange<T, U>> getStateChanges();
+  
   /**
    * A logical representation of the allowed conditions within a system or component.  Must
    * be uniquely identified.
@@ -93,6 +151,39 @@ public interface FiniteStateMachine<T, U> {
     T getTrigger();
   }
   
+  /**
+   * A change of the current state of a state machine.  A transition exits one state and enters
+   * another.  When a state machine begins no state is exited, and when it ends no state is entered.
+   *
+   * @param <T> the type of the event trigger
+   * @param <U> the type of the state name
+   */
+  interface StateChange<T, U> {
+    /**
+     * Returns the state that was exited.
+     * @return the exited state, or null if the state machine began
+     */
+    State<U> getExited();
+    
+    /**
+     * Returns the state that was entered.
+     * @return the entered state, or null if the state machine ended
+     */
+    State<U> getEntered();
+    
+    /**
+     * Returns the trigger of the event that caused the change.
+     * @return the trigger, or null if the state machine began or ended
+     */
+    T getTrigger();
+    
+    /**
+     * Returns the time of the change.
+     * @return the time in milliseconds since the epoch
+     */
+    long getTimestamp();
+  }
+  
   /**
    * An action that is invoked when entering or leaving a state.
    *
@@ -0,0 +1,32 @@
+package metatype.deepstate;
+
+import metatype.deepstate.FiniteStateMachine.Event;
+
+/**
+ * An event that contains a trigger and a primitive long payload, which is read without boxing.
+ *
+ * @param <T> the trigger type
+ */
+public class LongEvent<T> implements Event<T> {
+  private final T trigger;
+  private final long payload;
+
+  public LongEvent(T trigger, long payload) {
+    this.trigger = trigger;
+    this.payload = payload;
+  }
+  
+  @Override
+  public T getTrigger() {
+    return trigger;
+  }
+  
+  @Override
+  public String toString() {
+    return trigger + "(" + payload + ")";
+  }
+
+  public long getPayload() {
+    return payload;
+  }
+}
@@ -0,0 +1,293 @@
+package metatype.deepstate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import metatype.deepstate.FiniteStateMachine.Action;
+import metatype.deepstate.FiniteStateMachine.Guard;
+import metatype.deepstate.FiniteStateMachine.StateAction;
+import metatype.deepstate.FiniteStateMachine.TransitionAction;
+import metatype.deepstate.core.CompiledDispatcher;
+import metatype.deepstate.core.DeepStateFsm;
+import metatype.deepstate.core.Dispatcher;
+import metatype.deepstate.core.InterpretedDispatcher;
+import metatype.deepstate.core.SimpleState;
+import metatype.deepstate.core.TriggerIndex;
+import metatype.deepstate.core.TriggeredTransition;
+
+/**
+ * Loads large, generated models from a line oriented text format, as an alternative to defining
+ * them with a {@link DeepState.FsmFactory}.  The model is read a line at a time and its states and
+ * transitions are created directly, then the transitions are resolved and indexed once at the end.
+ * Actions and guards are bound by name from those registered with the loader.
+ * <pre>
+ * # an order
+ * initial Created
+ * state Created
+ * state Paid entry=notify on:refund=logRefund
+ * transition Created Paid pay,prepay guard=hasFunds action=charge
+ * </pre>
+ * A {@code state} line may name an {@code entry} and {@code exit} action, internal actions for
+ * triggers with {@code on:trigger=name}, and a default action with {@code otherwise=name}.  A
+ * {@code transition} line lists its source, destination and comma separated triggers, and may
+ * name a {@code guard} and an {@code action}.  States may be referenced before they are defined.
+ * Nested machines are not supported.
+ */
+public class ModelLoader {
+  private final Map<String, Action<String>> actions;
+  private final Map<String, StateAction<String, String>> stateActions;
+  private final Map<String, TransitionAction<String, String>> transitionActions;
+  private final Map<String, Guard<String>> guards;
+  private Consumer<Exception> uncaughtExceptionHandler;
+  private boolean compile;
+
+  public ModelLoader() {
+    this.actions = new HashMap<>();
+    this.stateActions = new HashMap<>();
+    this.transitionActions = new HashMap<>();
+    this.guards = new HashMap<>();
+  }
+
+  /**
+   * Registers an entry or exit action.
+   *
+   * @param name the name used by the model
+   * @param action the action
+   * @return the loader
+   */
+  public ModelLoader registerAction(String name, Action<String> action) {
+    actions.put(Objects.requireNonNull(name, "name must not be null"), Objects.requireNonNull(action, "action must not be null"));
+    return this;
+  }
+
+  /**
+   * Registers an internal action of a state.
+   *
+   * @param name the name used by the model
+   * @param action the action
+   * @return the loader
+   */
+  public ModelLoader registerStateAction(String name, StateAction<String, String> action) {
+    stateActions.put(Objects.requireNonNull(name, "name must not be null"), Objects.requireNonNull(action, "action must not be null"));
+    return this;
+  }
+
+  /**
+   * Registers a transition action.
+   *
+   * @param name the name used by the model
+   * @param action the action
+   * @return the loader
+   */
+  public ModelLoader registerTransitionAction(String name, TransitionAction<String, String> action) {
+    transitionActions.put(Objects.requireNonNull(name, "name must not be null"), Objects.requireNonNull(action, "action must not be null"));
+    return this;
+  }
+
+  /**
+   * Registers a transition guard.
+   *
+   * @param name the name used by the model
+   * @param guard the guard
+   * @return the loader
+   */
+  public ModelLoader registerGuard(String name, Guard<String> guard) {
+    guards.put(Objects.requireNonNull(name, "name must not be null"), Objects.requireNonNull(guard, "guard must not be null"));
+    return this;
+  }
+
+  public ModelLoader catchExceptionsUsing(Consumer<Exception> exceptionHandler) {
+    this.uncaughtExceptionHandler = Objects.requireNonNull(exceptionHandler, "exception handler must not be null");
+    return this;
+  }
+
+  /**
+   * Selects transitions with compiled dispatch code instead of interpreting them.
+   *
+   * @return the loader
+   * @see DeepState.FsmFactory#compile()
+   */
+  public ModelLoader compile() {
+    compile = true;
+    return this;
+  }
+
+  /**
+   * Reads a model.
+   *
+   * @param source the model text, which is not closed
+   * @return the model
+   * @throws IOException if the model cannot be read
+   * @throws IllegalStateException if the model is not valid
+   */
+  public LoadedModel load(Reader source) throws IOException {
+    BufferedReader lines = source instanceof BufferedReader ? (BufferedReader) source : new BufferedReader(source);
+    Map<String, SimpleState<String, String>> states = new HashMap<>();
+    List<String[]> transitions = new ArrayList<>();
+    List<Integer> transitionLines = new ArrayList<>();
+    String initial = null;
+
+    String line;
+    for (int number = 1; (line = lines.readLine()) != null; number++) {
+      String trimmed = line.trim();
+      if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+        continue;
+      }
+
+      String[] fields = trimmed.split("\\s+");
+      switch (fields[0]) {
+        case "initial":
+          require(fields.length == 2, number, "initial requires a state");
+          initial = fields[1];
+          break;
+
+        case "state":
+          require(fields.length >= 2, number, "state requires a name");
+          require(!states.containsKey(fields[1]), number, "state " + fields[1] + " is already defined");
+          states.put(fields[1], createState(fields, number));
+          break;
+
+        case "transition":
+          require(fields.length >= 4, number, "transition requires a source, destination and triggers");
+          transitions.add(fields);
+          transitionLines.add(number);
+          break;
+
+        default:
+          throw new IllegalStateException("Line " + number + ": unknown definition " + fields[0]);
+      }
+    }
+
+    require(initial != null, 0, "the model has no initial state");
+    SimpleState<String, String> initialState = states.get(initial);
+    require(initialState != null, 0, "undefined initial state " + initial);
+
+    // the transitions are resolved once every state is known
+    Set<TriggeredTransition<String, String>> realTransitions = new LinkedHashSet<>();
+    for (int i = 0; i < transitions.size(); i++) {
+      realTransitions.add(createTransition(transitions.get(i), transitionLines.get(i), states));
+    }
+
+    TriggerIndex<String> triggers = new TriggerIndex<>();
+    Dispatcher<String, String> dispatcher = compile
+        ? new CompiledDispatcher<>(realTransitions, triggers)
+        : new InterpretedDispatcher<>(realTransitions, triggers);
+    return new LoadedModel(initialState, dispatcher, states.size(), realTransitions.size(), uncaughtExceptionHandler);
+  }
+
+  private SimpleState<String, String> createState(String[] fields, int number) {
+    Action<String> entry = null;
+    Action<String> exit = null;
+    StateAction<String, String> otherwise = null;
+    Map<String, StateAction<String, String>> internal = new HashMap<>();
+    for (int i = 2; i < fields.length; i++) {
+      String[] option = option(fields[i], number);
+      if (option[0].equals("entry")) {
+        entry = lookup(actions, option[1], number);
+      } else if (option[0].equals("exit")) {
+        exit = lookup(actions, option[1], number);
+      } else if (option[0].equals("otherwise")) {
+        otherwise = lookup(stateActions, option[1], number);
+      } else if (option[0].startsWith("on:")) {
+        internal.put(option[0].substring(3), lookup(stateActions, option[1], number));
+      } else {
+        throw new IllegalStateException("Line " + number + ": unknown state option " + option[0]);
+      }
+    }
+    return new SimpleState<>(fields[1], entry, exit, internal, otherwise, uncaughtExceptionHandler);
+  }
+
+  private TriggeredTransition<String, String> createTransition(String[] fields, int number, Map<String, SimpleState<String, String>> states) {
+    SimpleState<String, String> from = states.get(fields[1]);
+    require(from != null, number, "undefined from state " + fields[1]);
+    SimpleState<String, String> to = states.get(fields[2]);
+    require(to != null, number, "undefined to state " + fields[2]);
+
+    Guard<String> guard = null;
+    TransitionAction<String, String> action = null;
+    for (int i = 4; i < fields.length; i++) {
+      String[] option = option(fields[i], number);
+      if (option[0].equals("guard")) {
+        guard = lookup(guards, option[1], number);
+      } else if (option[0].equals("action")) {
+        action = lookup(transitionActions, option[1], number);
+      } else {
+        throw new IllegalStateException("Line " + number + ": unknown transition option " + option[0]);
+      }
+    }
+    require(from != to || guard != null, number, "unguarded self transitions will cause an infinite loop in state " + fields[1]);
+
+    String[] triggers = fields[3].split(",", -1);
+    for (String trigger : triggers) {
+      require(!trigger.isEmpty(), number, "empty trigger in " + fields[3]);
+    }
+    return new TriggeredTransition<>(Arrays.asList(triggers), from, to, guard, action);
+  }
+
+  private static String[] option(String field, int number) {
+    int equals = field.indexOf('=');
+    require(equals > 0 && equals < field.length() - 1, number, "expected name=value but found " + field);
+    return new String[] { field.substring(0, equals), field.substring(equals + 1) };
+  }
+
+  private static <V> V lookup(Map<String, V> registered, String name, int number) {
+    V value = registered.get(name);
+    require(value != null, number, "nothing is registered as " + name);
+    return value;
+  }
+
+  private static void require(boolean valid, int number, String message) {
+    if (!valid) {
+      throw new IllegalStateException(number > 0 ? "Line " + number + ": " + message : "Invalid model, " + message);
+    }
+  }
+
+  /**
+   * A model that has been read and indexed, and creates any number of state machines.  The
+   * states and dispatcher are shared by every machine, so creating a machine does not rebuild
+   * the model.
+   */
+  public static class LoadedModel {
+    private final SimpleState<String, String> initialState;
+    private final Dispatcher<String, String> dispatcher;
+    private final int stateCount;
+    private final int transitionCount;
+    private final Consumer<Exception> uncaughtExceptionHandler;
+
+    private LoadedModel(SimpleState<String, String> initialState, Dispatcher<String, String> dispatcher, int stateCount, int transitionCount,
+        Consumer<Exception> uncaughtExceptionHandler) {
+      this.initialState = initialState;
+      this.dispatcher = dispatcher;
+      this.stateCount = stateCount;
+      this.transitionCount = transitionCount;
+      this.uncaughtExceptionHandler = uncaughtExceptionHandler;
+    }
+
+    public int getStateCount() {
+      return stateCount;
+    }
+
+    public int getTransitionCount() {
+      return transitionCount;
+    }
+
+    /**
+     * Creates a state machine in its initial state.
+     *
+     * @return the state machine
+     */
+    public DeepStateFsm<String, String> ready() {
+      return new DeepStateFsm<>(initialState, dispatcher, uncaughtExceptionHandler, null).begin();
+    }
+  }
+}
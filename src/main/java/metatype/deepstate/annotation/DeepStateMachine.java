@@ -0,0 +1,58 @@
+package metatype.deepstate.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class as a state machine definition.  At compile time the deep-state annotation
+ * processor generates a final subclass that implements {@link metatype.deepstate.FiniteStateMachine}
+ * using switch-based dispatch, so no model needs to be built when the application starts.
+ * <p>
+ * States and triggers are named by the constants of the supplied enums.  Transitions are declared
+ * using {@link Transition} and state behaviors are declared by annotating methods with
+ * {@link WhenEntering}, {@link WhenExiting}, {@link When} and {@link WhenNothingElseMatches}.
+ * <pre>
+ * &#64;DeepStateMachine(states = Light.class, triggers = Switch.class, initial = "OFF")
+ * &#64;Transition(on = "FLIP", from = "OFF", to = "ON")
+ * &#64;Transition(on = "FLIP", from = "ON", to = "OFF", guard = "isPowered")
+ * public abstract class LightDefinition {
+ *   &#64;WhenEntering("ON")
+ *   void lightsOn() { ... }
+ *
+ *   boolean isPowered(Event&lt;Switch&gt; event) { ... }
+ * }
+ * </pre>
+ * The generated class is named after the definition with an {@code Fsm} suffix unless
+ * {@link #name()} is specified.  Call {@code begin()} on a new instance to enter the initial state.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface DeepStateMachine {
+  /**
+   * The enum whose constants name the states.
+   * @return the state type
+   */
+  Class<? extends Enum<?>> states();
+  
+  /**
+   * The enum whose constants name the event triggers.
+   * @return the trigger type
+   */
+  Class<? extends Enum<?>> triggers();
+  
+  /**
+   * The name of the initial state.
+   * @return the initial state
+   */
+  String initial();
+  
+  /**
+   * The simple name of the generated class, defaults to the definition name followed by {@code Fsm}.
+   * @return the generated class name
+   */
+  String name() default "";
+}
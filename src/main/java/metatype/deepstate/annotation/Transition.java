@@ -0,0 +1,50 @@
+package metatype.deepstate.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a transition on a {@link DeepStateMachine} definition.  Transitions leaving the same
+ * state are evaluated in declaration order.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+@Repeatable(Transitions.class)
+public @interface Transition {
+  /**
+   * The name of the trigger that causes the transition.
+   * @return the trigger
+   */
+  String on();
+  
+  /**
+   * The name of the source state.
+   * @return the source
+   */
+  String from();
+  
+  /**
+   * The name of the destination state.
+   * @return the destination
+   */
+  String to();
+  
+  /**
+   * The name of a method returning {@code boolean} that guards the transition.  The method may
+   * accept the {@link metatype.deepstate.FiniteStateMachine.Event} or no arguments.
+   * @return the guard method
+   */
+  String guard() default "";
+  
+  /**
+   * The name of a method invoked during the transition.  The method may accept the
+   * {@link metatype.deepstate.FiniteStateMachine.Event} or no arguments.
+   * @return the action method
+   */
+  String action() default "";
+}
@@ -0,0 +1,29 @@
+package metatype.deepstate.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method invoked when an event trigger arrives while in a state.  The method may accept
+ * the {@link metatype.deepstate.FiniteStateMachine.State} and
+ * {@link metatype.deepstate.FiniteStateMachine.Event}, only the event, or no arguments.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface When {
+  /**
+   * The name of the state.
+   * @return the state
+   */
+  String state();
+  
+  /**
+   * The name of the trigger.
+   * @return the trigger
+   */
+  String trigger();
+}
@@ -0,0 +1,22 @@
+package metatype.deepstate.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method invoked when exiting a state.  The method may accept the
+ * {@link metatype.deepstate.FiniteStateMachine.State} or no arguments.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface WhenExiting {
+  /**
+   * The name of the state.
+   * @return the state
+   */
+  String value();
+}
@@ -0,0 +1,23 @@
+package metatype.deepstate.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method invoked when no {@link When} action matches the event trigger in a state.  The
+ * method may accept the {@link metatype.deepstate.FiniteStateMachine.State} and
+ * {@link metatype.deepstate.FiniteStateMachine.Event}, only the event, or no arguments.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface WhenNothingElseMatches {
+  /**
+   * The name of the state.
+   * @return the state
+   */
+  String value();
+}
@@ -0,0 +1,420 @@
+package metatype.deepstate.cluster;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import metatype.deepstate.FiniteStateMachine;
+import metatype.deepstate.FiniteStateMachine.Event;
+import metatype.deepstate.cluster.Transport.Envelope;
+import metatype.deepstate.core.Scheduler;
+import metatype.deepstate.core.Scheduler.ScheduledTask;
+
+/**
+ * One node of a cluster of keyed state machines.  Each key belongs to one of a fixed number of
+ * partitions, and each partition is owned by one node as decided by a {@link ConsistentHash} of
+ * the members.  Events sent to a key owned by this node are applied to its machine, which is
+ * created when the first event arrives.  Events for other nodes are buffered and forwarded over
+ * the transport in batches, once a batch is full or when the node is flushed.
+ * <p>
+ * When the membership changes, the partitions this node no longer owns are sent to their new
+ * owners together with the active states of each machine, and the new owners resume the machines
+ * in those states.  Until a partition arrives, its new owner holds the events sent to it and
+ * applies them once the machines have resumed.  Every node must be given the same membership, and
+ * a node that has not been given one yet is taken to be joining the others.
+ * <p>
+ * Keys are assigned to partitions by {@link Object#hashCode()}, which must therefore be the same
+ * on every node, as it is for strings and boxed numbers but not for enums.
+ *
+ * @param <K> the type of the machine key
+ * @param <T> the type of the event trigger
+ * @param <U> the type of the state name
+ */
+public class ClusterNode<K, T, U> implements Transport.Receiver<K, T, U>, AutoCloseable {
+  private static final Logger LOG = LoggerFactory.getLogger(ClusterNode.class);
+
+  /** the default number of partitions */
+  public static final int DEFAULT_PARTITIONS = 256;
+
+  /** the default number of events forwarded to a node at once */
+  public static final int DEFAULT_BATCH_SIZE = 64;
+
+  private final String name;
+  private final Transport<K, T, U> transport;
+  private final int partitions;
+
+  /** creates the machine for a key, resuming the supplied active states or beginning if null */
+  private final BiFunction<K, List<U>, FiniteStateMachine<T, U>> machines;
+
+  /** the machines owned by this node */
+  private final Map<K, FiniteStateMachine<T, U>> local;
+
+  /** held to route events, and exclusively to change the membership */
+  private final ReadWriteLock routing;
+  private ConsistentHash ring;
+
+  /** the members last set, or null until the node joins a cluster */
+  private Set<String> members;
+
+  /** the events held for each partition that is moving to this node */
+  private final Map<Integer, List<Envelope<K, T>>> arriving;
+
+  /** the partitions that arrived before this node was given the membership moving them */
+  private final Set<Integer> arrived;
+
+  /** the events waiting to be forwarded to each node */
+  private final Map<String, List<Envelope<K, T>>> outbox;
+  private volatile int batchSize;
+
+  private volatile ScheduledTask flushTask;
+  private volatile boolean closed;
+
+  /**
+   * Creates the node as the only member of its cluster, and binds it to the transport.
+   *
+   * @param name the node name
+   * @param transport carries messages between nodes
+   * @param machines creates the machine for a key, resuming the supplied active states, or
+   *        beginning in the initial state if the states are null
+   */
+  public ClusterNode(String name, Transport<K, T, U> transport, BiFunction<K, List<U>, FiniteStateMachine<T, U>> machines) {
+    this(name, transport, DEFAULT_PARTITIONS, machines);
+  }
+
+  /**
+   * Creates the node as the only member of its cluster, and binds it to the transport.
+   *
+   * @param name the node name
+   * @param transport carries messages between nodes
+   * @param partitions the number of partitions, which must be the same on every node
+   * @param machines creates the machine for a key, resuming the supplied active states, or
+   *        beginning in the initial state if the states are null
+   */
+  public ClusterNode(String name, Transport<K, T, U> transport, int partitions, BiFunction<K, List<U>, FiniteStateMachine<T, U>> machines) {
+    if (partitions <= 0) {
+      throw new IllegalArgumentException("Partitions must be positive");
+    }
+    this.name = Objects.requireNonNull(name, "name must not be null");
+    this.transport = Objects.requireNonNull(transport, "transport must not be null");
+    this.machines = Objects.requireNonNull(machines, "machines must not be null");
+    this.partitions = partitions;
+    this.local = new ConcurrentHashMap<>();
+    this.routing = new ReentrantReadWriteLock();
+    this.ring = new ConsistentHash(Collections.singleton(name));
+    this.arriving = new HashMap<>();
+    this.arrived = new HashSet<>();
+    this.outbox = new HashMap<>();
+    this.batchSize = DEFAULT_BATCH_SIZE;
+
+    transport.bind(name, this);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Sets the number of events buffered for a node before they are forwarded.
+   *
+   * @param size the batch size
+   * @return the node
+   */
+  public ClusterNode<K, T, U> batchEvents(int size) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Batch size must be positive");
+    }
+    batchSize = size;
+    return this;
+  }
+
+  /**
+   * Forwards the buffered events periodically, so that partially filled batches are not held
+   * indefinitely.
+   *
+   * @param scheduler runs the flushes
+   * @param period the time between flushes
+   * @return the node
+   */
+  public ClusterNode<K, T, U> flushEvery(Scheduler scheduler, Duration period) {
+    Objects.requireNonNull(scheduler, "scheduler must not be null");
+    if (period.isNegative() || period.isZero()) {
+      throw new IllegalArgumentException("Flush period must be positive");
+    }
+    flushTask = scheduler.schedule(() -> {
+      flush();
+      if (!closed) {
+        flushEvery(scheduler, period);
+      }
+    }, period);
+    return this;
+  }
+
+  /**
+   * Changes the members of the cluster, moving the partitions this node no longer owns to their
+   * new owners.  The events sent to the partitions this node takes over are held until their
+   * previous owners have sent them.
+   *
+   * @param members the names of every node, including this one
+   */
+  public void setMembers(Collection<String> members) {
+    if (!members.contains(name)) {
+      throw new IllegalArgumentException("Node " + name + " must be a member of its cluster");
+    }
+    Set<String> next = new HashSet<>(members);
+
+    // forward what was routed under the old membership first, so it arrives before any snapshot
+    flush();
+    routing.writeLock().lock();
+    try {
+      ConsistentHash updated = new ConsistentHash(next);
+      Map<String, ConsistentHash> before = new HashMap<>();
+      Map<Integer, Map<K, List<U>>> moving = new HashMap<>();
+      for (int partition = 0; partition < partitions; partition++) {
+        String owner = updated.owner(partition);
+        String previous = before.computeIfAbsent(owner, node -> previousRing(next, node)).owner(partition);
+        if (owner.equals(name) && !previous.equals(name) && next.contains(previous) && !arrived.remove(partition)) {
+          arriving.put(partition, new ArrayList<>());
+        } else if (!owner.equals(name) && previous.equals(name) && !arriving.containsKey(partition)) {
+          // a partition still on its way here is sent on once it arrives
+          moving.put(partition, new HashMap<>());
+        }
+      }
+      this.members = next;
+      ring = updated;
+
+      for (Iterator<Map.Entry<K, FiniteStateMachine<T, U>>> it = local.entrySet().iterator(); it.hasNext();) {
+        Map.Entry<K, FiniteStateMachine<T, U>> machine = it.next();
+        int partition = partition(machine.getKey());
+        if (!ring.owner(partition).equals(name)) {
+          moving.computeIfAbsent(partition, p -> new HashMap<>()).put(machine.getKey(), snapshot(machine.getValue()));
+          it.remove();
+        }
+      }
+
+      moving.forEach((partition, snapshots) -> {
+        String owner = ring.owner(partition);
+        LOG.debug("Moving {} machines in partition {} from node {} to node {}", snapshots.size(), partition, name, owner);
+        transport.sendPartition(owner, partition, snapshots);
+      });
+    } finally {
+      routing.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the ring that assigned the partitions now owned by a node before the membership
+   * changed.  A node that has not joined a cluster yet assumes the others formed it without the
+   * node taking over.
+   */
+  private ConsistentHash previousRing(Set<String> next, String owner) {
+    if (members != null) {
+      return ring;
+    }
+    Set<String> others = new HashSet<>(next);
+    others.remove(owner);
+    return others.isEmpty() ? new ConsistentHash(next) : new ConsistentHash(others);
+  }
+
+  /**
+   * Returns the names of the active states of a machine, outermost first.
+   */
+  private List<U> snapshot(FiniteStateMachine<T, U> machine) {
+    List<U> states = new ArrayList<>();
+    machine.getCurrentStates().forEach(state -> states.add(state.getIdentity()));
+    return states;
+  }
+
+  /**
+   * Sends an event to the machine with the key, wherever it is in the cluster.  A machine owned by
+   * this node processes the event on the calling thread while holding the routing lock, so a long
+   * run to completion delays {@link #setMembers(Collection) membership changes} until it ends.
+   *
+   * @param key the machine key
+   * @param event the event
+   */
+  public void send(K key, Event<T> event) {
+    Objects.requireNonNull(key, "key must not be null");
+    Objects.requireNonNull(event, "event must not be null");
+
+    List<Envelope<K, T>> full = null;
+    String owner;
+    routing.readLock().lock();
+    try {
+      int partition = partition(key);
+      owner = ring.owner(partition);
+      if (owner.equals(name)) {
+        List<Envelope<K, T>> held = arriving.get(partition);
+        if (held != null) {
+          synchronized (held) {
+            held.add(new Envelope<>(key, event));
+          }
+          return;
+        }
+        machine(key).accept(event);
+        return;
+      }
+
+      synchronized (outbox) {
+        List<Envelope<K, T>> batch = outbox.computeIfAbsent(owner, node -> new ArrayList<>());
+        batch.add(new Envelope<>(key, event));
+        if (batch.size() >= batchSize) {
+          full = outbox.remove(owner);
+        }
+      }
+    } finally {
+      routing.readLock().unlock();
+    }
+
+    if (full != null) {
+      transport.sendEvents(owner, full);
+    }
+  }
+
+  /**
+   * Forwards all buffered events to their nodes.
+   */
+  public void flush() {
+    Map<String, List<Envelope<K, T>>> batches;
+    synchronized (outbox) {
+      if (outbox.isEmpty()) {
+        return;
+      }
+      batches = new HashMap<>(outbox);
+      outbox.clear();
+    }
+    batches.forEach(transport::sendEvents);
+  }
+
+  /**
+   * Returns true if the machine with the key belongs to this node.
+   *
+   * @param key the machine key
+   * @return true if this node owns the machine
+   */
+  public boolean owns(K key) {
+    routing.readLock().lock();
+    try {
+      return ring.owner(partition(key)).equals(name);
+    } finally {
+      routing.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the machine with the key if it is running on this node.
+   *
+   * @param key the machine key
+   * @return the machine, or null
+   */
+  public FiniteStateMachine<T, U> getMachine(K key) {
+    return local.get(key);
+  }
+
+  /**
+   * Returns the number of machines running on this node.
+   *
+   * @return the machine count
+   */
+  public int getMachineCount() {
+    return local.size();
+  }
+
+  /**
+   * Applies the events to their machines, forwarding any that were routed here under a different
+   * membership.
+   */
+  @Override
+  public void receiveEvents(List<Envelope<K, T>> batch) {
+    for (Envelope<K, T> envelope : batch) {
+      send(envelope.getKey(), envelope.getEvent());
+    }
+    flush();
+  }
+
+  /**
+   * Resumes the machines of a partition moved to this node, then applies the events held for
+   * them while the partition was moving.
+   */
+  @Override
+  public void receivePartition(int partition, Map<K, List<U>> snapshots) {
+    List<Envelope<K, T>> held;
+    routing.writeLock().lock();
+    try {
+      held = arriving.remove(partition);
+      String owner = ring.owner(partition);
+      if (held != null && !owner.equals(name)) {
+        LOG.debug("Moving {} machines in partition {} from node {} to node {}", snapshots.size(), partition, name, owner);
+        transport.sendPartition(owner, partition, snapshots);
+      } else {
+        LOG.debug("Resuming {} machines in partition {} on node {}", snapshots.size(), partition, name);
+        snapshots.forEach((key, states) -> {
+          if (local.put(key, machines.apply(key, states)) != null) {
+            LOG.warn("Replacing machine {} with the one moved from another node", key);
+          }
+        });
+        if (held == null) {
+          arrived.add(partition);
+        }
+      }
+
+      // the events are sent again while still holding the lock, so they precede any sent later
+      if (held != null) {
+        LOG.debug("Applying {} events held for partition {} on node {}", held.size(), partition, name);
+        held.forEach(envelope -> send(envelope.getKey(), envelope.getEvent()));
+      }
+    } finally {
+      routing.writeLock().unlock();
+    }
+    flush();
+  }
+
+  /**
+   * Forwards the buffered events and stops receiving messages.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    ScheduledTask task = flushTask;
+    if (task != null) {
+      task.cancel();
+    }
+    flush();
+    transport.unbind(name);
+  }
+
+  /**
+   * Returns the local machine with the key, creating it if necessary.  The machine is created
+   * outside of the map, since its entry actions may send events to other keys.  If two threads
+   * create it at once, the machine that was stored first is used.
+   */
+  private FiniteStateMachine<T, U> machine(K key) {
+    FiniteStateMachine<T, U> machine = local.get(key);
+    if (machine == null) {
+      FiniteStateMachine<T, U> created = machines.apply(key, null);
+      machine = local.putIfAbsent(key, created);
+      if (machine == null) {
+        machine = created;
+      }
+    }
+    return machine;
+  }
+
+  private int partition(K key) {
+    return Math.floorMod(ConsistentHash.mix(key.hashCode()), partitions);
+  }
+}
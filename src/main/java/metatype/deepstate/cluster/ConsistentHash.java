@@ -0,0 +1,78 @@
+package metatype.deepstate.cluster;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Assigns partitions to nodes by consistent hashing.  Each node is placed on a ring at several
+ * points, and a partition belongs to the first node found clockwise from its own hash.  Adding or
+ * removing a node only moves the partitions next to its points, roughly one partition in every
+ * {@code nodes} on average.
+ * <p>
+ * Node names are hashed with {@link String#hashCode()}, which is the same on every JVM, so all
+ * nodes compute the same assignment from the same membership.
+ */
+public class ConsistentHash {
+  /** the default number of points on the ring for each node */
+  public static final int DEFAULT_VIRTUAL_NODES = 64;
+
+  private final NavigableMap<Integer, String> ring;
+
+  /**
+   * Creates the ring with the default number of virtual nodes.
+   *
+   * @param nodes the node names
+   */
+  public ConsistentHash(Collection<String> nodes) {
+    this(nodes, DEFAULT_VIRTUAL_NODES);
+  }
+
+  /**
+   * Creates the ring.
+   *
+   * @param nodes the node names
+   * @param virtualNodes the number of points on the ring for each node
+   */
+  public ConsistentHash(Collection<String> nodes, int virtualNodes) {
+    if (nodes.isEmpty()) {
+      throw new IllegalArgumentException("At least one node is required");
+    }
+    if (virtualNodes <= 0) {
+      throw new IllegalArgumentException("Virtual nodes must be positive");
+    }
+    this.ring = new TreeMap<>();
+    for (String node : nodes) {
+      Objects.requireNonNull(node, "node must not be null");
+      for (int i = 0; i < virtualNodes; i++) {
+        ring.putIfAbsent(mix((node + '#' + i).hashCode()), node);
+      }
+    }
+  }
+
+  /**
+   * Returns the node owning a partition.
+   *
+   * @param partition the partition
+   * @return the node name
+   */
+  public String owner(int partition) {
+    Map.Entry<Integer, String> point = ring.ceilingEntry(mix(partition));
+    return point == null ? ring.firstEntry().getValue() : point.getValue();
+  }
+
+  /**
+   * Spreads the bits of a hash code, so that neighbouring values land far apart on the ring.
+   *
+   * @param hash the hash code
+   * @return the mixed hash
+   */
+  static int mix(int hash) {
+    int h = hash * 0x9E3779B9;
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    return h ^ (h >>> 13);
+  }
+}
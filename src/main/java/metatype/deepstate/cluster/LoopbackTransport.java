@@ -0,0 +1,58 @@
+package metatype.deepstate.cluster;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Connects nodes running in the same process, so that a cluster can be tested on one machine.
+ * Messages are delivered on the sending thread, and are copied as a network transport would
+ * serialize them, so a node never shares its buffers with another.
+ *
+ * @param <K> the type of the machine key
+ * @param <T> the type of the event trigger
+ * @param <U> the type of the state name
+ */
+public class LoopbackTransport<K, T, U> implements Transport<K, T, U> {
+  private final Map<String, Receiver<K, T, U>> receivers;
+
+  public LoopbackTransport() {
+    this.receivers = new ConcurrentHashMap<>();
+  }
+
+  @Override
+  public void bind(String node, Receiver<K, T, U> receiver) {
+    Objects.requireNonNull(receiver, "receiver must not be null");
+    if (receivers.putIfAbsent(node, receiver) != null) {
+      throw new IllegalStateException("Node " + node + " is already bound");
+    }
+  }
+
+  @Override
+  public void unbind(String node) {
+    receivers.remove(node);
+  }
+
+  @Override
+  public void sendEvents(String node, List<Envelope<K, T>> batch) {
+    receiver(node).receiveEvents(new ArrayList<>(batch));
+  }
+
+  @Override
+  public void sendPartition(String node, int partition, Map<K, List<U>> snapshots) {
+    Map<K, List<U>> copy = new HashMap<>();
+    snapshots.forEach((key, states) -> copy.put(key, new ArrayList<>(states)));
+    receiver(node).receivePartition(partition, copy);
+  }
+
+  private Receiver<K, T, U> receiver(String node) {
+    Receiver<K, T, U> receiver = receivers.get(node);
+    if (receiver == null) {
+      throw new IllegalStateException("Node " + node + " is not bound");
+    }
+    return receiver;
+  }
+}
@@ -0,0 +1,84 @@
+package metatype.deepstate.cluster;
+
+import java.util.List;
+import java.util.Map;
+
+import metatype.deepstate.FiniteStateMachine.Event;
+
+/**
+ * Carries events and migrating partitions between the nodes of a cluster.  Implementations may
+ * deliver asynchronously, but must deliver the messages sent from one node to another in order.
+ *
+ * @param <K> the type of the machine key
+ * @param <T> the type of the event trigger
+ * @param <U> the type of the state name
+ */
+public interface Transport<K, T, U> {
+  /**
+   * Delivers the messages addressed to a node to the receiver.
+   *
+   * @param node the node name
+   * @param receiver receives the messages
+   */
+  void bind(String node, Receiver<K, T, U> receiver);
+
+  /**
+   * Stops delivering messages to a node.
+   *
+   * @param node the node name
+   */
+  void unbind(String node);
+
+  /**
+   * Sends a batch of events to the node owning their machines.
+   *
+   * @param node the node name
+   * @param batch the events, in the order they were sent
+   */
+  void sendEvents(String node, List<Envelope<K, T>> batch);
+
+  /**
+   * Moves a partition to its new owner.  A partition is sent even if it has no machines, since
+   * the new owner holds the events for the partition until it arrives.
+   *
+   * @param node the node name
+   * @param partition the partition
+   * @param snapshots the active states of each machine in the partition, outermost first
+   */
+  void sendPartition(String node, int partition, Map<K, List<U>> snapshots);
+
+  /**
+   * Receives the messages sent to a node.
+   */
+  interface Receiver<K, T, U> {
+    void receiveEvents(List<Envelope<K, T>> batch);
+
+    void receivePartition(int partition, Map<K, List<U>> snapshots);
+  }
+
+  /**
+   * An event addressed to the machine with a key.
+   */
+  final class Envelope<K, T> {
+    private final K key;
+    private final Event<T> event;
+
+    public Envelope(K key, Event<T> event) {
+      this.key = key;
+      this.event = event;
+    }
+
+    public K getKey() {
+      return key;
+    }
+
+    public Event<T> getEvent() {
+      return event;
+    }
+
+    @Override
+    public String toString() {
+      return event + " for " + key;
+    }
+  }
+}
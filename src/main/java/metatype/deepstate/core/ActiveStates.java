@@ -0,0 +1,74 @@
+package metatype.deepstate.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks which states of a state machine and its nested state machines are active, so that a
+ * state can be tested without locking or walking the hierarchy.  Each state is assigned a bit
+ * while the model is built; states update their bit as they are entered and exited, possibly
+ * from several threads when regions run in parallel.
+ *
+ * @param <U> the type of the state name
+ */
+public class ActiveStates<U> {
+  private static final int[] NONE = new int[0];
+
+  /** the bits of the states with each name, more than one when a name is reused in the hierarchy */
+  private final Map<U, int[]> ids;
+  private int size;
+
+  private volatile AtomicLongArray bits;
+
+  public ActiveStates() {
+    this.ids = new HashMap<>();
+    this.bits = new AtomicLongArray(1);
+  }
+
+  /**
+   * Assigns a bit to a state, invoked while the model is built.
+   *
+   * @param name the name of the state
+   * @return the bit
+   */
+  public int register(U name) {
+    int id = size++;
+    int[] existing = ids.getOrDefault(name, NONE);
+    int[] assigned = Arrays.copyOf(existing, existing.length + 1);
+    assigned[existing.length] = id;
+    ids.put(name, assigned);
+
+    if ((id >>> 6) >= bits.length()) {
+      bits = new AtomicLongArray(bits.length() * 2);
+    }
+    return id;
+  }
+
+  /**
+   * Returns true if any state with the given name is active.
+   *
+   * @param name the name of the state
+   * @return true if the state is active
+   */
+  public boolean contains(U name) {
+    AtomicLongArray active = bits;
+    for (int id : ids.getOrDefault(name, NONE)) {
+      if ((active.get(id >>> 6) & (1L << id)) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  void set(int id) {
+    long mask = 1L << id;
+    bits.getAndAccumulate(id >>> 6, mask, (word, bit) -> word | bit);
+  }
+
+  void clear(int id) {
+    long mask = ~(1L << id);
+    bits.getAndAccumulate(id >>> 6, mask, (word, bit) -> word & bit);
+  }
+}
@@ -0,0 +1,158 @@
+package metatype.deepstate.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import metatype.deepstate.FiniteStateMachine.Event;
+import metatype.deepstate.FiniteStateMachine.Guard;
+import metatype.deepstate.FiniteStateMachine.State;
+
+/**
+ * Selects transitions by evaluating the candidates found in a {@link TransitionTable}, counting how
+ * often each candidate is selected.  Periodically, candidates for the same state and trigger that
+ * were declared mutually exclusive are reordered so the most frequently selected candidate is
+ * tested first.  Reordering only happens within a contiguous run of exclusive candidates, so the
+ * selected transition is always the same one the declaration order would select.
+ * <p>
+ * Not thread-safe, the state machine must serialize calls to {@link #select(State, Event)}.
+ *
+ * @param <T> the type of the event trigger
+ * @param <U> the type of the state name
+ */
+public class AdaptiveDispatcher<T, U> implements Dispatcher<T, U> {
+  /**
+   * A transition and its selection count.
+   */
+  private static class Candidate<T, U> {
+    private final TriggeredTransition<T, U> transition;
+    private final boolean exclusive;
+
+    /** the trigger predicate, or null if the trigger is known to match */
+    private final Predicate<T> trigger;
+    private final Guard<T> guard;
+    private int hits;
+
+    public Candidate(TriggeredTransition<T, U> transition, boolean exclusive) {
+      this.transition = transition;
+      this.exclusive = exclusive;
+      this.trigger = transition.getTriggers().isPresent() ? null : transition.getTrigger();
+      this.guard = transition.getGuard().orElse(null);
+    }
+  }
+
+  /**
+   * The candidates for a single state and trigger.
+   */
+  private static class Candidates<T, U> {
+    private final Candidate<T, U>[] order;
+    private int selections;
+
+    public Candidates(Candidate<T, U>[] order) {
+      this.order = order;
+    }
+  }
+
+  private final TransitionTable<T, U, Candidates<T, U>> table;
+  private final int period;
+
+  /**
+   * Creates the dispatcher with its own trigger index.
+   *
+   * @param transitions the transitions in declaration order
+   * @param exclusive the transitions whose guards are mutually exclusive with each other
+   * @param period the number of selections for a state and trigger between reorderings
+   */
+  public AdaptiveDispatcher(Set<TriggeredTransition<T, U>> transitions, Set<TriggeredTransition<T, U>> exclusive, int period) {
+    this(transitions, exclusive, new TriggerIndex<>(), period);
+  }
+
+  /**
+   * Creates the dispatcher.
+   *
+   * @param transitions the transitions in declaration order
+   * @param exclusive the transitions whose guards are mutually exclusive with each other
+   * @param triggers the model trigger index
+   * @param period the number of selections for a state and trigger between reorderings
+   */
+  @SuppressWarnings("unchecked")
+  public AdaptiveDispatcher(Set<TriggeredTransition<T, U>> transitions, Set<TriggeredTransition<T, U>> exclusive, TriggerIndex<T> triggers,
+      int period) {
+    if (period <= 0) {
+      throw new IllegalArgumentException("Reordering period must be positive");
+    }
+    this.period = period;
+    this.table = new TransitionTable<>(transitions, triggers, list -> {
+      Candidate<T, U>[] order = (Candidate<T, U>[]) new Candidate<?, ?>[list.size()];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = new Candidate<>(list.get(i), exclusive.contains(list.get(i)));
+      }
+      return new Candidates<>(order);
+    });
+  }
+
+  @Override
+  public TriggeredTransition<T, U> select(State<U> source, Event<T> event) {
+    T trigger = event.getTrigger();
+    Candidates<T, U> candidates = table.get(source, trigger);
+    if (candidates == null) {
+      return null;
+    }
+
+    TriggeredTransition<T, U> selected = null;
+    for (Candidate<T, U> candidate : candidates.order) {
+      if ((candidate.trigger == null || candidate.trigger.test(trigger)) && (candidate.guard == null || candidate.guard.test(event))) {
+        candidate.hits++;
+        selected = candidate.transition;
+        break;
+      }
+    }
+
+    if (++candidates.selections == period) {
+      candidates.selections = 0;
+      reorder(candidates.order);
+    }
+    return selected;
+  }
+
+  /**
+   * Returns the order in which the candidates leaving a state on a trigger are currently
+   * evaluated.
+   *
+   * @param source the source state
+   * @param trigger the event trigger
+   * @return the candidates
+   */
+  public List<TriggeredTransition<T, U>> getEvaluationOrder(State<U> source, T trigger) {
+    Candidates<T, U> candidates = table.get(source, trigger);
+    if (candidates == null) {
+      return Collections.emptyList();
+    }
+    return Arrays.stream(candidates.order).map(c -> c.transition).collect(Collectors.toList());
+  }
+  private void reorder(Candidate<T, U>[] order) {
+    int start = 0;
+    while (start < order.length) {
+      if (!order[start].exclusive) {
+        start++;
+        continue;
+      }
+
+      int end = start;
+      while (end < order.length && order[end].exclusive) {
+        end++;
+      }
+      Arrays.sort(order, start, end, Comparator.comparingInt((Candidate<T, U> c) -> c.hits).reversed());
+      start = end;
+    }
+
+    // decay the counts so the order follows changes in the event mix
+    for (Candidate<T, U> candidate : order) {
+      candidate.hits >>= 1;
+    }
+  }
+}
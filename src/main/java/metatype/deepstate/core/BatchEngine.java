@@ -0,0 +1,267 @@
+package metatype.deepstate.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import metatype.deepstate.FiniteStateMachine.State;
+
+/**
+ * Advances many instances of a model without actions or guards, such as for replaying history.
+ * Instead of a state machine object per instance and a call per event, the current state of every
+ * instance is held in an {@code int[]} of state ids, and the events in parallel arrays of instance
+ * indexes and trigger ids.  Each event is then a single lookup in a table of the states reached
+ * from each state and trigger.
+ * <p>
+ * The table already includes the cascades of the model: as with a state machine, an event that
+ * causes a transition is sent again to the new state, so the table holds the state where the
+ * cascade ends.  Models whose cascades never end are rejected when the engine is created.
+ *
+ * @param <T> the type of the event trigger
+ * @param <U> the type of the state name
+ */
+public class BatchEngine<T, U> {
+  /** the fewest events split across the threads of a pool */
+  public static final int PARALLEL_THRESHOLD = 1 << 16;
+
+  private final List<U> states;
+  private final Map<U, Integer> stateIds;
+  private final TriggerIndex<T> triggers;
+  private final int initialState;
+
+  /** the state reached by each state and trigger, indexed by state * trigger count + trigger */
+  private final int[] next;
+
+  /** the number of transitions taken to reach it */
+  private final byte[] steps;
+  private final int width;
+
+  /**
+   * Creates the engine.
+   *
+   * @param initial the initial state
+   * @param states all states of the model
+   * @param transitions the transitions in declaration order, which must list their triggers and
+   *        have no guard or action
+   */
+  public BatchEngine(State<U> initial, Collection<? extends State<U>> states, Set<TriggeredTransition<T, U>> transitions) {
+    this.states = new ArrayList<>(states.size());
+    this.stateIds = new HashMap<>();
+    Map<State<U>, Integer> ids = new HashMap<>();
+    for (State<U> state : states) {
+      if (stateIds.putIfAbsent(state.getIdentity(), this.states.size()) != null) {
+        throw new IllegalStateException("State " + state + " is defined more than once");
+      }
+      ids.put(state, this.states.size());
+      this.states.add(state.getIdentity());
+    }
+    Integer initialId = ids.get(Objects.requireNonNull(initial, "initial state must not be null"));
+    if (initialId == null) {
+      throw new IllegalStateException("Initial state " + initial + " is not a state of the model");
+    }
+    this.initialState = initialId;
+
+    this.triggers = new TriggerIndex<>();
+    transitions.forEach(t -> {
+      if (t.getGuard().isPresent() || t.getAction().isPresent()) {
+        throw new IllegalStateException("Transition " + t + " has a guard or action, which a batch engine cannot run");
+      }
+      triggers.intern(t.getTriggers().orElseThrow(
+          () -> new IllegalStateException("Transition " + t + " matches triggers by predicate, which a batch engine cannot index")));
+    });
+    this.width = triggers.size();
+
+    // the first transition declared for a state and trigger is taken, as it would be by a dispatcher
+    int size = this.states.size();
+    int[] direct = new int[size * width];
+    Arrays.fill(direct, -1);
+    transitions.forEach(t -> {
+      int source = ids.get(t.getSource());
+      Integer destination = ids.get(t.getDestination());
+      if (destination == null) {
+        throw new IllegalStateException("Transition " + t + " enters a state outside of the model");
+      }
+      t.getTriggers().get().forEach(trigger -> {
+        int cell = source * width + triggers.idOf(trigger);
+        if (direct[cell] < 0) {
+          direct[cell] = destination;
+        }
+      });
+    });
+
+    this.next = new int[size * width];
+    this.steps = new byte[size * width];
+    for (int state = 0; state < size; state++) {
+      for (int trigger = 0; trigger < width; trigger++) {
+        int current = state;
+        int taken = 0;
+        while (direct[current * width + trigger] >= 0) {
+          current = direct[current * width + trigger];
+          if (++taken > size) {
+            throw new IllegalStateException("Trigger " + triggers.getTrigger(trigger) + " cascades without end from state " + this.states.get(state));
+          }
+        }
+        if (taken > Byte.MAX_VALUE) {
+          throw new IllegalStateException("Trigger " + triggers.getTrigger(trigger) + " cascades through too many states from state " + this.states.get(state));
+        }
+        next[state * width + trigger] = current;
+        steps[state * width + trigger] = (byte) taken;
+      }
+    }
+  }
+
+  /**
+   * Returns the id of the initial state.
+   * @return the state id
+   */
+  public int getInitialState() {
+    return initialState;
+  }
+
+  /**
+   * Returns the id of a state.
+   *
+   * @param state the state name
+   * @return the state id
+   */
+  public int stateId(U state) {
+    Integer id = stateIds.get(state);
+    if (id == null) {
+      throw new IllegalArgumentException("Unknown state " + state);
+    }
+    return id;
+  }
+
+  /**
+   * Returns the name of a state.
+   *
+   * @param id the state id
+   * @return the state name
+   */
+  public U stateName(int id) {
+    return states.get(id);
+  }
+
+  /**
+   * Returns the id of a trigger.
+   *
+   * @param trigger the trigger
+   * @return the trigger id
+   */
+  public int triggerId(T trigger) {
+    int id = triggers.idOf(trigger);
+    if (id == TriggerIndex.UNKNOWN) {
+      throw new IllegalArgumentException("Unknown trigger " + trigger);
+    }
+    return id;
+  }
+
+  /**
+   * Creates instances in the initial state.
+   *
+   * @param count the number of instances
+   * @return the state id of each instance
+   */
+  public int[] newInstances(int count) {
+    int[] instances = new int[count];
+    Arrays.fill(instances, initialState);
+    return instances;
+  }
+
+  /**
+   * Applies the events in order.
+   *
+   * @param states the state id of each instance, updated in place
+   * @param instances the instance of each event
+   * @param triggers the trigger id of each event
+   * @return the number of transitions taken
+   */
+  public long advance(int[] states, int[] instances, int[] triggers) {
+    checkEvents(instances, triggers);
+    return advance(states, instances, triggers, null, 0, instances.length);
+  }
+
+  /**
+   * Applies the events using the threads of the pool.  The events are grouped by ranges of
+   * instances, one range for each thread, so the events of an instance are still applied in order.
+   *
+   * @param states the state id of each instance, updated in place
+   * @param instances the instance of each event
+   * @param triggers the trigger id of each event
+   * @param pool runs the ranges
+   * @return the number of transitions taken
+   */
+  public long advance(int[] states, int[] instances, int[] triggers, ForkJoinPool pool) {
+    checkEvents(instances, triggers);
+    int parts = Math.min(pool.getParallelism(), states.length);
+    if (parts <= 1 || instances.length < PARALLEL_THRESHOLD) {
+      return advance(states, instances, triggers, null, 0, instances.length);
+    }
+
+    // a stable counting sort of the event indexes by range keeps each instance in order
+    int span = (states.length + parts - 1) / parts;
+    int[] starts = new int[parts + 1];
+    for (int instance : instances) {
+      starts[Objects.checkIndex(instance, states.length) / span + 1]++;
+    }
+    for (int part = 0; part < parts; part++) {
+      starts[part + 1] += starts[part];
+    }
+    int[] order = new int[instances.length];
+    int[] fill = Arrays.copyOf(starts, parts);
+    for (int event = 0; event < instances.length; event++) {
+      order[fill[instances[event] / span]++] = event;
+    }
+
+    List<RecursiveTask<Long>> ranges = new ArrayList<>(parts);
+    for (int part = 0; part < parts; part++) {
+      int from = starts[part];
+      int to = starts[part + 1];
+      ranges.add(new RecursiveTask<Long>() {
+        @Override
+        protected Long compute() {
+          return advance(states, instances, triggers, order, from, to);
+        }
+      });
+    }
+    return pool.invoke(new RecursiveTask<Long>() {
+      @Override
+      protected Long compute() {
+        long taken = 0;
+        for (RecursiveTask<Long> range : ForkJoinTask.invokeAll(ranges)) {
+          taken += range.join();
+        }
+        return taken;
+      }
+    });
+  }
+
+  private long advance(int[] states, int[] instances, int[] triggers, int[] order, int from, int to) {
+    int[] next = this.next;
+    byte[] steps = this.steps;
+    int width = this.width;
+    long taken = 0;
+    for (int i = from; i < to; i++) {
+      int event = order == null ? i : order[i];
+      int instance = instances[event];
+      int cell = states[instance] * width + Objects.checkIndex(triggers[event], width);
+      states[instance] = next[cell];
+      taken += steps[cell];
+    }
+    return taken;
+  }
+
+  private static void checkEvents(int[] instances, int[] triggers) {
+    if (instances.length != triggers.length) {
+      throw new IllegalArgumentException("Each event must have an instance and a trigger");
+    }
+  }
+}
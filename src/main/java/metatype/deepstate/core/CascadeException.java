@@ -0,0 +1,14 @@
+package metatype.deepstate.core;
+
+/**
+ * Reported to the uncaught exception handler when the transitions caused by a single event exceed
+ * the cascade step limit, or revisit a state.  The remaining transitions for the event are
+ * abandoned and the machine stays in the state it reached.
+ */
+public class CascadeException extends IllegalStateException {
+  private static final long serialVersionUID = 1L;
+
+  public CascadeException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,51 @@
+package metatype.deepstate.core;
+
+/**
+ * A snapshot of the cascades of transitions performed by a state machine.  The depth of a cascade
+ * is the number of transitions caused by a single event.
+ */
+public class CascadeMetrics {
+  /** the number of events processed */
+  private final long events;
+
+  /** the number of transitions performed */
+  private final long transitions;
+
+  /** the depth of the deepest cascade */
+  private final int maxDepth;
+
+  /** the number of cascades abandoned by the step limit or cycle detection */
+  private final long abandoned;
+
+  public CascadeMetrics(long events, long transitions, int maxDepth, long abandoned) {
+    this.events = events;
+    this.transitions = transitions;
+    this.maxDepth = maxDepth;
+    this.abandoned = abandoned;
+  }
+
+  public long getEvents() {
+    return events;
+  }
+
+  public long getTransitions() {
+    return transitions;
+  }
+
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  public long getAbandoned() {
+    return abandoned;
+  }
+
+  public double getMeanDepth() {
+    return events == 0 ? 0 : (double) transitions / events;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("events=%d transitions=%d maxDepth=%d abandoned=%d", events, transitions, maxDepth, abandoned);
+  }
+}
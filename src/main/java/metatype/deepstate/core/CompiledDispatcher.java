@@ -0,0 +1,95 @@
+package metatype.deepstate.core;
+
+import static java.lang.invoke.MethodType.methodType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import metatype.deepstate.FiniteStateMachine.Event;
+import metatype.deepstate.FiniteStateMachine.State;
+
+/**
+ * Selects transitions using a method handle tree built for each source state and trigger found in
+ * a {@link TransitionTable}.  Every trigger predicate and guard is bound into the tree as a
+ * constant, and the JVM customizes frequently invoked method handles into their own compiled
+ * form.  As a result each state machine definition gets its own dispatch code in which the calls
+ * to guards and trigger predicates are monomorphic and can be inlined, instead of sharing one
+ * megamorphic call site with every other definition.
+ *
+ * @param <T> the type of the event trigger
+ * @param <U> the type of the state name
+ */
+public class CompiledDispatcher<T, U> implements Dispatcher<T, U> {
+  /** (Event)Object */
+  private static final MethodHandle GET_TRIGGER;
+
+  /** (Predicate, Object)boolean */
+  private static final MethodHandle TEST;
+
+  static {
+    Lookup lookup = MethodHandles.publicLookup();
+    try {
+      GET_TRIGGER = lookup.findVirtual(Event.class, "getTrigger", methodType(Object.class));
+      TEST = lookup.findVirtual(Predicate.class, "test", methodType(boolean.class, Object.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /** (Event)TriggeredTransition for each source state and trigger */
+  private final TransitionTable<T, U, MethodHandle> dispatchers;
+
+  public CompiledDispatcher(Set<TriggeredTransition<T, U>> transitions) {
+    this(transitions, new TriggerIndex<>());
+  }
+
+  public CompiledDispatcher(Set<TriggeredTransition<T, U>> transitions, TriggerIndex<T> triggers) {
+    dispatchers = new TransitionTable<>(transitions, triggers, this::compile);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public TriggeredTransition<T, U> select(State<U> source, Event<T> event) {
+    MethodHandle dispatcher = dispatchers.get(source, event.getTrigger());
+    if (dispatcher == null) {
+      return null;
+    }
+
+    try {
+      return (TriggeredTransition<T, U>) dispatcher.invokeExact(event);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private MethodHandle compile(List<TriggeredTransition<T, U>> candidates) {
+    MethodHandle next = MethodHandles.dropArguments(
+        MethodHandles.constant(TriggeredTransition.class, null), 0, Event.class);
+
+    for (int i = candidates.size() - 1; i >= 0; i--) {
+      TriggeredTransition<T, U> transition = candidates.get(i);
+
+      MethodHandle selected = MethodHandles.dropArguments(
+          MethodHandles.constant(TriggeredTransition.class, transition), 0, Event.class);
+      if (transition.getGuard().isPresent()) {
+        MethodHandle guard = TEST.bindTo(transition.getGuard().get()).asType(methodType(boolean.class, Event.class));
+        selected = MethodHandles.guardWithTest(guard, selected, next);
+      }
+
+      if (transition.getTriggers().isPresent()) {
+        // the table only offers this candidate for triggers it is defined for
+        next = selected;
+      } else {
+        MethodHandle matches = MethodHandles.filterArguments(TEST.bindTo(transition.getTrigger()), 0, GET_TRIGGER);
+        next = MethodHandles.guardWithTest(matches, selected, next);
+      }
+    }
+    return next;
+  }
+}
@@ -1,51 +1,183 @@
 package metatype.deepstate.core;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import metatype.deepstate.FiniteStateMachine;
 
+/**
+ * A state containing one or more nested state machines.  Each nested machine is an orthogonal
+ * region: all regions are active while the state is active, and every event sent to the state is
+ * sent to each region.  The current states of the regions are reported in region order.
+ * <p>
+ * By default the regions process an event one after the other.  When a fork-join pool is supplied
+ * the regions process the event in parallel, and the event is not complete until every region has
+ * finished.  Actions in parallel regions must not share mutable data with other regions, and
+ * must not read the state of an enclosing machine, since its lock is held while waiting for the
+ * regions to finish.
+ */
 public class CompositeState<T, U> extends SimpleState<T, U> implements FiniteStateMachine<T, U> {
-  private final DeepStateFsm<T, U> nested;
+  /** set while a thread of the pool processes an event for a region */
+  private static final ThreadLocal<Boolean> PARALLEL = ThreadLocal.withInitial(() -> false);
+
+  private final List<DeepStateFsm<T, U>> regions;
+
+  /** the pool used to run regions in parallel, or null */
+  private final ForkJoinPool pool;
 
   public CompositeState(U name, Action<U> entry, Action<U> exit,
       Map<T, StateAction<T, U>> actions, StateAction<T, U> defaultAction, Consumer<Exception> uncaughtExceptionHandler, DeepStateFsm<T, U> nested) {
+    this(name, entry, exit, actions, defaultAction, uncaughtExceptionHandler, Collections.singletonList(nested), null);
+  }
+
+  public CompositeState(U name, Action<U> entry, Action<U> exit,
+      Map<T, StateAction<T, U>> actions, StateAction<T, U> defaultAction, Consumer<Exception> uncaughtExceptionHandler,
+      List<DeepStateFsm<T, U>> regions, ForkJoinPool pool) {
     super(name, entry, exit, actions, defaultAction, uncaughtExceptionHandler);
-    this.nested = nested;
+    if (regions.isEmpty()) {
+      throw new IllegalStateException("Composite state " + name + " must contain at least one region");
+    }
+    this.regions = new ArrayList<>(regions);
+    this.pool = regions.size() > 1 ? pool : null;
   }
 
   @Override
   public void accept(Event<T> event) {
     super.accept(event);
-    nested.accept(event);
+    if (pool == null) {
+      regions.forEach(region -> region.accept(event));
+    } else {
+      acceptInParallel(event);
+    }
   }
 
   @Override
   public State<U> getCurrentState() {
-    return nested.getCurrentState();
+    return regions.get(0).getCurrentState();
   }
-  
+
   @Override
   public Deque<State<U>> getCurrentStates() {
-    return nested.getCurrentStates();
+    if (regions.size() == 1) {
+      return regions.get(0).getCurrentStates();
+    }
+
+    Deque<State<U>> states = new ArrayDeque<>();
+    regions.forEach(region -> states.addAll(region.getCurrentStates()));
+    return states;
   }
-  
+
+  @Override
+  public StateChangePublisher<T, U> getStateChanges() {
+    return regions.get(0).getStateChanges();
+  }
+
   @Override
   public <R> R read(Supplier<R> value) {
-    return nested.read(value);
+    return read(0, value);
   }
-  
+
   @Override
   public void enter() {
     super.enter();
-    nested.begin();
+    regions.forEach(DeepStateFsm::begin);
   }
-  
+
   @Override
   public void exit() {
-    nested.end();
+    for (int i = regions.size() - 1; i >= 0; i--) {
+      regions.get(i).end();
+    }
     super.exit();
   }
+
+  /**
+   * Returns the nested state machines.
+   *
+   * @return the regions, in declaration order
+   */
+  public List<DeepStateFsm<T, U>> getRegions() {
+    return Collections.unmodifiableList(regions);
+  }
+
+  /**
+   * Sends the event to the nested machines without invoking the actions of this state, for the
+   * propagation policies that stop once the event has been handled.
+   * 
+   * @param event the event
+   * @return true if any region handled the event
+   */
+  boolean forward(Event<T> event) {
+    if (pool == null) {
+      boolean handled = false;
+      for (DeepStateFsm<T, U> region : regions) {
+        handled |= region.consume(event);
+      }
+      return handled;
+    }
+    
+    List<ForkJoinTask<Boolean>> tasks = new ArrayList<>(regions.size() - 1);
+    for (int i = 1; i < regions.size(); i++) {
+      DeepStateFsm<T, U> region = regions.get(i);
+      tasks.add(pool.submit(() -> inParallelRegion(() -> region.consume(event))));
+    }
+
+    boolean handled = regions.get(0).consume(event);
+    for (ForkJoinTask<Boolean> task : tasks) {
+      handled |= task.join();
+    }
+    return handled;
+  }
+
+  private void acceptInParallel(Event<T> event) {
+    List<ForkJoinTask<?>> tasks = new ArrayList<>(regions.size() - 1);
+    for (int i = 1; i < regions.size(); i++) {
+      DeepStateFsm<T, U> region = regions.get(i);
+      tasks.add(pool.submit(() -> inParallelRegion(() -> {
+        region.accept(event);
+        return true;
+      })));
+    }
+
+    regions.get(0).accept(event);
+    tasks.forEach(ForkJoinTask::join);
+  }
+
+  /**
+   * Returns true if the current thread is processing an event for a parallel region, while the
+   * thread that sent the event waits for it holding the locks of the enclosing machines.
+   *
+   * @return true if in a parallel region
+   */
+  static boolean isInParallelRegion() {
+    return PARALLEL.get();
+  }
+
+  private static <R> R inParallelRegion(Supplier<R> work) {
+    boolean previous = PARALLEL.get();
+    PARALLEL.set(true);
+    try {
+      return work.get();
+    } finally {
+      PARALLEL.set(previous);
+    }
+  }
+
+  /**
+   * Holds the lock of every region, always in region order, while reading the value.
+   */
+  private <R> R read(int region, Supplier<R> value) {
+    if (region == regions.size() - 1) {
+      return regions.get(region).read(value);
+    }
+    return regions.get(region).read(() -> read(region + 1, value));
+  }
 }
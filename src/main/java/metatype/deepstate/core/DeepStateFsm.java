@@ -1,41 +1,105 @@
 package metatype.deepstate.core;
 
+import java.time.Duration;
 import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.Deque;
-import java.util.Optional;
+import java.util.IdentityHashMap;
+import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import metatype.deepstate.DeepStateEvent;
 import metatype.deepstate.FiniteStateMachine;
 
 public class DeepStateFsm<T, U> implements FiniteStateMachine<T, U> {
   private static final Logger LOG = LoggerFactory.getLogger(DeepStateFsm.class);
   
-  private static final <T> Guard<T> isTrue() {
-    return trigger -> true;
-  }
+  /** the default number of transitions a single event may cause */
+  public static final int DEFAULT_CASCADE_LIMIT = 10_000;
   
   private final SimpleState<T, U> initialState;
-  private final Set<TriggeredTransition<T, U>> transitions;
+  private final Dispatcher<T, U> dispatcher;
   private final Consumer<Exception> uncaughtExceptionHandler;
   private final Consumer<Event<T>> auditor;
   
   private final Object lock = new Object();
-  private boolean active;
+  private volatile boolean active;
   private SimpleState<T, U> current;
+  
+  /** entered instead of the initial state the next time the machine begins, or null */
+  private SimpleState<T, U> resumeState;
+  
+  /** set when the thread running to completion has spent its drain budget */
+  private volatile boolean exhausted;
+  
+  /** the number of senders waiting to take over from the thread running to completion */
+  private final AtomicInteger waiting = new AtomicInteger();
+  
+  /** the events and time a thread may spend running to completion, or zero if unlimited */
+  private int drainEvents;
+  private long drainNanos;
+  
+  /** continues running to completion once the budget is spent, or null to wait for a sender */
+  private Executor handOff;
+  
+  /** buffers the events sent through the bus while running to completion, or null */
+  private volatile EventBus<?, T> bus;
 
-  private ConcurrentLinkedQueue<Event<T>> events;
+  private volatile Mailbox<T> events;
+  
+  /** the events without a payload, reused for each trigger */
+  private final ConcurrentHashMap<T, Event<T>> triggerEvents;
+  
+  /** the number of transitions a single event may cause */
+  private int cascadeLimit = DEFAULT_CASCADE_LIMIT;
+  
+  /** the levels of the hierarchy that receive each event */
+  private Propagation propagation = Propagation.BROADCAST;
+  
+  /** the sources of the transitions caused by the current event, or null if cycles are allowed */
+  private Set<State<U>> visited;
+  
+  /** the cascade caused by the current event */
+  private int steps;
+  private boolean abandoned;
+  
+  /** publishes the state changes, or null until a subscriber asks for them */
+  private StateChangePublisher<T, U> changes;
+  
+  /** the active states of this machine and its nested machines, or null if not tracked */
+  private volatile ActiveStates<U> activeStates;
+  
+  /** the ids of the triggers the states listen for, or null unless ignored events are dropped */
+  private volatile TriggerIndex<T> interests;
+  
+  /** the triggers the active states react to, or null if any */
+  private volatile TriggerSet interest;
+  private final AtomicLong droppedEvents = new AtomicLong();
+  
+  private long cascades;
+  private long transitions;
+  private int maxCascadeDepth;
+  private long abandonedCascades;
   
   public DeepStateFsm(SimpleState<T, U> initial, Set<TriggeredTransition<T, U>> transitions, Consumer<Exception> uncaughtExceptionHandler, Consumer<Event<T>> auditor) {
+    this(initial, new InterpretedDispatcher<>(transitions), uncaughtExceptionHandler, auditor);
+  }
+  
+  public DeepStateFsm(SimpleState<T, U> initial, Dispatcher<T, U> dispatcher, Consumer<Exception> uncaughtExceptionHandler, Consumer<Event<T>> auditor) {
     this.initialState = initial;
-    this.transitions = Collections.unmodifiableSet(transitions);
-    this.events = new ConcurrentLinkedQueue<>();
+    this.dispatcher = dispatcher;
+    this.events = new QueueMailbox<>();
+    this.triggerEvents = new ConcurrentHashMap<>();
     this.uncaughtExceptionHandler = defaultExceptionHandler(uncaughtExceptionHandler);
     this.auditor = auditor;
   }
@@ -61,6 +125,223 @@ public class DeepStateFsm<T, U> implements FiniteStateMachine<T, U> {
     }
   }
   
+  /**
+   * Limits the number of transitions a single event may cause.  When the limit is reached the
+   * remaining transitions are abandoned and a {@link CascadeException} is passed to the uncaught
+   * exception handler.
+   * 
+   * @param steps the maximum number of transitions per event
+   * @return the state machine
+   */
+  public DeepStateFsm<T, U> limitCascades(int steps) {
+    if (steps <= 0) {
+      throw new IllegalArgumentException("Cascade limit must be positive");
+    }
+    synchronized (lock) {
+      cascadeLimit = steps;
+    }
+    return this;
+  }
+  
+  /**
+   * Begins the machine in the supplied state instead of its initial state the next time it
+   * begins, for example to restore a machine that moved to another node.  Later beginnings
+   * enter the initial state again.
+   * 
+   * @param state the state to begin in
+   * @return the state machine
+   */
+  public DeepStateFsm<T, U> resumeIn(SimpleState<T, U> state) {
+    Objects.requireNonNull(state, "state must not be null");
+    synchronized (lock) {
+      resumeState = state;
+    }
+    return this;
+  }
+  
+  /**
+   * Abandons the transitions caused by an event when a transition leaves a state that an earlier
+   * transition for the same event has already left, since the guards would usually select the
+   * same transitions again.  Guards that depend on data changed by the cascade may legitimately
+   * revisit a state, so detection is not enabled by default.
+   * 
+   * @return the state machine
+   */
+  public DeepStateFsm<T, U> detectCycles() {
+    synchronized (lock) {
+      visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+    return this;
+  }
+  
+  /**
+   * Decides which levels of the nested state machines receive each event.  The nested machines
+   * must use the same policy.
+   * 
+   * @param propagation the policy
+   * @return the state machine
+   */
+  public DeepStateFsm<T, U> propagateEvents(Propagation propagation) {
+    Objects.requireNonNull(propagation, "propagation must not be null");
+    synchronized (lock) {
+      this.propagation = propagation;
+    }
+    return this;
+  }
+  
+  /**
+   * Queues the events sent to this state machine in the supplied mailbox instead of an unbounded
+   * queue.  Must be invoked before any events are sent.
+   * 
+   * @param mailbox the mailbox
+   * @return the state machine
+   */
+  public DeepStateFsm<T, U> queueEventsUsing(Mailbox<T> mailbox) {
+    Objects.requireNonNull(mailbox, "mailbox must not be null");
+    synchronized (lock) {
+      if (!events.isEmpty()) {
+        throw new IllegalStateException("Unable to replace a mailbox holding events");
+      }
+      events = mailbox;
+    }
+    return this;
+  }
+
+  /**
+   * Limits the work a thread does processing the events sent by other threads.  The thread that
+   * finds the state machine idle processes queued events until the mailbox is empty, so a steady
+   * stream of senders could otherwise keep it busy indefinitely.  Once the budget is spent the
+   * remaining events are handed to the {@link #handOffTo(Executor) executor}, or else to the next
+   * sender, which waits for the current event to finish and then continues in its place.  Events
+   * are still processed one at a time and in order.
+   * 
+   * @param events the number of events processed before handing off, or zero for no limit
+   * @param time the time spent processing events before handing off, or null for no limit
+   * @return the state machine
+   */
+  public DeepStateFsm<T, U> limitDrain(int events, Duration time) {
+    if (events < 0 || (time != null && time.isNegative())) {
+      throw new IllegalArgumentException("Drain budget must not be negative");
+    }
+    synchronized (lock) {
+      drainEvents = events;
+      drainNanos = time == null ? 0 : time.toNanos();
+    }
+    return this;
+  }
+  
+  /**
+   * Continues processing events on the executor once a thread has spent its drain budget, rather
+   * than waiting for another sender to take over.
+   * 
+   * @param executor the executor, or null to hand off to senders
+   * @return the state machine
+   * @see #limitDrain(int, Duration)
+   */
+  public DeepStateFsm<T, U> handOffTo(Executor executor) {
+    synchronized (lock) {
+      handOff = executor;
+    }
+    return this;
+  }
+  
+  /**
+   * Holds the events sent through the bus by the actions of this state machine until it has
+   * finished running to completion, then delivers them in batches.  Invoked when the machine is
+   * registered with the bus.
+   * 
+   * @param bus the bus
+   * @return the state machine
+   * @see EventBus#register(Object, FiniteStateMachine)
+   */
+  public DeepStateFsm<T, U> batchSendsWith(EventBus<?, T> bus) {
+    this.bus = bus;
+    return this;
+  }
+  
+  /**
+   * Drops the events sent to an idle state machine that none of its active states react to,
+   * before they are queued, audited or locked.  Each state must have been given the triggers it
+   * reacts to by {@link SimpleState#listenFor(TriggerSet)}, using ids from the supplied index;
+   * states without them receive every event.  Events sent while other events are queued or
+   * running are always processed, since an earlier event may change the active states.
+   * 
+   * @param triggers the trigger ids of the model
+   * @return the state machine
+   */
+  public DeepStateFsm<T, U> dropIgnoredEvents(TriggerIndex<T> triggers) {
+    Objects.requireNonNull(triggers, "triggers must not be null");
+    synchronized (lock) {
+      interests = triggers;
+      listen();
+    }
+    return this;
+  }
+  
+  /**
+   * Returns the number of events dropped because no active state reacts to them.
+   * 
+   * @return the event count
+   * @see #dropIgnoredEvents(TriggerIndex)
+   */
+  public long getDroppedEvents() {
+    return droppedEvents.get();
+  }
+  
+  /**
+   * Returns statistics about the transitions caused by each event.
+   * 
+   * @return the metrics
+   */
+  public CascadeMetrics getCascadeMetrics() {
+    synchronized (lock) {
+      return new CascadeMetrics(cascades, transitions, maxCascadeDepth, abandonedCascades);
+    }
+  }
+  
+  /**
+   * Publishes the state changes of this state machine using the supplied publisher, which may be
+   * shared with nested state machines.
+   * 
+   * @param publisher the publisher
+   * @return the state machine
+   */
+  public DeepStateFsm<T, U> publishStateChanges(StateChangePublisher<T, U> publisher) {
+    Objects.requireNonNull(publisher, "publisher must not be null");
+    synchronized (lock) {
+      changes = publisher;
+    }
+    return this;
+  }
+  
+  /**
+   * Answers {@link #isIn(Object)} from the supplied set, which must track every state of this
+   * machine and its nested machines.  Without a set the current states are searched.
+   * 
+   * @param states the active states
+   * @return the state machine
+   */
+  public DeepStateFsm<T, U> trackActiveStates(ActiveStates<U> states) {
+    activeStates = Objects.requireNonNull(states, "active states must not be null");
+    return this;
+  }
+  
+  @Override
+  public boolean isIn(U state) {
+    ActiveStates<U> active = activeStates;
+    return active == null ? FiniteStateMachine.super.isIn(state) : active.contains(state);
+  }
+  
+  @Override
+  public StateChangePublisher<T, U> getStateChanges() {
+    synchronized (lock) {
+      if (changes == null) {
+        changes = new StateChangePublisher<>();
+      }
+      return changes;
+    }
+  }
+  
   public State<U> getInitialState() {
     return initialState;
   }
@@ -73,41 +354,230 @@ public class DeepStateFsm<T, U> implements FiniteStateMachine<T, U> {
   
   @Override
   public void accept(Event<T> event) {
-    events.add(event);
-    
-    synchronized (lock) {
-      if (active) {
-        return;
+    if (isIgnored(event)) {
+      return;
+    }
+    enqueue(event);
+    dispatch();
+  }
+  
+  /**
+   * Queues the whole batch before processing it, so the batch costs a single handoff to the
+   * thread running to completion.
+   * 
+   * @param batch the events to apply
+   */
+  @Override
+  public void acceptAll(Iterable<? extends Event<T>> batch) {
+    for (Event<T> event : batch) {
+      if (!isIgnored(event)) {
+        enqueue(event);
       }
-      
+    }
+    dispatch();
+  }
+  
+  private boolean isIgnored(Event<T> event) {
+    TriggerIndex<T> triggers = interests;
+    // read the mailbox and flag before the interest, which is updated before the flag is cleared
+    if (triggers == null || !events.isEmpty() || active) {
+      return false;
+    }
+    TriggerSet reacting = interest;
+    if (reacting == null || reacting.contains(triggers.idOf(event.getTrigger()))) {
+      return false;
+    }
+    droppedEvents.incrementAndGet();
+    return true;
+  }
+  
+  private void enqueue(Event<T> event) {
+    while (!events.offer(event)) {
+      if (Thread.holdsLock(lock)) {
+        throw new IllegalStateException("Mailbox is full, unable to send event " + event + " while processing another event");
+      }
+      // wait for the thread running to completion, or empty the mailbox ourselves
+      drain();
+    }
+  }
+  
+  private void dispatch() {
+    if (!active) {
+      drain();
+    } else if (Thread.holdsLock(lock) || CompositeState.isInParallelRegion()) {
+      // the thread running to completion will process the event, and may be waiting for this one
+      return;
+    } else {
+      // wait until the event has been processed, taking over once the running thread's budget is spent
+      takeOver();
+    }
+  }
+  
+  private void drain() {
+    EventBus<?, T> sends = bus;
+    if (sends != null) {
+      sends.hold();
+    }
+    try {
+      synchronized (lock) {
+        drainLocked();
+      }
+    } finally {
+      if (sends != null) {
+        sends.release();
+      }
+    }
+  }
+  
+  private void takeOver() {
+    EventBus<?, T> sends = bus;
+    if (sends != null) {
+      sends.hold();
+    }
+    waiting.incrementAndGet();
+    try {
+      synchronized (lock) {
+        waiting.decrementAndGet();
+        drainLocked();
+      }
+    } finally {
+      if (sends != null) {
+        sends.release();
+      }
+    }
+  }
+  
+  private void drainLocked() {
+    if (active) {
+      return;
+    }
+    
+    // recheck after clearing the flag, a sender may have seen it set after the last poll
+    do {
+      boolean finished;
       active = true;
       try {
-        runToCompletion();
+        finished = runToCompletion();
         
       } finally {
+        listen();
         active = false;
       }
+      
+      if (!finished) {
+        // leave the remaining events to the executor or the waiting sender
+        if (handOff == null) {
+          return;
+        }
+        try {
+          handOff.execute(this::drain);
+          return;
+        } catch (RejectedExecutionException e) {
+          LOG.warn("Unable to hand off the remaining events, continuing on the current thread", e);
+        }
+      }
+    } while (!events.isEmpty());
+  }
+
+  /**
+   * Updates the state machine with an event that has the supplied trigger and no payload.  One
+   * event is created for each trigger and reused, so the triggers should come from a bounded set
+   * such as an enum.
+   * 
+   * @param trigger the event trigger
+   */
+  @Override
+  public void trigger(T trigger) {
+    Objects.requireNonNull(trigger, "trigger must not be null");
+    Event<T> event = triggerEvents.get(trigger);
+    if (event == null) {
+      event = triggerEvents.computeIfAbsent(trigger, DeepStateEvent::new);
     }
+    accept(event);
   }
 
   public DeepStateFsm<T, U> begin() {
-    LOG.debug("Setting initial state {}", initialState.getIdentity());
     synchronized (lock) {
-      current = initialState;
-      current.enter();
+      SimpleState<T, U> start = resumeState == null ? initialState : resumeState;
+      resumeState = null;
+      LOG.debug("Setting initial state {}", start.getIdentity());
+      enterInitialState(start);
+      listen();
     }
     return this;
   }
 
   public DeepStateFsm<T, U> end() {
     synchronized (lock) {
-      LOG.debug("Leaving final state {}", current.getIdentity());
-      current.exit();
-      current = null;
+      exitCurrentState();
+      listen();
     }
     return this;
   }
 
+  /**
+   * Enters the state the machine begins in, invoked while holding the state machine lock.
+   * 
+   * @param state the initial state, or the state the machine resumes in
+   */
+  protected void enterInitialState(SimpleState<T, U> state) {
+    current = state;
+    publish(null, current, null);
+    current.enter();
+  }
+
+  /**
+   * Exits the current state, invoked while holding the state machine lock.
+   */
+  protected void exitCurrentState() {
+    LOG.debug("Leaving final state {}", current.getIdentity());
+    current.exit();
+    publish(current, null, null);
+    current = null;
+  }
+
+  /**
+   * Returns the most deeply nested active state known to this machine, invoked while holding the
+   * state machine lock.
+   * 
+   * @return the state, or null if the machine is not running
+   */
+  protected SimpleState<T, U> getInnermostState() {
+    return current;
+  }
+  
+  /**
+   * Records the triggers the active states react to, invoked while holding the state machine lock.
+   */
+  private void listen() {
+    if (interests != null) {
+      SimpleState<T, U> innermost = getInnermostState();
+      interest = innermost == null ? null : innermost.getInterest();
+    }
+  }
+  
+  /**
+   * Passes an exception thrown by a transition action to the uncaught exception handler.
+   * 
+   * @param e the exception
+   */
+  protected void handleException(Exception e) {
+    uncaughtExceptionHandler.accept(e);
+  }
+
+  /**
+   * Publishes a state change to any subscribers, invoked while holding the state machine lock.
+   * 
+   * @param exited the exited state, or null if the state machine began
+   * @param entered the entered state, or null if the state machine ended
+   * @param event the event causing the change, or null
+   */
+  protected void publish(State<U> exited, State<U> entered, Event<T> event) {
+    if (changes != null) {
+      changes.publish(exited, entered, event);
+    }
+  }
+
   private Consumer<Exception> defaultExceptionHandler(Consumer<Exception> uncaughtExceptionHandler) {
     if (uncaughtExceptionHandler == null) {
       uncaughtExceptionHandler = (e) -> { 
@@ -117,29 +587,146 @@ public class DeepStateFsm<T, U> implements FiniteStateMachine<T, U> {
     return uncaughtExceptionHandler;
   }
 
-  private void runToCompletion() {
+  /**
+   * Processes the queued events until the mailbox is empty, or until the drain budget is spent
+   * and another thread can continue.
+   * 
+   * @return false if events were left for another thread
+   */
+  private boolean runToCompletion() {
+    exhausted = false;
+    long deadline = drainNanos > 0 ? System.nanoTime() + drainNanos : 0;
+    int processed = 0;
+    
     Event<T> event;
     while ((event = events.poll()) != null) {
-      if (auditor != null) {
-        auditor.accept(event);
+      runEvent(event);
+      
+      processed++;
+      if (!exhausted && ((drainEvents > 0 && processed >= drainEvents) || (deadline != 0 && System.nanoTime() - deadline >= 0))) {
+        exhausted = true;
+      }
+      if (exhausted && (handOff != null || waiting.get() > 0) && !events.isEmpty()) {
+        return false;
       }
-      processEvent(event);
     }
+    return true;
   }
 
-  private void processEvent(Event<T> event) {
-    LOG.debug("Sending event {} to state {}", event, current.getIdentity());
-    current.accept(event);
+  private boolean runEvent(Event<T> event) {
+    if (auditor != null) {
+      auditor.accept(event);
+    }
+    
+    steps = 0;
+    abandoned = false;
+    if (visited != null) {
+      visited.clear();
+    }
+    
+    boolean handled = processEvent(event);
+    
+    cascades++;
+    transitions += steps;
+    maxCascadeDepth = Math.max(maxCascadeDepth, steps);
+    return handled;
+  }
+  
+  /**
+   * Processes an event sent by the enclosing composite state immediately, rather than queueing
+   * it, so the enclosing machine can tell whether it was handled.
+   * 
+   * @param event the event
+   * @return true if the event was handled
+   */
+  boolean consume(Event<T> event) {
+    synchronized (lock) {
+      return runEvent(event);
+    }
+  }
+  
+  /**
+   * Returns the levels of the hierarchy that receive each event, read while holding the state
+   * machine lock.
+   * 
+   * @return the policy
+   */
+  protected Propagation getPropagation() {
+    return propagation;
+  }
+  
+  /**
+   * Sends an event to the current state and performs any resulting transitions, invoked while
+   * holding the state machine lock.
+   * 
+   * @param event the event
+   * @return true if a state handled the event, only reported for the propagation policies that
+   *         stop once the event has been handled
+   */
+  protected boolean processEvent(Event<T> event) {
+    boolean handled = false;
+    
+    // each transition sends the event to the new state until no further transition matches
+    while (true) {
+      LOG.debug("Sending event {} to state {}", event, current.getIdentity());
+      TriggeredTransition<T, U> transition;
+      if (propagation == Propagation.BROADCAST) {
+        current.accept(event);
+        transition = dispatcher.select(current, event);
+        
+      } else {
+        // once this level has handled the event it no longer moves to the nested machines
+        CompositeState<T, U> composite = !handled && current instanceof CompositeState ? (CompositeState<T, U>) current : null;
+        if (composite != null && propagation == Propagation.INNER_FIRST && composite.forward(event)) {
+          return true;
+        }
+        
+        boolean acted = current.react(event);
+        transition = dispatcher.select(current, event);
+        if (acted || transition != null) {
+          handled = true;
+        } else if (composite != null && propagation == Propagation.OUTER_FIRST) {
+          return composite.forward(event);
+        }
+      }
+      
+      if (transition == null || !step(current, event)) {
+        return handled;
+      }
+      performTransition(transition, event);
+    }
+  }
 
-    findMatchingTransition(event).ifPresent(transition -> performTransition(transition, event));
+  /**
+   * Counts a transition caused by the current event, invoked before the transition is performed.
+   * 
+   * @param source the state the transition leaves
+   * @param event the event
+   * @return false if the cascade exceeded the step limit or revisited a state, and the
+   *         transition must not be performed
+   */
+  protected boolean step(State<U> source, Event<T> event) {
+    if (abandoned) {
+      return false;
+    }
+    
+    if (steps == cascadeLimit) {
+      abandon(new CascadeException("Event " + event + " exceeded the limit of " + cascadeLimit + " transitions in state " + source));
+      return false;
+    }
+    if (visited != null && !visited.add(source)) {
+      abandon(new CascadeException("Event " + event + " caused a cycle of transitions through state " + source));
+      return false;
+    }
+    
+    steps++;
+    return true;
   }
 
-  private Optional<TriggeredTransition<T, U>> findMatchingTransition(Event<T> event) {
-    return transitions.stream()
-      .filter(t -> t.getSource().equals(current))
-      .filter(t -> t.getTrigger().test(event.getTrigger()))
-      .filter(t -> t.getGuard().orElse(isTrue()).test(event))
-      .findFirst();
+  private void abandon(CascadeException e) {
+    abandoned = true;
+    abandonedCascades++;
+    handleException(e);
   }
 
   @SuppressWarnings("unchecked")
@@ -149,9 +736,8 @@ public class DeepStateFsm<T, U> implements FiniteStateMachine<T, U> {
     fireTransitionAction(transition, event);
     
     current = (SimpleState<T, U>) transition.getDestination();
+    publish(transition.getSource(), current, event);
     current.enter();
-    
-    processEvent(event);
   }
 
   private void fireTransitionAction(TriggeredTransition<T, U> transition, Event<T> event) {
@@ -0,0 +1,21 @@
+package metatype.deepstate.core;
+
+import metatype.deepstate.FiniteStateMachine.Event;
+import metatype.deepstate.FiniteStateMachine.State;
+
+/**
+ * Selects the transition triggered by an event.
+ *
+ * @param <T> the type of the event trigger
+ * @param <U> the type of the state name
+ */
+public interface Dispatcher<T, U> {
+  /**
+   * Returns the first transition leaving the source state whose trigger and guard match the event.
+   * 
+   * @param source the current state
+   * @param event the event
+   * @return the matching transition, or null if no transition matches
+   */
+  TriggeredTransition<T, U> select(State<U> source, Event<T> event);
+}
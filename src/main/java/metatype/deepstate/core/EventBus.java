@@ -0,0 +1,176 @@
+package metatype.deepstate.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import metatype.deepstate.FiniteStateMachine;
+import metatype.deepstate.FiniteStateMachine.Event;
+
+/**
+ * Delivers events between state machines addressed by id.  Events sent from the actions of a
+ * registered machine are held on the sending thread until that machine has finished running to
+ * completion, then delivered to each target as one batch, in the order they were sent.  The
+ * sender never takes the lock of another machine or runs its events while holding its own lock,
+ * and each target is handed a whole batch at once rather than one event at a time.
+ * <p>
+ * The events themselves are delivered as sent, without copying.  Events sent from a thread that
+ * is not running a registered machine are delivered immediately.
+ *
+ * @param <K> the type of the machine id
+ * @param <T> the type of the event trigger
+ */
+public class EventBus<K, T> {
+  private static final Logger LOG = LoggerFactory.getLogger(EventBus.class);
+
+  private final Map<K, FiniteStateMachine<T, ?>> machines;
+
+  /** the events held by each thread running a registered machine */
+  private final ThreadLocal<Outbox<K, T>> outboxes;
+
+  public EventBus() {
+    this.machines = new ConcurrentHashMap<>();
+    this.outboxes = ThreadLocal.withInitial(Outbox::new);
+  }
+
+  /**
+   * Registers a state machine, which then receives the events sent to the id.  The sends made by
+   * the actions of a {@link DeepStateFsm} are held until it finishes running to completion.
+   *
+   * @param id the machine id
+   * @param machine the machine
+   * @return the bus
+   */
+  public EventBus<K, T> register(K id, FiniteStateMachine<T, ?> machine) {
+    Objects.requireNonNull(id, "id must not be null");
+    Objects.requireNonNull(machine, "machine must not be null");
+    if (machines.putIfAbsent(id, machine) != null) {
+      throw new IllegalStateException("Machine " + id + " is already registered");
+    }
+    if (machine instanceof DeepStateFsm<?, ?>) {
+      ((DeepStateFsm<T, ?>) machine).batchSendsWith(this);
+    }
+    return this;
+  }
+
+  /**
+   * Removes a state machine.  Events held for it are dropped when they would be delivered.
+   *
+   * @param id the machine id
+   * @return the machine, or null if none was registered
+   */
+  public FiniteStateMachine<T, ?> unregister(K id) {
+    return machines.remove(id);
+  }
+
+  /**
+   * Sends an event to a registered machine.
+   *
+   * @param id the machine id
+   * @param event the event
+   */
+  public void send(K id, Event<T> event) {
+    Objects.requireNonNull(event, "event must not be null");
+    FiniteStateMachine<T, ?> target = machines.get(id);
+    if (target == null) {
+      throw new IllegalArgumentException("No machine is registered as " + id);
+    }
+
+    Outbox<K, T> outbox = outboxes.get();
+    if (outbox.holds > 0) {
+      outbox.add(id, event);
+    } else {
+      target.accept(event);
+    }
+  }
+
+  /**
+   * Holds the sends of the current thread, invoked before a registered machine runs to completion.
+   */
+  void hold() {
+    outboxes.get().holds++;
+  }
+
+  /**
+   * Delivers the held sends once the outermost machine on the current thread has finished running
+   * to completion.  Machines receiving a batch hold their own sends in turn, which are delivered
+   * by the same loop rather than recursively.  A target that fails to accept its batch does not
+   * stop delivery to the others; the first failure is thrown once every batch has been delivered.
+   */
+  void release() {
+    Outbox<K, T> outbox = outboxes.get();
+    if (outbox.holds > 1 || outbox.pending.isEmpty()) {
+      outbox.holds--;
+      return;
+    }
+
+    RuntimeException failure = null;
+    try {
+      Iterator<Map.Entry<K, List<Event<T>>>> batches = outbox.pending.entrySet().iterator();
+      while (batches.hasNext()) {
+        Map.Entry<K, List<Event<T>>> batch = batches.next();
+        batches.remove();
+        try {
+          deliver(batch.getKey(), batch.getValue());
+        } catch (RuntimeException e) {
+          if (failure == null) {
+            failure = e;
+          } else {
+            failure.addSuppressed(e);
+          }
+        }
+        outbox.recycle(batch.getValue());
+        batches = outbox.pending.entrySet().iterator();
+      }
+    } finally {
+      outbox.holds--;
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void deliver(K id, List<Event<T>> batch) {
+    FiniteStateMachine<T, ?> target = machines.get(id);
+    if (target == null) {
+      LOG.warn("Dropping {} events for unregistered machine {}", batch.size(), id);
+      return;
+    }
+    LOG.debug("Delivering {} events to machine {}", batch.size(), id);
+    target.acceptAll(batch);
+  }
+
+  private static class Outbox<K, T> {
+    /** the number of machines running to completion on this thread */
+    private int holds;
+
+    /** the held events of each target, in the order the targets were first sent to */
+    private final Map<K, List<Event<T>>> pending = new LinkedHashMap<>();
+
+    /** the batch lists that have been delivered, reused for later batches */
+    private final Deque<List<Event<T>>> spare = new ArrayDeque<>();
+
+    public void add(K id, Event<T> event) {
+      List<Event<T>> batch = pending.get(id);
+      if (batch == null) {
+        batch = spare.isEmpty() ? new ArrayList<>() : spare.pop();
+        pending.put(id, batch);
+      }
+      batch.add(event);
+    }
+
+    public void recycle(List<Event<T>> batch) {
+      batch.clear();
+      spare.push(batch);
+    }
+  }
+}
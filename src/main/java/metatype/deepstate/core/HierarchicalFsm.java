@@ -0,0 +1,429 @@
+package metatype.deepstate.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a hierarchy of nested state machines as a single state machine.  Instead of wrapping each
+ * nested machine in a {@link CompositeState} with its own lock and event queue, every state of the
+ * hierarchy is numbered when the machine is created and the active states are tracked as a path
+ * from the top level down to the most deeply nested state.  Each event is queued and locked once,
+ * regardless of the nesting depth.
+ * <p>
+ * Events are processed in the same order as with nested machines: the internal actions of the
+ * active states run from the outermost state inward, then the transitions of each level are
+ * selected from the innermost level outward.  With a {@link Propagation} policy other than
+ * broadcast, the event instead stops at the first level that handles it.  A transition exits the
+ * active states below and including its source, innermost first, and enters its destination
+ * followed by the initial states of any nested machines.
+ * <p>
+ * Transitions may enter a state at any depth of the hierarchy.  The states exited and entered are
+ * computed from the least common ancestor of the source and destination when the machine is
+ * created, so the cost of a transition at runtime is an array walk.  The event is then sent again
+ * from the outermost level that changed.
+ *
+ * @param <T> the type of the event trigger
+ * @param <U> the type of the state name
+ */
+public class HierarchicalFsm<T, U> extends DeepStateFsm<T, U> {
+  private static final Logger LOG = LoggerFactory.getLogger(HierarchicalFsm.class);
+
+  /**
+   * The states and transitions of one machine in the hierarchy.
+   */
+  public static class Submachine<T, U> {
+    private final SimpleState<T, U> initial;
+    private final Collection<SimpleState<T, U>> states;
+    private final Collection<TriggeredTransition<T, U>> transitions;
+    private final Dispatcher<T, U> dispatcher;
+    private final Consumer<Exception> uncaughtExceptionHandler;
+
+    /** the machines nested in the states of this machine */
+    private final Map<SimpleState<T, U>, Submachine<T, U>> nested;
+
+    /**
+     * Creates the submachine.
+     *
+     * @param initial the initial state
+     * @param states all states of the machine, including the initial state
+     * @param transitions the transitions leaving the states, which may enter a state anywhere in
+     *        the hierarchy
+     * @param dispatcher selects the transitions
+     * @param uncaughtExceptionHandler handles exceptions thrown by transition actions, or null to
+     *        use the handler of the top level machine
+     */
+    public Submachine(SimpleState<T, U> initial, Collection<SimpleState<T, U>> states, Collection<TriggeredTransition<T, U>> transitions,
+        Dispatcher<T, U> dispatcher, Consumer<Exception> uncaughtExceptionHandler) {
+      this.initial = Objects.requireNonNull(initial, "initial state must not be null");
+      this.states = new ArrayList<>(states);
+      this.transitions = new ArrayList<>(transitions);
+      this.dispatcher = Objects.requireNonNull(dispatcher, "dispatcher must not be null");
+      this.uncaughtExceptionHandler = uncaughtExceptionHandler;
+      this.nested = new LinkedHashMap<>();
+
+      if (!this.states.contains(initial)) {
+        throw new IllegalStateException("Initial state " + initial + " is not a state of the machine");
+      }
+    }
+
+    /**
+     * Nests a machine inside a state.
+     *
+     * @param state the containing state
+     * @param machine the nested machine
+     * @return this submachine
+     */
+    public Submachine<T, U> nest(SimpleState<T, U> state, Submachine<T, U> machine) {
+      Objects.requireNonNull(machine, "nested machine must not be null");
+      if (!states.contains(state)) {
+        throw new IllegalStateException("Unable to nest a machine in unknown state " + state);
+      }
+      nested.put(state, machine);
+      return this;
+    }
+  }
+
+  /**
+   * The states exited and entered by a transition, computed from the least common ancestor of
+   * its source and destination.
+   */
+  private static class Route {
+    /** the outermost level exited by the transition */
+    private final int exitLevel;
+
+    /** the nodes entered from the exit level down to the destination */
+    private final int[] entries;
+
+    public Route(int exitLevel, int[] entries) {
+      this.exitLevel = exitLevel;
+      this.entries = entries;
+    }
+  }
+
+  /** no transition changed the active path */
+  private static final int UNCHANGED = Integer.MAX_VALUE;
+
+  /** every state in the hierarchy, indexed by node */
+  private final SimpleState<T, U>[] states;
+
+  /** the dispatcher of the machine containing each node */
+  private final Dispatcher<T, U>[] dispatchers;
+
+  /** the transition exception handler of the machine containing each node, or null */
+  private final Consumer<Exception>[] handlers;
+
+  /** the initial node of the machine nested in each node, or -1 */
+  private final int[] initialChild;
+
+  /** the node containing each node, or -1 at the top level */
+  private final int[] parents;
+
+  /** the node of each state */
+  private final Map<State<U>, Integer> nodes;
+
+  /** the route of each transition */
+  private final Map<TriggeredTransition<T, U>, Route> routes;
+
+  /** the active nodes, from the top level down */
+  private final int[] path;
+  private int depth;
+
+  /** set when a level handles the current event */
+  private boolean handled;
+
+  @SuppressWarnings("unchecked")
+  public HierarchicalFsm(Submachine<T, U> root, Consumer<Exception> uncaughtExceptionHandler, Consumer<Event<T>> auditor) {
+    super(root.initial, root.dispatcher, uncaughtExceptionHandler, auditor);
+
+    List<SimpleState<T, U>> allStates = new ArrayList<>();
+    List<Submachine<T, U>> owners = new ArrayList<>();
+    List<Integer> parents = new ArrayList<>();
+    Map<SimpleState<T, U>, Submachine<T, U>> children = new IdentityHashMap<>();
+    int levels = number(root, -1, 1, allStates, owners, parents, children);
+
+    int size = allStates.size();
+    states = (SimpleState<T, U>[]) allStates.toArray(new SimpleState<?, ?>[size]);
+    dispatchers = (Dispatcher<T, U>[]) new Dispatcher<?, ?>[size];
+    handlers = (Consumer<Exception>[]) new Consumer<?>[size];
+    initialChild = new int[size];
+    this.parents = parents.stream().mapToInt(Integer::intValue).toArray();
+    nodes = new IdentityHashMap<>();
+    for (int node = 0; node < size; node++) {
+      if (nodes.put(states[node], node) != null) {
+        throw new IllegalStateException("State " + states[node] + " appears more than once in the hierarchy");
+      }
+    }
+    for (int node = 0; node < size; node++) {
+      Submachine<T, U> owner = owners.get(node);
+      dispatchers[node] = owner.dispatcher;
+      handlers[node] = owner.uncaughtExceptionHandler;
+
+      Submachine<T, U> child = children.get(states[node]);
+      initialChild[node] = child == null ? -1 : nodes.get(child.initial);
+    }
+
+    routes = new IdentityHashMap<>();
+    for (Submachine<T, U> machine : children.values()) {
+      machine.transitions.forEach(t -> routes.put(t, route(t, machine)));
+    }
+    root.transitions.forEach(t -> routes.put(t, route(t, root)));
+
+    path = new int[levels];
+  }
+
+  @Override
+  public State<U> getCurrentState() {
+    return read(() -> depth == 0 ? null : states[path[0]]);
+  }
+
+  @Override
+  public Deque<State<U>> getCurrentStates() {
+    return read(() -> {
+      Deque<State<U>> active = new ArrayDeque<>(depth);
+      for (int level = 0; level < depth; level++) {
+        active.add(states[path[level]]);
+      }
+      return active;
+    });
+  }
+
+  /**
+   * Returns the number of nested levels that are currently active.
+   *
+   * @return the depth of the active state path
+   */
+  public int getDepth() {
+    return read(() -> depth);
+  }
+
+  @Override
+  protected void enterInitialState(SimpleState<T, U> state) {
+    Integer node = nodes.get(state);
+    if (node == null) {
+      throw new IllegalStateException("State " + state + " is not part of the hierarchy");
+    }
+
+    // a state resumed below the top level is entered with the states containing it
+    int[] ancestors = ancestry(node);
+    for (int level = 0; level < ancestors.length - 1; level++) {
+      path[level] = ancestors[level];
+      depth = level + 1;
+      publish(null, states[ancestors[level]], null);
+      states[ancestors[level]].enter();
+    }
+    enter(ancestors.length - 1, node);
+  }
+
+  @Override
+  protected SimpleState<T, U> getInnermostState() {
+    return depth == 0 ? null : states[path[depth - 1]];
+  }
+
+  @Override
+  protected void exitCurrentState() {
+    exitTo(0);
+    publish(states[path[0]], null, null);
+  }
+
+  @Override
+  protected boolean processEvent(Event<T> event) {
+    handled = false;
+    if (depth > 0) {
+      process(0, event);
+    }
+    return handled;
+  }
+
+  /**
+   * Sends an event to the active state at a level and the levels below it.
+   *
+   * @return the outermost level exited by a transition, or {@link #UNCHANGED}
+   */
+  private int process(int level, Event<T> event) {
+    Propagation propagation = getPropagation();
+    
+    // once this level has handled the event it no longer moves to the levels below
+    boolean descend = true;
+    while (true) {
+      int node = path[level];
+      SimpleState<T, U> state = states[node];
+      LOG.debug("Sending event {} to state {}", event, state.getIdentity());
+      boolean nested = descend && level + 1 < depth;
+
+      if (propagation == Propagation.INNER_FIRST && nested) {
+        boolean earlier = handled;
+        handled = false;
+        int changed = process(level + 1, event);
+        boolean inside = handled;
+        handled |= earlier;
+        if (changed < level) {
+          return changed;
+        }
+        if (changed == level) {
+          descend = false;
+          continue;
+        }
+        if (inside) {
+          return UNCHANGED;
+        }
+      }
+
+      boolean acted = state.react(event);
+      if (propagation == Propagation.BROADCAST && level + 1 < depth) {
+        int changed = process(level + 1, event);
+        if (changed < level) {
+          // a cross-level transition exited this state, the level it left resends the event
+          return changed;
+        }
+        if (changed == level) {
+          continue;
+        }
+      }
+
+      TriggeredTransition<T, U> transition = dispatchers[node].select(state, event);
+      if (acted || transition != null) {
+        handled = true;
+        descend = false;
+      } else if (propagation == Propagation.OUTER_FIRST && nested) {
+        int changed = process(level + 1, event);
+        if (changed < level) {
+          return changed;
+        }
+        if (changed == level) {
+          descend = false;
+          continue;
+        }
+        return UNCHANGED;
+      }
+      
+      if (transition == null || !step(state, event)) {
+        return UNCHANGED;
+      }
+
+      int changed = performTransition(level, transition, event);
+      if (changed != level) {
+        return changed;
+      }
+    }
+  }
+
+  private int performTransition(int level, TriggeredTransition<T, U> transition, Event<T> event) {
+    LOG.debug("Transitioning from state {} to state {}", transition.getSource(), transition.getDestination());
+    Consumer<Exception> handler = handlers[path[level]];
+    Route route = routes.get(transition);
+    State<U> exited = states[path[route.exitLevel]];
+    exitTo(route.exitLevel);
+
+    try {
+      transition.getAction().ifPresent(action -> {
+        LOG.debug("Invoking action for event {} during transtion {}", event, transition);
+        action.accept(transition, event);
+      });
+    } catch (Exception e) {
+      if (handler == null) {
+        handleException(e);
+      } else {
+        handler.accept(e);
+      }
+    }
+
+    // the states entered below the exit level begin their machines, like the initial states
+    int entered = route.exitLevel;
+    int[] entries = route.entries;
+    for (int i = 0; i < entries.length; i++) {
+      path[entered] = entries[i];
+      depth = ++entered;
+      publish(i == 0 ? exited : null, states[entries[i]], i == 0 ? event : null);
+      states[entries[i]].enter();
+    }
+    enter(entered, initialChild[entries[entries.length - 1]]);
+    return route.exitLevel;
+  }
+
+  /**
+   * Enters a node at the given level followed by the initial nodes of its nested machines.
+   */
+  private void enter(int level, int node) {
+    while (node >= 0) {
+      path[level++] = node;
+      depth = level;
+      publish(null, states[node], null);
+      states[node].enter();
+      node = initialChild[node];
+    }
+  }
+
+  /**
+   * Exits the active nodes from the innermost level up to and including the given level.  The
+   * nodes below the given level end their machines.
+   */
+  private void exitTo(int level) {
+    while (depth > level) {
+      SimpleState<T, U> state = states[path[--depth]];
+      state.exit();
+      if (depth > level) {
+        publish(state, null, null);
+      }
+    }
+  }
+
+  private Route route(TriggeredTransition<T, U> transition, Submachine<T, U> owner) {
+    Integer source = nodes.get(transition.getSource());
+    if (source == null || !owner.states.contains(transition.getSource())) {
+      throw new IllegalStateException("Transition " + transition + " must leave a state of the machine defining it");
+    }
+    Integer destination = nodes.get(transition.getDestination());
+    if (destination == null) {
+      throw new IllegalStateException("Transition " + transition + " enters a state outside of the hierarchy");
+    }
+
+    int[] exited = ancestry(source);
+    int[] entered = ancestry(destination);
+
+    // leave at least the shallower endpoint so transitions to an ancestor or descendant are external
+    int level = 0;
+    int limit = Math.min(exited.length, entered.length) - 1;
+    while (level < limit && exited[level] == entered[level]) {
+      level++;
+    }
+    return new Route(level, Arrays.copyOfRange(entered, level, entered.length));
+  }
+
+  private int[] ancestry(int node) {
+    Deque<Integer> ancestors = new ArrayDeque<>();
+    for (int n = node; n >= 0; n = parents[n]) {
+      ancestors.addFirst(n);
+    }
+    return ancestors.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private static <T, U> int number(Submachine<T, U> machine, int parent, int level, List<SimpleState<T, U>> states,
+      List<Submachine<T, U>> owners, List<Integer> parents, Map<SimpleState<T, U>, Submachine<T, U>> children) {
+    int levels = level;
+    for (SimpleState<T, U> state : machine.states) {
+      int node = states.size();
+      states.add(state);
+      owners.add(machine);
+      parents.add(parent);
+
+      Submachine<T, U> child = machine.nested.get(state);
+      if (child != null) {
+        children.put(state, child);
+        levels = Math.max(levels, number(child, node, level + 1, states, owners, parents, children));
+      }
+    }
+    return levels;
+  }
+}
@@ -0,0 +1,70 @@
+package metatype.deepstate.core;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import metatype.deepstate.FiniteStateMachine.Event;
+import metatype.deepstate.FiniteStateMachine.Guard;
+import metatype.deepstate.FiniteStateMachine.State;
+
+/**
+ * Selects transitions by evaluating the candidates found in a {@link TransitionTable}.
+ *
+ * @param <T> the type of the event trigger
+ * @param <U> the type of the state name
+ */
+public class InterpretedDispatcher<T, U> implements Dispatcher<T, U> {
+  /**
+   * The candidates for a state and trigger, with trigger predicates only where the trigger is not
+   * known to match.
+   */
+  private static class Candidates<T, U> {
+    private final TriggeredTransition<T, U>[] transitions;
+    private final Predicate<T>[] triggers;
+    private final Guard<T>[] guards;
+
+    @SuppressWarnings("unchecked")
+    public Candidates(List<TriggeredTransition<T, U>> candidates) {
+      transitions = (TriggeredTransition<T, U>[]) candidates.toArray(new TriggeredTransition<?, ?>[candidates.size()]);
+      triggers = (Predicate<T>[]) new Predicate<?>[transitions.length];
+      guards = (Guard<T>[]) new Guard<?>[transitions.length];
+      for (int i = 0; i < transitions.length; i++) {
+        triggers[i] = transitions[i].getTriggers().isPresent() ? null : transitions[i].getTrigger();
+        guards[i] = transitions[i].getGuard().orElse(null);
+      }
+    }
+  }
+  
+  private final TransitionTable<T, U, Candidates<T, U>> table;
+  
+  public InterpretedDispatcher(Set<TriggeredTransition<T, U>> transitions) {
+    this(transitions, new TriggerIndex<>());
+  }
+
+  public InterpretedDispatcher(Set<TriggeredTransition<T, U>> transitions, TriggerIndex<T> triggers) {
+    this.table = new TransitionTable<>(transitions, triggers, Candidates::new);
+  }
+
+  @Override
+  public TriggeredTransition<T, U> select(State<U> source, Event<T> event) {
+    T trigger = event.getTrigger();
+    Candidates<T, U> candidates = table.get(source, trigger);
+    if (candidates == null) {
+      return null;
+    }
+
+    for (int i = 0; i < candidates.transitions.length; i++) {
+      Predicate<T> matches = candidates.triggers[i];
+      if (matches != null && !matches.test(trigger)) {
+        continue;
+      }
+      
+      Guard<T> guard = candidates.guards[i];
+      if (guard == null || guard.test(event)) {
+        return candidates.transitions[i];
+      }
+    }
+    return null;
+  }
+}
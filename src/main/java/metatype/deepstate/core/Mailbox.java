@@ -0,0 +1,34 @@
+package metatype.deepstate.core;
+
+import metatype.deepstate.FiniteStateMachine.Event;
+
+/**
+ * Holds the events sent to a state machine until they are processed.  Any number of threads may
+ * offer events, but only the thread holding the state machine lock polls them.
+ *
+ * @param <T> the type of the event trigger
+ */
+public interface Mailbox<T> {
+  /**
+   * Adds an event to the end of the mailbox.
+   *
+   * @param event the event
+   * @return false if the mailbox is full
+   */
+  boolean offer(Event<T> event);
+
+  /**
+   * Removes the event at the front of the mailbox, invoked while holding the state machine lock.
+   *
+   * @return the event, or null if the mailbox is empty
+   */
+  Event<T> poll();
+
+  /**
+   * Returns true if no events are waiting, invoked while holding the state machine lock, and by
+   * senders checking whether the machine is idle, so a waiting event must be visible to any thread.
+   *
+   * @return true if the mailbox is empty
+   */
+  boolean isEmpty();
+}
@@ -0,0 +1,27 @@
+package metatype.deepstate.core;
+
+/**
+ * Decides which levels of a hierarchy of nested state machines receive an event.  A level handles
+ * an event when its active state has an internal action for the event, including a default
+ * action, or when it selects a transition.  Within a level the action is always invoked before
+ * the transition is selected.
+ */
+public enum Propagation {
+  /**
+   * Every active level receives every event: the actions run from the outermost level inward,
+   * then the transitions are selected from the innermost level outward.
+   */
+  BROADCAST,
+
+  /**
+   * The event is offered to the outermost level first and moves inward only while no level has
+   * handled it.
+   */
+  OUTER_FIRST,
+
+  /**
+   * The event is offered to the innermost level first and moves outward only while no level has
+   * handled it.
+   */
+  INNER_FIRST
+}
@@ -0,0 +1,33 @@
+package metatype.deepstate.core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import metatype.deepstate.FiniteStateMachine.Event;
+
+/**
+ * An unbounded mailbox backed by a lock-free linked queue.  Each event allocates a queue node.
+ *
+ * @param <T> the type of the event trigger
+ */
+public class QueueMailbox<T> implements Mailbox<T> {
+  private final ConcurrentLinkedQueue<Event<T>> events;
+
+  public QueueMailbox() {
+    this.events = new ConcurrentLinkedQueue<>();
+  }
+
+  @Override
+  public boolean offer(Event<T> event) {
+    return events.offer(event);
+  }
+
+  @Override
+  public Event<T> poll() {
+    return events.poll();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return events.isEmpty();
+  }
+}
@@ -0,0 +1,111 @@
+package metatype.deepstate.core;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import metatype.deepstate.FiniteStateMachine.Event;
+
+/**
+ * A bounded mailbox backed by a preallocated ring of slots, so offering and polling events never
+ * allocates.  Producers claim a slot by incrementing a shared sequence number, store the event in
+ * the slot and then publish it by advancing the slot sequence.  The consumer takes events in
+ * sequence order and hands each slot back to producers for the next lap of the ring.
+ *
+ * @param <T> the type of the event trigger
+ */
+public class RingMailbox<T> implements Mailbox<T> {
+  private final Event<T>[] slots;
+  private final int mask;
+
+  /**
+   * The sequence each slot is waiting for: equal to the claim sequence while the slot is free, and
+   * one ahead of it once the event is published.
+   */
+  private final AtomicLongArray sequences;
+
+  /** the next sequence claimed by a producer */
+  private final AtomicLong tail;
+
+  /**
+   * The next sequence taken by the consumer, only written while holding the state machine lock.
+   * Volatile so that senders testing for an empty mailbox see the latest sequence taken.
+   */
+  private volatile long head;
+
+  /**
+   * Creates the mailbox.
+   *
+   * @param capacity the number of slots, rounded up to a power of two
+   */
+  @SuppressWarnings("unchecked")
+  public RingMailbox(int capacity) {
+    if (capacity <= 0 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+    }
+    int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    this.slots = (Event<T>[]) new Event<?>[size];
+    this.mask = size - 1;
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    this.tail = new AtomicLong();
+  }
+
+  /**
+   * Returns the number of slots.
+   *
+   * @return the capacity
+   */
+  public int getCapacity() {
+    return slots.length;
+  }
+
+  @Override
+  public boolean offer(Event<T> event) {
+    Objects.requireNonNull(event, "event must not be null");
+    long claim = tail.get();
+    while (true) {
+      int slot = (int) claim & mask;
+      long lag = sequences.get(slot) - claim;
+      if (lag == 0) {
+        if (tail.compareAndSet(claim, claim + 1)) {
+          slots[slot] = event;
+          // a volatile write, so a sender that then finds the machine busy is guaranteed to be seen
+          sequences.set(slot, claim + 1);
+          return true;
+        }
+        claim = tail.get();
+
+      } else if (lag < 0) {
+        // the slot still holds an event from the previous lap
+        return false;
+
+      } else {
+        claim = tail.get();
+      }
+    }
+  }
+
+  @Override
+  public Event<T> poll() {
+    long next = head;
+    int slot = (int) next & mask;
+    if (sequences.get(slot) != next + 1) {
+      return null;
+    }
+
+    Event<T> event = slots[slot];
+    slots[slot] = null;
+    sequences.lazySet(slot, next + slots.length);
+    head = next + 1;
+    return event;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    long next = head;
+    return sequences.get((int) next & mask) != next + 1;
+  }
+}
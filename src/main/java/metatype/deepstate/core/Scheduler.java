@@ -0,0 +1,47 @@
+package metatype.deepstate.core;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks now or after a delay, and tells the time.  State machines and their actions use a
+ * scheduler instead of timers and the system clock, so the passage of time can be simulated by a
+ * {@link VirtualScheduler}.
+ */
+public interface Scheduler extends Executor {
+  /**
+   * Returns the current time.
+   * @return the time in milliseconds since the epoch
+   */
+  long currentTimeMillis();
+
+  /**
+   * Runs a task once the delay has passed.
+   *
+   * @param task the task
+   * @param delay the delay
+   * @return the scheduled task
+   */
+  ScheduledTask schedule(Runnable task, Duration delay);
+
+  /**
+   * Runs a task as soon as possible.
+   *
+   * @param task the task
+   */
+  @Override
+  default void execute(Runnable task) {
+    schedule(task, Duration.ZERO);
+  }
+
+  /**
+   * A task waiting to run.
+   */
+  interface ScheduledTask {
+    /**
+     * Prevents the task from running, if it has not already started.
+     * @return false if the task has already run or been cancelled
+     */
+    boolean cancel();
+  }
+}
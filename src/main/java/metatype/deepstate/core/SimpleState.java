@@ -33,6 +33,13 @@ public class SimpleState<T, U> implements State<U>, Consumer<Event<T>> {
   
   private final Consumer<Exception> uncaughtExceptionHandler;
   
+  /** records whether the state is active, or null */
+  private ActiveStates<U> activeStates;
+  private int activeId;
+  
+  /** the triggers this state and the states nested in or containing it react to, or null if any */
+  private TriggerSet interest;
+  
   public SimpleState(U name, Action<U> entry, Action<U> exit, Map<T, StateAction<T, U>> actions, StateAction<T, U> defaultAction, Consumer<Exception> uncaughtExceptionHandler) {
     this.name = name;
     this.entryAction = entry;
@@ -54,10 +61,62 @@ public class SimpleState<T, U> implements State<U>, Consumer<Event<T>> {
 
   @Override
   public void accept(Event<T> event) {
-    findActionForTrigger(event.getTrigger()).ifPresent((action) -> invokeAction(event, action));
+    react(event);
+  }
+  
+  /**
+   * Invokes the internal action of this state for the event, if it has one.
+   * 
+   * @param event the event
+   * @return true if an action was invoked
+   */
+  public boolean react(Event<T> event) {
+    StateAction<T, U> action = actions.get(event.getTrigger());
+    if (action == null) {
+      action = defaultAction;
+    }
+    if (action == null) {
+      return false;
+    }
+    invokeAction(event, action);
+    return true;
+  }
+
+  /**
+   * Records this state in the supplied set while it is active.  Must be invoked before the state
+   * is first entered.
+   * 
+   * @param states the active states
+   */
+  public void trackIn(ActiveStates<U> states) {
+    activeStates = states;
+    activeId = states.register(name);
+  }
+
+  /**
+   * Records the triggers of the events that cause a reaction while this state is active, by this
+   * state, by the states containing it or by any state nested in it.  Must be invoked before the
+   * state is first entered.
+   * 
+   * @param triggers the trigger ids, or null if any event may cause a reaction
+   */
+  public void listenFor(TriggerSet triggers) {
+    interest = triggers;
+  }
+  
+  /**
+   * Returns the triggers recorded by {@link #listenFor(TriggerSet)}.
+   * 
+   * @return the trigger ids, or null if any event may cause a reaction
+   */
+  public TriggerSet getInterest() {
+    return interest;
   }
 
   public void enter() {
+    if (activeStates != null) {
+      activeStates.set(activeId);
+    }
     try {
       LOG.debug("Entering state {}", this);
       getEntryAction().ifPresent((action) -> action.accept(this));
@@ -73,6 +132,9 @@ public class SimpleState<T, U> implements State<U>, Consumer<Event<T>> {
     } catch (Exception e) {
       uncaughtExceptionHandler.accept(e);
     }
+    if (activeStates != null) {
+      activeStates.clear(activeId);
+    }
   }
 
   protected Optional<Action<U>> getEntryAction() {
@@ -100,12 +162,4 @@ public class SimpleState<T, U> implements State<U>, Consumer<Event<T>> {
        uncaughtExceptionHandler.accept(e);
     }
   }
-  
-  private Optional<StateAction<T, U>> findActionForTrigger(T trigger) {
-    StateAction<T, U> action = actions.get(trigger);
-    if (action == null) {
-      action = defaultAction;
-    }
-    return Optional.ofNullable(action);
-  }
 }
@@ -0,0 +1,158 @@
+package metatype.deepstate.core;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import metatype.deepstate.FiniteStateMachine.Event;
+import metatype.deepstate.FiniteStateMachine.State;
+import metatype.deepstate.FiniteStateMachine.StateChange;
+
+/**
+ * Publishes the state changes of a state machine and its nested state machines.  Each subscriber
+ * has a bounded buffer and receives changes on the executor as it requests them.  Changes are
+ * offered without blocking, so a slow subscriber never delays the thread processing events;
+ * instead the changes that do not fit in its buffer are dropped and counted.
+ *
+ * @param <T> the type of the event trigger
+ * @param <U> the type of the state name
+ */
+public class StateChangePublisher<T, U> implements Flow.Publisher<StateChange<T, U>>, AutoCloseable {
+  private static final Logger LOG = LoggerFactory.getLogger(StateChangePublisher.class);
+
+  private final SubmissionPublisher<StateChange<T, U>> publisher;
+
+  /** the number of changes dropped because a subscriber buffer was full */
+  private final LongAdder dropped;
+
+  /** supplies the timestamps of the changes */
+  private final LongSupplier clock;
+
+  /**
+   * Creates a publisher delivering changes on the common fork-join pool with the default buffer
+   * size.
+   */
+  public StateChangePublisher() {
+    this(ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+  }
+
+  /**
+   * Creates the publisher.
+   *
+   * @param executor delivers the changes to subscribers
+   * @param bufferCapacity the maximum number of undelivered changes per subscriber
+   */
+  public StateChangePublisher(Executor executor, int bufferCapacity) {
+    this(executor, bufferCapacity, System::currentTimeMillis);
+  }
+
+  /**
+   * Creates a publisher delivering changes on the scheduler and timestamping them with its clock.
+   *
+   * @param scheduler delivers the changes and tells the time
+   * @param bufferCapacity the maximum number of undelivered changes per subscriber
+   */
+  public StateChangePublisher(Scheduler scheduler, int bufferCapacity) {
+    this(scheduler, bufferCapacity, scheduler::currentTimeMillis);
+  }
+
+  private StateChangePublisher(Executor executor, int bufferCapacity, LongSupplier clock) {
+    Objects.requireNonNull(executor, "executor must not be null");
+    if (bufferCapacity <= 0) {
+      throw new IllegalArgumentException("Buffer capacity must be positive");
+    }
+    this.publisher = new SubmissionPublisher<>(executor, bufferCapacity);
+    this.dropped = new LongAdder();
+    this.clock = clock;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super StateChange<T, U>> subscriber) {
+    publisher.subscribe(subscriber);
+  }
+
+  /**
+   * Returns the number of changes that were not delivered because a subscriber had not requested
+   * enough of them.
+   *
+   * @return the number of dropped changes
+   */
+  public long getDropped() {
+    return dropped.sum();
+  }
+
+  /**
+   * Completes every subscription once the buffered changes have been delivered.
+   */
+  @Override
+  public void close() {
+    publisher.close();
+  }
+
+  /**
+   * Offers a change to the current subscribers, without allocating anything when there are none.
+   * Invoked by the state machine making the change, including generated state machines.
+   *
+   * @param exited the exited state, or null
+   * @param entered the entered state, or null
+   * @param event the event causing the change, or null
+   */
+  public void publish(State<U> exited, State<U> entered, Event<T> event) {
+    if (!publisher.hasSubscribers()) {
+      return;
+    }
+
+    Change<T, U> change = new Change<>(exited, entered, event == null ? null : event.getTrigger(), clock.getAsLong());
+    publisher.offer(change, (subscriber, unused) -> {
+      LOG.debug("Dropping state change {} for a slow subscriber", change);
+      dropped.increment();
+      return false;
+    });
+  }
+
+  private static class Change<T, U> implements StateChange<T, U> {
+    private final State<U> exited;
+    private final State<U> entered;
+    private final T trigger;
+    private final long timestamp;
+
+    public Change(State<U> exited, State<U> entered, T trigger, long timestamp) {
+      this.exited = exited;
+      this.entered = entered;
+      this.trigger = trigger;
+      this.timestamp = timestamp;
+    }
+
+    @Override
+    public State<U> getExited() {
+      return exited;
+    }
+
+    @Override
+    public State<U> getEntered() {
+      return entered;
+    }
+
+    @Override
+    public T getTrigger() {
+      return trigger;
+    }
+
+    @Override
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    @Override
+    public String toString() {
+      return exited + " -> " + entered + " on " + trigger;
+    }
+  }
+}
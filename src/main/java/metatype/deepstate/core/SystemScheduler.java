@@ -0,0 +1,48 @@
+package metatype.deepstate.core;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks in real time on a single daemon thread, using the system clock.
+ */
+public class SystemScheduler implements Scheduler, AutoCloseable {
+  private final ScheduledThreadPoolExecutor executor;
+
+  public SystemScheduler() {
+    this.executor = new ScheduledThreadPoolExecutor(1, task -> {
+      Thread thread = new Thread(task, "deep-state-scheduler");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.setRemoveOnCancelPolicy(true);
+  }
+
+  @Override
+  public long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  @Override
+  public ScheduledTask schedule(Runnable task, Duration delay) {
+    Objects.requireNonNull(task, "task must not be null");
+    ScheduledFuture<?> future = executor.schedule(task, delay.toNanos(), TimeUnit.NANOSECONDS);
+    return () -> future.cancel(false);
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    executor.execute(task);
+  }
+
+  /**
+   * Stops the scheduler thread, discarding any delayed tasks.
+   */
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+}
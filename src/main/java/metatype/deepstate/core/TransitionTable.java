@@ -0,0 +1,138 @@
+package metatype.deepstate.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import metatype.deepstate.FiniteStateMachine.State;
+
+/**
+ * Indexes transitions by source state and trigger id.  Transitions defined for specific triggers
+ * are represented as {@link TriggerSet}s and only appear in the rows of their triggers.  Transitions
+ * defined with a trigger predicate are indexed separately and appended, in declaration order, to
+ * every row of their source state, including the row used for triggers that are not part of the
+ * model.  Looking up the candidates for an event is therefore a hash lookup of the state and an
+ * array access, no matter how many predicate triggers are defined.
+ * <p>
+ * In large models where each state refers to a small fraction of the triggers, a row holding every
+ * trigger would make the table grow with the square of the model, so those rows only hold the
+ * referenced triggers and are searched instead.
+ *
+ * @param <T> the type of the event trigger
+ * @param <U> the type of the state name
+ * @param <C> the type of the compiled candidates
+ */
+public class TransitionTable<T, U, C> {
+  /** the most triggers for which every row holds every trigger */
+  private static final int DENSE_TRIGGERS = 64;
+
+  /**
+   * The candidates for the triggers a state refers to, sorted by trigger id.
+   */
+  private static class SparseRow {
+    private final int[] ids;
+    private final Object[] candidates;
+    private final Object unknown;
+
+    public SparseRow(int[] ids, Object[] candidates, Object unknown) {
+      this.ids = ids;
+      this.candidates = candidates;
+      this.unknown = unknown;
+    }
+  }
+
+  /**
+   * The candidates for each trigger id, offset by one so unknown triggers use row zero, or a
+   * {@link SparseRow}.
+   */
+  private final Map<State<U>, Object> rows;
+  private final TriggerIndex<T> triggers;
+
+  /**
+   * Builds the table.
+   *
+   * @param transitions the transitions in declaration order
+   * @param triggers the model trigger index, new triggers are interned
+   * @param compiler converts the transitions matching a state and trigger into their compiled form,
+   *        invoked once for each distinct list of candidates
+   */
+  public TransitionTable(Set<TriggeredTransition<T, U>> transitions, TriggerIndex<T> triggers, Function<List<TriggeredTransition<T, U>>, C> compiler) {
+    this.triggers = triggers;
+
+    Map<State<U>, List<TriggeredTransition<T, U>>> bySource = new LinkedHashMap<>();
+    Map<TriggeredTransition<T, U>, TriggerSet> triggerSets = new IdentityHashMap<>();
+    transitions.forEach(t -> {
+      bySource.computeIfAbsent(t.getSource(), source -> new ArrayList<>()).add(t);
+      t.getTriggers().ifPresent(set -> triggerSets.put(t, triggers.intern(set)));
+    });
+
+    Map<List<TriggeredTransition<T, U>>, C> compiled = new HashMap<>();
+    rows = new HashMap<>();
+    bySource.forEach((source, candidates) -> {
+      TriggerSet referenced = TriggerSet.empty();
+      for (TriggeredTransition<T, U> candidate : candidates) {
+        referenced = referenced.union(triggerSets.getOrDefault(candidate, TriggerSet.empty()));
+      }
+
+      // triggers that no specific transition refers to only match the predicate transitions
+      C unknown = compile(candidates, triggerSets, TriggerIndex.UNKNOWN, compiled, compiler);
+      if (triggers.size() > DENSE_TRIGGERS && referenced.size() * 4 < triggers.size()) {
+        int[] ids = referenced.ids().toArray();
+        Object[] row = new Object[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+          row[i] = compile(candidates, triggerSets, ids[i], compiled, compiler);
+        }
+        rows.put(source, new SparseRow(ids, row, unknown));
+        return;
+      }
+      
+      Object[] row = new Object[triggers.size() + 1];
+      Arrays.fill(row, unknown);
+      referenced.ids().forEach(id -> row[id + 1] = compile(candidates, triggerSets, id, compiled, compiler));
+      rows.put(source, row);
+    });
+  }
+
+  /**
+   * Returns the compiled candidates that may match the trigger when leaving the source state.
+   *
+   * @param source the source state
+   * @param trigger the event trigger
+   * @return the candidates, or null if no transition can match
+   */
+  @SuppressWarnings("unchecked")
+  public C get(State<U> source, T trigger) {
+    Object row = rows.get(source);
+    if (row == null) {
+      return null;
+    }
+
+    int id = triggers.idOf(trigger);
+    if (row instanceof SparseRow) {
+      SparseRow sparse = (SparseRow) row;
+      int index = id == TriggerIndex.UNKNOWN ? -1 : Arrays.binarySearch(sparse.ids, id);
+      return (C) (index < 0 ? sparse.unknown : sparse.candidates[index]);
+    }
+    Object[] dense = (Object[]) row;
+    return (C) dense[id >= dense.length - 1 ? 0 : id + 1];
+  }
+
+  private C compile(List<TriggeredTransition<T, U>> candidates, Map<TriggeredTransition<T, U>, TriggerSet> triggerSets, int id,
+      Map<List<TriggeredTransition<T, U>>, C> compiled, Function<List<TriggeredTransition<T, U>>, C> compiler) {
+    List<TriggeredTransition<T, U>> matching = new ArrayList<>();
+    for (TriggeredTransition<T, U> candidate : candidates) {
+      TriggerSet set = triggerSets.get(candidate);
+      if (set == null || set.contains(id)) {
+        matching.add(candidate);
+      }
+    }
+    return matching.isEmpty() ? null : compiled.computeIfAbsent(Collections.unmodifiableList(matching), compiler);
+  }
+}
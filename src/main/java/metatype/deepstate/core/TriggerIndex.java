@@ -0,0 +1,81 @@
+package metatype.deepstate.core;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns dense integer ids to the triggers of a state machine model so that sets of triggers can
+ * be represented as bitsets and lookups can be made with array indexing.  Triggers are interned
+ * while the model is built, after which the index is only read.
+ *
+ * @param <T> the type of the event trigger
+ */
+public class TriggerIndex<T> {
+  /** returned for triggers that are not part of the model */
+  public static final int UNKNOWN = -1;
+  
+  private final Map<T, Integer> ids;
+  private final List<T> triggers;
+  
+  public TriggerIndex() {
+    this.ids = new HashMap<>();
+    this.triggers = new ArrayList<>();
+  }
+  
+  /**
+   * Returns the id of the trigger, assigning a new id if needed.
+   * @param trigger the trigger
+   * @return the id
+   */
+  public int intern(T trigger) {
+    Integer id = ids.get(trigger);
+    if (id == null) {
+      id = triggers.size();
+      ids.put(trigger, id);
+      triggers.add(trigger);
+    }
+    return id;
+  }
+  
+  /**
+   * Returns the ids of the triggers as a set, assigning new ids as needed.
+   * @param triggers the triggers
+   * @return the set
+   */
+  public TriggerSet intern(Collection<? extends T> triggers) {
+    BitSet bits = new BitSet();
+    triggers.forEach(trigger -> bits.set(intern(trigger)));
+    return TriggerSet.of(bits);
+  }
+  
+  /**
+   * Returns the id of the trigger.
+   * @param trigger the trigger
+   * @return the id, or {@link #UNKNOWN} if the trigger has not been interned
+   */
+  public int idOf(Object trigger) {
+    Integer id = ids.get(trigger);
+    return id == null ? UNKNOWN : id;
+  }
+  
+  /**
+   * Returns the trigger with the given id.
+   * @param id the id
+   * @return the trigger
+   */
+  public T getTrigger(int id) {
+    return triggers.get(id);
+  }
+  
+  /**
+   * Returns the number of interned triggers.
+   * @return the size
+   */
+  public int size() {
+    return triggers.size();
+  }
+}
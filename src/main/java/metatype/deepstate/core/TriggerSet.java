@@ -0,0 +1,86 @@
+package metatype.deepstate.core;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+/**
+ * An immutable set of trigger ids assigned by a {@link TriggerIndex}, stored as a bitset.
+ */
+public final class TriggerSet {
+  private static final TriggerSet EMPTY = new TriggerSet(new long[0]);
+  
+  private final long[] words;
+  
+  private TriggerSet(long[] words) {
+    this.words = words;
+  }
+  
+  public static TriggerSet empty() {
+    return EMPTY;
+  }
+  
+  public static TriggerSet of(BitSet bits) {
+    return bits.isEmpty() ? EMPTY : new TriggerSet(bits.toLongArray());
+  }
+  
+  public static TriggerSet of(int... ids) {
+    BitSet bits = new BitSet();
+    for (int id : ids) {
+      bits.set(id);
+    }
+    return of(bits);
+  }
+  
+  /**
+   * Returns true if the set contains the trigger id.  Negative ids are never contained.
+   * @param id the trigger id
+   * @return true if present
+   */
+  public boolean contains(int id) {
+    int word = id >> 6;
+    return id >= 0 && word < words.length && (words[word] & (1L << id)) != 0;
+  }
+  
+  public TriggerSet union(TriggerSet other) {
+    if (other.words.length > words.length) {
+      return other.union(this);
+    }
+    long[] union = words.clone();
+    for (int i = 0; i < other.words.length; i++) {
+      union[i] |= other.words[i];
+    }
+    return new TriggerSet(union);
+  }
+  
+  public boolean isEmpty() {
+    return words.length == 0;
+  }
+  
+  public int size() {
+    int size = 0;
+    for (long word : words) {
+      size += Long.bitCount(word);
+    }
+    return size;
+  }
+  
+  public IntStream ids() {
+    return BitSet.valueOf(words).stream();
+  }
+  
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof TriggerSet && BitSet.valueOf(words).equals(BitSet.valueOf(((TriggerSet) obj).words));
+  }
+  
+  @Override
+  public int hashCode() {
+    return BitSet.valueOf(words).hashCode();
+  }
+  
+  @Override
+  public String toString() {
+    return Arrays.toString(ids().toArray());
+  }
+}
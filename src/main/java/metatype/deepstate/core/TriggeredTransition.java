@@ -1,6 +1,10 @@
 package metatype.deepstate.core;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Predicate;
 
 import metatype.deepstate.FiniteStateMachine.Guard;
@@ -18,27 +22,41 @@ public class TriggeredTransition<T, U> implements Transition<U> {
   }
   
   private final Predicate<T> trigger;
+  private final Set<T> triggers;
   private final State<U> source;
   private final State<U> destination;
   private final Guard<T> guard;
   private final TransitionAction<T, U> action;
   
   public TriggeredTransition(Predicate<T> trigger, State<U> source, State<U> destination, Guard<T> guard, TransitionAction<T, U> action) {
-    this.trigger = trigger;
-    this.source = source;
-    this.destination = destination;
-    this.guard = guard;
-    this.action = action;
+    this(trigger, null, source, destination, guard, action);
   }
 
   public TriggeredTransition(T trigger, State<U> source, State<U> destination, Guard<T> guard, TransitionAction<T, U> action) {
-    this(isEqualTo(trigger), source, destination, guard, action);
+    this(isEqualTo(trigger), Collections.singleton(trigger), source, destination, guard, action);
+  }
+  
+  public TriggeredTransition(Collection<T> triggers, State<U> source, State<U> destination, Guard<T> guard, TransitionAction<T, U> action) {
+    this(Collections.unmodifiableSet(new LinkedHashSet<>(triggers)), source, destination, guard, action);
   }
   
   public TriggeredTransition(State<U> source, State<U> destination, Guard<T> guard, TransitionAction<T, U> action) {
     this(isTrue(), source, destination, guard, action);
   }
   
+  private TriggeredTransition(Set<T> triggers, State<U> source, State<U> destination, Guard<T> guard, TransitionAction<T, U> action) {
+    this(triggers::contains, triggers, source, destination, guard, action);
+  }
+  
+  private TriggeredTransition(Predicate<T> trigger, Set<T> triggers, State<U> source, State<U> destination, Guard<T> guard, TransitionAction<T, U> action) {
+    this.trigger = trigger;
+    this.triggers = triggers;
+    this.source = source;
+    this.destination = destination;
+    this.guard = guard;
+    this.action = action;
+  }
+  
   @Override
   public State<U> getSource() {
     return source;
@@ -61,8 +79,17 @@ public class TriggeredTransition<T, U> implements Transition<U> {
     return trigger;
   }
 
+  /**
+   * Returns the trigger values if the transition was defined for specific triggers rather than a
+   * predicate.
+   * @return the triggers
+   */
+  public Optional<Set<T>> getTriggers() {
+    return Optional.ofNullable(triggers);
+  }
+
   @Override
   public String toString() {
-    return String.format("%1 -> %2", source, destination);
+    return String.format("%1$s -> %2$s", source, destination);
   }
 }
@@ -0,0 +1,160 @@
+package metatype.deepstate.core;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+/**
+ * Simulates the passage of time.  Tasks run only when the clock is advanced, on the thread
+ * advancing it, in the order of their due times and then the order they were scheduled.  Hours of
+ * timers can therefore be run in milliseconds, and always in the same order.
+ * <p>
+ * Tasks may be scheduled from any thread, including by other tasks.  A task scheduled while the
+ * clock is advancing runs during the same advance if it falls due in time.
+ * <p>
+ * Cancelled tasks are only marked, and are dropped when they reach the head of the queue or once
+ * they make up half of it, so restarting a timer costs the same as scheduling one.
+ */
+public class VirtualScheduler implements Scheduler {
+  private final PriorityQueue<Task> tasks;
+
+  /** the virtual time in milliseconds since the epoch */
+  private long now;
+
+  /** orders tasks that are due at the same time */
+  private long sequence;
+
+  /** the number of cancelled tasks still in the queue */
+  private int cancelled;
+
+  /**
+   * Creates a scheduler with the clock starting at the epoch.
+   */
+  public VirtualScheduler() {
+    this(0);
+  }
+
+  /**
+   * Creates a scheduler.
+   *
+   * @param startMillis the starting time in milliseconds since the epoch
+   */
+  public VirtualScheduler(long startMillis) {
+    this.tasks = new PriorityQueue<>();
+    this.now = startMillis;
+  }
+
+  @Override
+  public synchronized long currentTimeMillis() {
+    return now;
+  }
+
+  @Override
+  public synchronized ScheduledTask schedule(Runnable task, Duration delay) {
+    Objects.requireNonNull(task, "task must not be null");
+    if (delay.isNegative()) {
+      throw new IllegalArgumentException("Delay must not be negative");
+    }
+    Task scheduled = new Task(now + delay.toMillis(), sequence++, task);
+    tasks.add(scheduled);
+    return scheduled;
+  }
+
+  /**
+   * Moves the clock forward, running each task that falls due with the clock set to its due time.
+   *
+   * @param duration the time to pass
+   * @return the number of tasks run
+   */
+  public int advance(Duration duration) {
+    if (duration.isNegative()) {
+      throw new IllegalArgumentException("Time can't go backwards");
+    }
+    return runUntil(currentTimeMillis() + duration.toMillis());
+  }
+
+  /**
+   * Runs the tasks that are already due, without moving the clock.
+   *
+   * @return the number of tasks run
+   */
+  public int runPending() {
+    return runUntil(currentTimeMillis());
+  }
+
+  /**
+   * Returns the number of tasks waiting to run.
+   *
+   * @return the number of tasks
+   */
+  public synchronized int getPendingCount() {
+    return tasks.size() - cancelled;
+  }
+
+  private int runUntil(long target) {
+    int count = 0;
+    while (true) {
+      Task task;
+      synchronized (this) {
+        task = tasks.peek();
+        if (task != null && task.cancelled) {
+          tasks.poll();
+          cancelled--;
+          continue;
+        }
+        if (task == null || task.due > target) {
+          now = target;
+          return count;
+        }
+        tasks.poll();
+        task.done = true;
+        now = task.due;
+      }
+
+      // run without holding the lock so the task can schedule more tasks
+      task.task.run();
+      count++;
+    }
+  }
+
+  private synchronized boolean cancel(Task task) {
+    if (task.done || task.cancelled) {
+      return false;
+    }
+    task.cancelled = true;
+    if (++cancelled > tasks.size() / 2) {
+      tasks.removeIf(t -> t.cancelled);
+      cancelled = 0;
+    }
+    return true;
+  }
+
+  private class Task implements ScheduledTask, Comparable<Task> {
+    private final long due;
+    private final long order;
+    private final Runnable task;
+
+    /** set once the task has been taken to run, guarded by the scheduler */
+    private boolean done;
+
+    /** set when the task is cancelled before it runs, guarded by the scheduler */
+    private boolean cancelled;
+
+    public Task(long due, long order, Runnable task) {
+      this.due = due;
+      this.order = order;
+      this.task = task;
+    }
+
+    @Override
+    public boolean cancel() {
+      return VirtualScheduler.this.cancel(this);
+    }
+
+    @Override
+    public int compareTo(Task other) {
+      int byTime = Long.compare(due, other.due);
+      return byTime != 0 ? byTime : Long.compare(order, other.order);
+    }
+  }
+}
@@ -1,8 +1,10 @@
 package metatype.deepstate.example;
 
+import java.io.PrintStream;
 import java.time.Duration;
-import java.util.Timer;
-import java.util.TimerTask;
+
+import metatype.deepstate.core.Scheduler;
+import metatype.deepstate.core.Scheduler.ScheduledTask;
 
 /**
  * The beginnings of a toaster.  Extract some common bits so it's easier to see the differences
@@ -10,16 +12,19 @@ import java.util.TimerTask;
  */
 public abstract class AbstractToaster implements Toaster {
   /** schedules asynchronous toasting events */
-  protected final Timer timer;
+  protected final Scheduler scheduler;
   
   /** time before the toaster catches on fire */
   protected final Duration autoIgnitionDuration;
   
+  /** where the toaster describes what it is doing */
+  protected final PrintStream display;
+  
   /** triggers when the toast is done */
-  protected TimerTask popup;
+  protected ScheduledTask popup;
   
   /** triggers when the toaster catches fire */
-  protected TimerTask ignite;
+  protected ScheduledTask ignite;
   
   /** controls how long the toaster will cook */
   protected Dial setting;
@@ -30,9 +35,14 @@ public abstract class AbstractToaster implements Toaster {
   /** incremented when an item is toasted */
   protected int dutyCycle;
 
-  public AbstractToaster(Duration autoIgnitionDuration) {
-    this.timer = new Timer();
+  public AbstractToaster(Duration autoIgnitionDuration, Scheduler scheduler) {
+    this(autoIgnitionDuration, scheduler, System.out);
+  }
+
+  public AbstractToaster(Duration autoIgnitionDuration, Scheduler scheduler, PrintStream display) {
+    this.scheduler = scheduler;
     this.autoIgnitionDuration = autoIgnitionDuration;
+    this.display = display;
     this.setting = Dial.FIVE;
   }
 }
@@ -1,8 +1,11 @@
 package metatype.deepstate.example;
 
+import java.io.PrintStream;
 import java.time.Duration;
 import java.util.Random;
-import java.util.TimerTask;
+
+import metatype.deepstate.core.Scheduler;
+import metatype.deepstate.core.SystemScheduler;
 
 /**
  * A toaster implemented using flags and synchronization of mutable state.
@@ -22,7 +25,15 @@ public class ConcurrentToaster extends AbstractToaster {
   }
   
   public ConcurrentToaster(Duration autoIgniteDuration) {
-    super(autoIgniteDuration);
+    this(autoIgniteDuration, new SystemScheduler());
+  }
+  
+  public ConcurrentToaster(Duration autoIgniteDuration, Scheduler scheduler) {
+    this(autoIgniteDuration, scheduler, System.out);
+  }
+  
+  public ConcurrentToaster(Duration autoIgniteDuration, Scheduler scheduler, PrintStream display) {
+    super(autoIgniteDuration, scheduler, display);
   }
   
   @Override
@@ -74,17 +85,13 @@ public class ConcurrentToaster extends AbstractToaster {
   }
   
   private void schedulePopup() {
-    popup = new TimerTask() {
-      @Override
-      public void run() {
-        synchronized (ConcurrentToaster.this) {
-          if (toasting && !jammed) {
-            powerOff();
-          }
+    popup = scheduler.schedule(() -> {
+      synchronized (ConcurrentToaster.this) {
+        if (toasting && !jammed) {
+          powerOff();
         }
       }
-    };
-    timer.schedule(popup, setting.getToastingTime().toMillis());
+    }, setting.getToastingTime());
   }
 
   @Override
@@ -102,15 +109,11 @@ public class ConcurrentToaster extends AbstractToaster {
   }
 
   private void scheduleIgnite() {
-    ignite = new TimerTask() {
-      @Override
-      public void run() {
-        synchronized (ConcurrentToaster.this) {
-          catchFire();
-        }
+    ignite = scheduler.schedule(() -> {
+      synchronized (ConcurrentToaster.this) {
+        catchFire();
       }
-    };
-    timer.schedule(ignite, autoIgnitionDuration.toMillis());
+    }, autoIgnitionDuration);
   }
 
   private void maybeJam() {
@@ -120,23 +123,23 @@ public class ConcurrentToaster extends AbstractToaster {
   }
 
   private void turnOnOneHeatingElement() {
-    System.out.println("Toasting one side");
+    display.println("Toasting one side");
   }
 
   private void turnOnBothHeatingElements() {
-    System.out.println("Toasting both sides");
+    display.println("Toasting both sides");
   }
 
   private void powerOff() {
     ignite.cancel();
     toasting = false;
-    System.out.println("Toast is done!");
+    display.println("Toast is done!");
     dutyCycle++;
   }
   
   private void catchFire() {
     toasting = false;
     burning = true;
-    System.out.println("Your toaster is on fire and the smoke alarm is going off!");
+    display.println("Your toaster is on fire and the smoke alarm is going off!");
   }
 }
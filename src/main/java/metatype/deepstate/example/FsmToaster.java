@@ -1,8 +1,8 @@
 package metatype.deepstate.example;
 
+import java.io.PrintStream;
 import java.time.Duration;
 import java.util.Random;
-import java.util.TimerTask;
 
 import metatype.deepstate.DeepState;
 import metatype.deepstate.DeepState.StateFactory;
@@ -11,6 +11,8 @@ import metatype.deepstate.FiniteStateMachine;
 import metatype.deepstate.FiniteStateMachine.Event;
 import metatype.deepstate.FiniteStateMachine.State;
 import metatype.deepstate.FiniteStateMachine.Transition;
+import metatype.deepstate.core.Scheduler;
+import metatype.deepstate.core.SystemScheduler;
 
 /** 
  * A toaster implemented using a finite state machine.
@@ -30,15 +32,6 @@ public class FsmToaster extends AbstractToaster {
     DIAL_CHANGED, BAGEL_BUTTON_PRESSED, CANCEL_BUTTON_PRESSED, LEVER_DEPRESSED, TIMER_EXPIRED, CATCH_FIRE, LEVER_JAMMED
   }
   
-  /**
-   * A generic toasting event.
-   */
-  private static class ToasterEvent extends DeepStateEvent<Triggers, Object> {
-    public ToasterEvent(Triggers trigger) {
-      super(trigger);
-    }
-  }
-  
   /**
    * An event that changes the toaster dial setting.
    */
@@ -56,8 +49,17 @@ public class FsmToaster extends AbstractToaster {
   }
   
   public FsmToaster(Duration autoIgnitionDuration) {
-    super(autoIgnitionDuration);
+    this(autoIgnitionDuration, new SystemScheduler());
+  }
+  
+  public FsmToaster(Duration autoIgnitionDuration, Scheduler scheduler) {
+    this(autoIgnitionDuration, scheduler, System.out);
+  }
+  
+  public FsmToaster(Duration autoIgnitionDuration, Scheduler scheduler, PrintStream display) {
+    super(autoIgnitionDuration, scheduler, display);
     this.toaster = DeepState.<Triggers, States>model()
+        .scheduleUsing(scheduler)
         .startingWith(States.TOASTER)
         .when(Triggers.DIAL_CHANGED, this::changeSetting)
         .when(Triggers.LEVER_JAMMED, this::toggledJammed)
@@ -96,33 +98,32 @@ public class FsmToaster extends AbstractToaster {
 
   @Override
   public boolean isToasting() {
-    return toaster.getCurrentStates().stream()
-        .anyMatch((state) -> state.getIdentity().equals(States.TOASTING));
+    return toaster.isIn(States.TOASTING);
   }
   
   @Override
   public boolean isBurning() {
-    return toaster.getCurrentStates().getLast().getIdentity().equals(States.ON_FIRE);
+    return toaster.isIn(States.ON_FIRE);
   }
 
   @Override
   public void depressLever() {
-    toaster.accept(new ToasterEvent(Triggers.LEVER_DEPRESSED));
+    toaster.trigger(Triggers.LEVER_DEPRESSED);
   }
   
   @Override
   public void pressBagelButton() {
-    toaster.accept(new ToasterEvent(Triggers.BAGEL_BUTTON_PRESSED));
+    toaster.trigger(Triggers.BAGEL_BUTTON_PRESSED);
   }
 
   @Override
   public void pressCancel() {
-    toaster.accept(new ToasterEvent(Triggers.CANCEL_BUTTON_PRESSED));
+    toaster.trigger(Triggers.CANCEL_BUTTON_PRESSED);
   }
 
   @Override
   public void jamLever() {
-    toaster.accept(new ToasterEvent(Triggers.LEVER_JAMMED));
+    toaster.trigger(Triggers.LEVER_JAMMED);
   }
   
   @Override
@@ -150,21 +151,11 @@ public class FsmToaster extends AbstractToaster {
   }
 
   private void scheduleIgnitionTimer() {
-    ignite = new TimerTask() {
-      public void run() {
-        toaster.accept(new ToasterEvent(Triggers.CATCH_FIRE));
-      }
-    };
-    timer.schedule(ignite, autoIgnitionDuration.toMillis());
+    ignite = scheduler.schedule(() -> toaster.trigger(Triggers.CATCH_FIRE), autoIgnitionDuration);
   }
 
   private void schedulePopupTimer() {
-    popup = new TimerTask() {
-      public void run() {
-        toaster.accept(new ToasterEvent(Triggers.TIMER_EXPIRED));
-      }
-    };
-    timer.schedule(popup, setting.getToastingTime().toMillis());
+    popup = scheduler.schedule(() -> toaster.trigger(Triggers.TIMER_EXPIRED), setting.getToastingTime());
   }
 
   private void restartPopupTimer(State<States> current, Event<Triggers> event) {
@@ -173,16 +164,16 @@ public class FsmToaster extends AbstractToaster {
   }
 
   private void turnOnBothHeatingElements(State<States> current) {
-    System.out.println("Toasting both sides");
+    display.println("Toasting both sides");
   }
 
   private void turnOnOneHeatingElement(State<States> current) {
-    System.out.println("Toasting one side");
+    display.println("Toasting one side");
   }
 
   private void popupAlert(State<States> current) {
     powerOff();
-    System.out.println("Toast is done!");
+    display.println("Toast is done!");
   }
 
   private void powerOff() {
@@ -197,6 +188,6 @@ public class FsmToaster extends AbstractToaster {
   }
 
   private void triggerSmokeAlarm(State<States> current) {
-    System.out.println("Your toaster is on fire and the smoke alarm is going off!");
+    display.println("Your toaster is on fire and the smoke alarm is going off!");
   }
 }
@@ -0,0 +1,93 @@
+package metatype.deepstate.kt.actor
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.launch
+import metatype.deepstate.FiniteStateMachine
+import metatype.deepstate.kt.core.Event
+import metatype.deepstate.kt.core.SuspendedActions
+import org.slf4j.LoggerFactory
+
+/**
+ * Runs a state machine built by [metatype.deepstate.kt.core.builder.StateMachineBuilder.ready] as
+ * an actor: events are sent to a [Channel] mailbox and passed to the machine one at a time by a
+ * single coroutine.  An idle actor is a suspended coroutine, so many actors can share a small
+ * dispatcher.
+ *
+ * The machine processes each event on the actor's thread, and the suspending handlers of the
+ * transitions it took then run in order before the next event is taken from the mailbox, so they
+ * may suspend without blocking a thread.  The actor should be the only sender to the machine.
+ *
+ * Exceptions thrown by transition actions are passed to the machine's exception handler, see
+ * [metatype.deepstate.DeepState.FsmFactory.catchExceptionsUsing].  Exceptions thrown by suspending
+ * handlers, or rethrown by the machine's handler, are passed to [onError], which by default logs
+ * them and continues with the next event.  Pass [FAIL_FAST] to rethrow them instead, failing the
+ * actor and cancelling its scope.
+ */
+class StateMachineActor(private val machine: FiniteStateMachine<String, String>, scope: CoroutineScope,
+                        capacity: Int = Channel.UNLIMITED,
+                        private val onError: (Exception) -> Unit = LOG_ERRORS) {
+    private val mailbox = Channel<Event>(capacity)
+    private val currentStates = MutableStateFlow(activeStates())
+
+    /** the active states, outermost first, updated after each event is processed */
+    val states: StateFlow<List<String>>
+        get() = currentStates
+
+    private val job: Job = scope.launch {
+        for (event in mailbox) {
+            try {
+                SuspendedActions.collect { machine.accept(event) }.forEach { it() }
+            } catch (e: Exception) {
+                onError(e)
+            }
+            currentStates.value = activeStates()
+        }
+    }
+
+    private fun activeStates(): List<String> = machine.currentStates.map { it.identity }
+
+    /**
+     * Sends an event, suspending while the mailbox is full.
+     */
+    suspend fun send(event: Event) = mailbox.send(event)
+
+    /**
+     * Sends an event if the mailbox has room.
+     *
+     * @return false if the mailbox is full or closed
+     */
+    fun offer(event: Event): Boolean = mailbox.offer(event)
+
+    /**
+     * Stops accepting events.  Events already sent are still processed.
+     */
+    fun close() {
+        mailbox.close()
+    }
+
+    /**
+     * Suspends until the actor has been closed and has processed every event.
+     */
+    suspend fun join() = job.join()
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(StateMachineActor::class.java)
+
+        /** logs the exception and continues with the next event */
+        val LOG_ERRORS: (Exception) -> Unit = { LOG.warn("Unexpected error", it) }
+
+        /** rethrows the exception, failing the actor */
+        val FAIL_FAST: (Exception) -> Unit = { throw it }
+    }
+}
+
+/**
+ * Launches an actor running this state machine in the scope.
+ */
+fun FiniteStateMachine<String, String>.launchIn(scope: CoroutineScope, capacity: Int = Channel.UNLIMITED,
+                          onError: (Exception) -> Unit = StateMachineActor.LOG_ERRORS): StateMachineActor =
+        StateMachineActor(this, scope, capacity, onError)
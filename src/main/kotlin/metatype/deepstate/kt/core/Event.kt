@@ -1,3 +1,30 @@
 package metatype.deepstate.kt.core
 
-data class Event(val name: String)
\ No newline at end of file
+import metatype.deepstate.FiniteStateMachine
+
+/**
+ * An event identified by name.  Subclasses may carry a payload; events with the same name match
+ * the same transitions.  The name is the trigger when the event is sent to a Java
+ * [FiniteStateMachine].
+ */
+open class Event(val name: String) : FiniteStateMachine.Event<String> {
+    override fun getTrigger(): String = name
+
+    override fun hashCode() = name.hashCode()
+
+    override fun equals(other: Any?) = other is Event && other.name == name
+
+    override fun toString() = name
+
+    companion object {
+        /**
+         * Returns the event as a Kotlin event, wrapping events created by Java code.
+         */
+        fun of(event: FiniteStateMachine.Event<String>): Event = event as? Event ?: Event(event.trigger)
+    }
+}
+
+/**
+ * An event carrying a typed payload.
+ */
+open class PayloadEvent<out P>(name: String, val payload: P) : Event(name)
@@ -0,0 +1,36 @@
+package metatype.deepstate.kt.core
+
+/**
+ * Collects the suspending actions of the transitions taken while an event is processed.  The Java
+ * engine runs transition actions synchronously on the sending thread, so a suspending action is
+ * deferred by its transition and run by the sender once the event has been processed.
+ */
+internal object SuspendedActions {
+    private val pending = ThreadLocal<MutableList<suspend () -> Unit>?>()
+
+    /**
+     * Defers a suspending action until the event being processed on this thread is done.
+     *
+     * @throws IllegalStateException if the event was not sent by a collecting sender
+     */
+    fun defer(description: String, action: suspend () -> Unit) {
+        val actions = pending.get()
+                ?: throw IllegalStateException("Transition $description suspends, send the event through a StateMachineActor")
+        actions.add(action)
+    }
+
+    /**
+     * Processes an event, returning the suspending actions deferred while doing so.
+     */
+    fun collect(process: () -> Unit): List<suspend () -> Unit> {
+        val outer = pending.get()
+        val actions = mutableListOf<suspend () -> Unit>()
+        pending.set(actions)
+        try {
+            process()
+        } finally {
+            pending.set(outer)
+        }
+        return actions
+    }
+}
@@ -1,41 +1,48 @@
 package metatype.deepstate.kt.core.builder
 
-import metatype.deepstate.kt.core.State
+import metatype.deepstate.DeepState
 import metatype.deepstate.kt.dsl.StateMachineDSL
 
 
-sealed class StateBuilder<T> : Builder<T> {
+@StateMachineDSL
+sealed class StateBuilder {
     lateinit var name: String
     lateinit var onEnter: () -> Unit
     lateinit var onExit: () -> Unit
 
+    /**
+     * Defines this state, and the machine nested in it, on the Java engine.
+     */
+    internal open fun define(factory: DeepState.StateFactory<String, String>, builder: StateMachineBuilder) {
+        validateLateInitVars(builder)
+        val onEnter = this.onEnter
+        val onExit = this.onExit
+        factory.whenEntering { onEnter() }
+                .whenExiting { onExit() }
+    }
+
     protected open fun validateLateInitVars(builder: StateMachineBuilder) {
         if (!this::name.isInitialized) {
             throw IllegalArgumentException("State, within statemachine ${builder.name} does not contain valid name")
         }
         if (!this::onEnter.isInitialized) {
-            onEnter = {}
+            onEnter = NO_ACTION
         }
         if (!this::onExit.isInitialized) {
-            onExit = {}
+            onExit = NO_ACTION
         }
     }
 
     @StateMachineDSL
-    class SimpleStateBuilder : StateBuilder<State.SimpleState>() {
-        override fun build(builder: Builder<*>): State.SimpleState {
-            validateLateInitVars(builder as StateMachineBuilder)
-            return State.SimpleState(name, onEnter, onExit)
-        }
-    }
+    class SimpleStateBuilder : StateBuilder()
 
     @StateMachineDSL
-    class CompoundStateBuilder : StateBuilder<State.CompoundState>() {
+    class CompoundStateBuilder : StateBuilder() {
         lateinit var stateMachineBuilder: StateMachineBuilder
 
-        override fun build(builder: Builder<*>): State.CompoundState {
-            validateLateInitVars(builder as StateMachineBuilder)
-            return State.CompoundState(name, onEnter, onExit, stateMachineBuilder.build(builder))
+        override fun define(factory: DeepState.StateFactory<String, String>, builder: StateMachineBuilder) {
+            super.define(factory, builder)
+            stateMachineBuilder.define(factory.nest())
         }
 
         override fun validateLateInitVars(builder: StateMachineBuilder) {
@@ -45,4 +52,9 @@ sealed class StateBuilder<T> : Builder<T> {
             }
         }
     }
-}
\ No newline at end of file
+
+    companion object {
+        /** the entry or exit action of a state, or the handler of a transition, that has none */
+        val NO_ACTION: () -> Unit = {}
+    }
+}
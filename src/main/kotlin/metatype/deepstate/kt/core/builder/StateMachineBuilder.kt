@@ -1,30 +1,39 @@
 package metatype.deepstate.kt.core.builder
 
-import metatype.deepstate.kt.core.State
-import metatype.deepstate.kt.core.StateMachine
+import metatype.deepstate.DeepState
+import metatype.deepstate.core.DeepStateFsm
+import metatype.deepstate.kt.dsl.StateMachineDSL
 
-class StateMachineBuilder : Builder<StateMachine> {
+@StateMachineDSL
+class StateMachineBuilder {
     lateinit var name: String
-    lateinit var states: Set<StateBuilder<out State>>
+    lateinit var states: Set<StateBuilder>
     lateinit var transitions: Set<TransitionBuilder>
-    lateinit var initialState: StateBuilder<out State>
-
-    private val statesMap: Map<String, State> by lazy {
-        states.map { stateBuilder ->
-            val state = stateBuilder.build(this)
-            state.name to state
-        }.toMap()
+    lateinit var initialState: StateBuilder
+
+    /**
+     * Builds the state machine on the Java engine, with event names as triggers.  Compound states
+     * become nested state machines, and the factory can be configured further, for example to
+     * compile or flatten the machine, before it is created.
+     */
+    fun ready(options: DeepState.FsmFactory<String, String>.() -> Unit = {}): DeepStateFsm<String, String> {
+        val factory = DeepState.model<String, String>()
+        factory.options()
+        define(factory)
+        return factory.ready()
     }
 
-    override fun build(builder: Builder<*>): StateMachine {
+    internal fun define(factory: DeepState.FsmFactory<String, String>) {
         validateLateInitVars(this)
-        val transitionsMap = transitions.map { transitionBuilder ->
-            val transition = transitionBuilder.build(this)
-            transition.trigger to transition
-        }.toMap()
+        if (states.none { it.name == initialState.name }) {
+            throw IllegalArgumentException("No state for name ${initialState.name} exists")
+        }
 
-        val initialState = findStateForName(initialState.name)
-        return StateMachine(name, statesMap, transitionsMap, initialState)
+        states.forEach { state ->
+            val stateFactory = if (state.name == initialState.name) factory.startingWith(state.name) else factory.define(state.name)
+            state.define(stateFactory, this)
+        }
+        transitions.forEach { it.define(factory, this) }
     }
 
     private fun validateLateInitVars(builder: StateMachineBuilder) {
@@ -41,8 +50,4 @@ class StateMachineBuilder : Builder<StateMachine> {
             throw IllegalArgumentException("No initial state defined for statemachine ${builder.name}")
         }
     }
-
-    fun findStateForName(stateName: String): State =
-            statesMap[stateName] ?: throw IllegalArgumentException("No state for name $stateName exists")
-
-}
\ No newline at end of file
+}
@@ -1,26 +1,76 @@
 package metatype.deepstate.kt.core.builder
 
+import metatype.deepstate.DeepState
 import metatype.deepstate.kt.core.Event
-import metatype.deepstate.kt.core.Transition
+import metatype.deepstate.kt.core.SuspendedActions
 import metatype.deepstate.kt.dsl.StateMachineDSL
 
 @StateMachineDSL
-class TransitionBuilder : Builder<Transition> {
+class TransitionBuilder {
     lateinit var fromState: String
     lateinit var toState: String
     lateinit var event: String
     lateinit var handler: () -> Unit
 
-    override fun build(builder: Builder<*>): Transition =
-            if (builder is StateMachineBuilder) {
-                validateLateInitVars(builder)
-                val fromState = builder.findStateForName(fromState)
-                val toState = builder.findStateForName(toState)
-                Transition(fromState, toState, Event(event), handler)
+    /** invoked with the event during the transition, replaces [handler] when set */
+    var action: ((Event) -> Unit)? = null
 
-            } else {
-                throw IllegalStateException("Transition for $this could not be created")
+    /**
+     * Handles events of type [E] during the transition.
+     */
+    inline fun <reified E : Event> handle(crossinline handler: (E) -> Unit) {
+        action = { event -> handler(event as E) }
+    }
+
+    /** selects the transition only when it returns true */
+    var guard: ((Event) -> Boolean)? = null
+
+    /**
+     * Guards the transition with a predicate on events of type [E].  Other events fail the guard.
+     */
+    inline fun <reified E : Event> guardedBy(crossinline guard: (E) -> Boolean) {
+        this.guard = { event -> event is E && guard(event) }
+    }
+
+    /**
+     * Suspended once the transition has been taken, before the next event is processed.  Only
+     * events sent through a [metatype.deepstate.kt.actor.StateMachineActor] may take the transition.
+     */
+    var suspendAction: (suspend (Event) -> Unit)? = null
+
+    /**
+     * Handles events of type [E] with a suspending handler once the transition has been taken.
+     */
+    inline fun <reified E : Event> handleSuspending(crossinline handler: suspend (E) -> Unit) {
+        suspendAction = { event -> handler(event as E) }
+    }
+
+    /**
+     * Defines this transition on the Java engine.
+     */
+    internal fun define(factory: DeepState.FsmFactory<String, String>, builder: StateMachineBuilder) {
+        validateLateInitVars(builder)
+
+        val handler = this.handler
+        val action: ((Event) -> Unit)? = when {
+            this.action != null -> this.action
+            handler === StateBuilder.NO_ACTION -> null
+            else -> { _: Event -> handler() }
+        }
+        val suspendAction = this.suspendAction
+        val description = "$fromState -> $event in statemachine ${builder.name}"
+        val transition = factory.transition(event).from(fromState).to(toState)
+        if (suspendAction == null) {
+            action?.let { action -> transition.invoke { _, e -> action(Event.of(e)) } }
+        } else {
+            transition.invoke { _, e ->
+                val event = Event.of(e)
+                action?.invoke(event)
+                SuspendedActions.defer(description) { suspendAction(event) }
             }
+        }
+        guard?.let { guard -> transition.guardedBy { e -> guard(Event.of(e)) } }
+    }
 
     private fun validateLateInitVars(builder: StateMachineBuilder) {
         if (!this::fromState.isInitialized) {
@@ -33,7 +83,7 @@ class TransitionBuilder : Builder<Transition> {
             throw IllegalArgumentException("No event defined for transition in statemachine ${builder.name}")
         }
         if (!this::handler.isInitialized) {
-            handler = {}
+            handler = StateBuilder.NO_ACTION
         }
     }
-}
\ No newline at end of file
+}
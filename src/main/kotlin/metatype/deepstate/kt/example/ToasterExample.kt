@@ -1,7 +1,6 @@
 package metatype.deepstate.kt.example
 
-import metatype.deepstate.kt.core.State
-import metatype.deepstate.kt.core.StateMachine
+import metatype.deepstate.core.DeepStateFsm
 import metatype.deepstate.kt.core.builder.StateMachineBuilder
 import metatype.deepstate.kt.dsl.*
 
@@ -12,7 +11,7 @@ class ToasterExample {
     }
 
     private class Toaster {
-        private val stateMachine: StateMachine = initializeStateMachine().build()
+        private val stateMachine: DeepStateFsm<String, String> = initializeStateMachine().ready()
         private val toasterComponents = mutableSetOf<ToasterComponent>()
 
         private fun initializeStateMachine(): StateMachineBuilder {
@@ -67,7 +66,7 @@ class ToasterExample {
     }
 
     private interface ToasterComponent {
-        fun getStates(): Set<State>
+        fun getStates(): Set<String>
     }
 
 }
@@ -0,0 +1,77 @@
+package metatype.deepstate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import metatype.deepstate.ModelLoader.LoadedModel;
+
+public class ModelLoaderTest {
+  private static final String ORDER = String.join("\n",
+      "# an order",
+      "initial Created",
+      "transition Created Paid pay,prepay guard=hasFunds action=charge",
+      "state Created",
+      "state Paid entry=record on:refund=refund",
+      "",
+      "transition Paid Shipped ship",
+      "state Shipped exit=record");
+
+  @Test
+  public void testLoad() throws IOException {
+    List<String> log = new ArrayList<>();
+    LoadedModel model = new ModelLoader()
+        .registerGuard("hasFunds", event -> !event.getTrigger().equals("prepay"))
+        .registerAction("record", state -> log.add("entered " + state.getIdentity()))
+        .registerStateAction("refund", (state, event) -> log.add("refund in " + state.getIdentity()))
+        .registerTransitionAction("charge", (transition, event) -> log.add("charge"))
+        .load(new StringReader(ORDER));
+    assertThat(model.getStateCount()).isEqualTo(3);
+    assertThat(model.getTransitionCount()).isEqualTo(2);
+
+    FiniteStateMachine<String, String> fsm = model.ready();
+    fsm.trigger("prepay");
+    assertThat(fsm.isIn("Created")).isTrue();
+    fsm.trigger("pay");
+    fsm.trigger("refund");
+    fsm.trigger("ship");
+    assertThat(fsm.isIn("Shipped")).isTrue();
+    assertThat(log).containsExactly("charge", "entered Paid", "refund in Paid");
+
+    // machines share the model but not their state
+    assertThat(model.ready().isIn("Created")).isTrue();
+  }
+
+  @Test
+  public void testCompiled() throws IOException {
+    FiniteStateMachine<String, String> fsm = new ModelLoader()
+        .compile()
+        .load(new StringReader("initial A\nstate A\nstate B\ntransition A B go"))
+        .ready();
+    fsm.trigger("go");
+    assertThat(fsm.isIn("B")).isTrue();
+  }
+
+  @Test
+  public void testInvalidModels() {
+    assertThatThrownBy(() -> new ModelLoader().load(new StringReader("state A\ntransition A B go\ninitial A")))
+        .isInstanceOf(IllegalStateException.class).hasMessageContaining("Line 2").hasMessageContaining("undefined to state B");
+    assertThatThrownBy(() -> new ModelLoader().load(new StringReader("initial A\nstate A entry=missing")))
+        .isInstanceOf(IllegalStateException.class).hasMessageContaining("Line 2").hasMessageContaining("missing");
+    assertThatThrownBy(() -> new ModelLoader().load(new StringReader("state A")))
+        .isInstanceOf(IllegalStateException.class).hasMessageContaining("initial");
+    assertThatThrownBy(() -> new ModelLoader().load(new StringReader("initial A\nstate A\ntransition A A go")))
+        .isInstanceOf(IllegalStateException.class).hasMessageContaining("self transition");
+    assertThatThrownBy(() -> new ModelLoader().load(new StringReader("initial A\nstate A\nstate B\ntransition A B go,,stop")))
+        .isInstanceOf(IllegalStateException.class).hasMessageContaining("Line 4").hasMessageContaining("empty trigger");
+    assertThatThrownBy(() -> new ModelLoader().load(new StringReader("initial A\nstate A\nstate B\ntransition A B go,")))
+        .isInstanceOf(IllegalStateException.class).hasMessageContaining("Line 4").hasMessageContaining("empty trigger");
+    assertThatThrownBy(() -> new ModelLoader().catchExceptionsUsing(null)).isInstanceOf(NullPointerException.class);
+  }
+}
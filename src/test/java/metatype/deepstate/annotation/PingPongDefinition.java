@@ -0,0 +1,13 @@
+package metatype.deepstate.annotation;
+
+/**
+ * Two states that pass the same trigger back and forth, so every event cascades until the
+ * generated state machine stops it.
+ */
+@DeepStateMachine(states = PingPongDefinition.States.class, triggers = PingPongDefinition.Triggers.class, initial = "PING")
+@Transition(on = "BALL", from = "PING", to = "PONG")
+@Transition(on = "BALL", from = "PONG", to = "PING")
+public interface PingPongDefinition {
+  enum States { PING, PONG }
+  enum Triggers { BALL }
+}
@@ -0,0 +1,61 @@
+package metatype.deepstate.annotation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import metatype.deepstate.FiniteStateMachine.Event;
+import metatype.deepstate.FiniteStateMachine.State;
+
+/**
+ * A coin operated turnstile used to exercise the generated state machine.
+ */
+@DeepStateMachine(states = TurnstileDefinition.States.class, triggers = TurnstileDefinition.Triggers.class, initial = "LOCKED")
+@Transition(on = "COIN", from = "LOCKED", to = "UNLOCKED", action = "collect")
+@Transition(on = "PUSH", from = "UNLOCKED", to = "LOCKED", guard = "isClear")
+@Transition(on = "KICK", from = "LOCKED", to = "BROKEN")
+@Transition(on = "REPAIR", from = "BROKEN", to = "LOCKED")
+public abstract class TurnstileDefinition {
+  enum States { LOCKED, UNLOCKED, BROKEN }
+  enum Triggers { COIN, PUSH, KICK, REPAIR }
+
+  final List<String> log = new ArrayList<>();
+  final boolean clear;
+  int coins;
+
+  TurnstileDefinition(boolean clear) {
+    this.clear = clear;
+  }
+
+  @WhenEntering("UNLOCKED")
+  void unlock(State<States> state) {
+    log.add("enter " + state.getIdentity());
+  }
+
+  @WhenExiting("UNLOCKED")
+  void lock() {
+    log.add("exit UNLOCKED");
+  }
+
+  @When(state = "UNLOCKED", trigger = "COIN")
+  void refund(State<States> state, Event<Triggers> event) {
+    log.add("refund");
+  }
+
+  @WhenNothingElseMatches("LOCKED")
+  void ignore(Event<Triggers> event) {
+    log.add("ignore " + event.getTrigger());
+  }
+
+  @WhenEntering("BROKEN")
+  void alarm() {
+    throw new IllegalStateException("alarm");
+  }
+
+  void collect(Event<Triggers> event) {
+    coins++;
+  }
+
+  boolean isClear() {
+    return clear;
+  }
+}
@@ -0,0 +1,112 @@
+package metatype.deepstate.annotation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import metatype.deepstate.DeepStateEvent;
+import metatype.deepstate.FiniteStateMachine.Event;
+import metatype.deepstate.FiniteStateMachine.StateChange;
+import metatype.deepstate.annotation.TurnstileDefinition.States;
+import metatype.deepstate.annotation.TurnstileDefinition.Triggers;
+import metatype.deepstate.core.CascadeException;
+
+public class TurnstileDefinitionTest {
+  @Test
+  public void testInitialState() {
+    TurnstileDefinitionFsm fsm = new TurnstileDefinitionFsm(true).begin();
+    assertThat(fsm.getCurrentState().getIdentity()).isEqualTo(States.LOCKED);
+    assertThat(fsm.getCurrentStates()).hasSize(1);
+  }
+
+  @Test
+  public void testTransitionActions() {
+    TurnstileDefinitionFsm fsm = new TurnstileDefinitionFsm(true).begin();
+
+    fsm.accept(new DeepStateEvent<>(Triggers.COIN));
+    assertThat(fsm.getCurrentState().getIdentity()).isEqualTo(States.UNLOCKED);
+    assertThat(fsm.coins).isEqualTo(1);
+
+    fsm.accept(new DeepStateEvent<>(Triggers.COIN));
+    fsm.accept(new DeepStateEvent<>(Triggers.PUSH));
+    assertThat(fsm.getCurrentState().getIdentity()).isEqualTo(States.LOCKED);
+    assertThat(fsm.log).containsExactly("ignore COIN", "enter UNLOCKED", "refund", "refund", "exit UNLOCKED", "ignore PUSH");
+  }
+
+  @Test
+  public void testGuard() {
+    TurnstileDefinitionFsm fsm = new TurnstileDefinitionFsm(false).begin();
+
+    fsm.accept(new DeepStateEvent<>(Triggers.COIN));
+    fsm.accept(new DeepStateEvent<>(Triggers.PUSH));
+    assertThat(fsm.getCurrentState().getIdentity()).isEqualTo(States.UNLOCKED);
+  }
+
+  @Test
+  public void testExceptionHandler() {
+    List<Exception> errors = new ArrayList<>();
+    TurnstileDefinitionFsm fsm = new TurnstileDefinitionFsm(true).catchExceptionsUsing(errors::add).begin();
+
+    fsm.accept(new DeepStateEvent<>(Triggers.KICK));
+    assertThat(fsm.getCurrentState().getIdentity()).isEqualTo(States.BROKEN);
+    assertThat(errors).hasSize(1);
+  }
+
+  @Test
+  public void testCascadeLimit() {
+    List<Exception> errors = new ArrayList<>();
+    PingPongDefinitionFsm fsm = new PingPongDefinitionFsm().limitCascades(5).catchExceptionsUsing(errors::add).begin();
+
+    fsm.accept(new DeepStateEvent<>(PingPongDefinition.Triggers.BALL));
+    assertThat(errors).hasSize(1).allMatch(CascadeException.class::isInstance);
+    assertThat(fsm.getCurrentState().getIdentity()).isEqualTo(PingPongDefinition.States.PONG);
+  }
+
+  @Test
+  public void testStateChanges() throws InterruptedException {
+    List<String> changes = new ArrayList<>();
+    CountDownLatch received = new CountDownLatch(2);
+    TurnstileDefinitionFsm fsm = new TurnstileDefinitionFsm(true);
+    fsm.getStateChanges().subscribe(new Flow.Subscriber<StateChange<Triggers, States>>() {
+      @Override
+      public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+      }
+
+      @Override
+      public void onNext(StateChange<Triggers, States> change) {
+        changes.add(change.getExited() + " -> " + change.getEntered() + " on " + change.getTrigger());
+        received.countDown();
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+      }
+
+      @Override
+      public void onComplete() {
+      }
+    });
+
+    fsm.begin().accept(new DeepStateEvent<>(Triggers.COIN));
+    assertThat(received.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(changes).containsExactly("null -> LOCKED on null", "LOCKED -> UNLOCKED on COIN");
+  }
+
+  @Test
+  public void testAudit() {
+    List<Event<Triggers>> events = new ArrayList<>();
+    TurnstileDefinitionFsm fsm = new TurnstileDefinitionFsm(true).audit(events::add).begin();
+
+    fsm.accept(new DeepStateEvent<>(Triggers.KICK));
+    fsm.accept(new DeepStateEvent<>(Triggers.REPAIR));
+    assertThat(events).hasSize(2);
+    assertThat(fsm.getCurrentState().getIdentity()).isEqualTo(States.LOCKED);
+  }
+}
@@ -0,0 +1,201 @@
+package metatype.deepstate.cluster;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import metatype.deepstate.DeepState;
+import metatype.deepstate.DeepStateEvent;
+import metatype.deepstate.core.VirtualScheduler;
+
+public class ClusterNodeTest {
+  private final LoopbackTransport<String, String, String> transport = new LoopbackTransport<>();
+  private final List<ClusterNode<String, String, String>> nodes = new ArrayList<>();
+
+  private ClusterNode<String, String, String> node(String name) {
+    ClusterNode<String, String, String> node = new ClusterNode<>(name, transport, 32, (key, state) -> {
+      DeepState.FsmFactory<String, String> model = DeepState.<String, String>model()
+          .startingWith("Off")
+          .and().define("On")
+          .nest().startingWith("Dim")
+          .and().define("Bright")
+          .and().transition("up").from("Dim").to("Bright")
+          .and().parent()
+          .and().transition("on").from("Off").to("On")
+          .and().transition("off").from("On").to("Off")
+          .and();
+      return state == null ? model.ready() : model.resume(state);
+    });
+    nodes.add(node);
+    return node;
+  }
+
+  private void setMembers() {
+    List<String> members = nodes.stream().map(ClusterNode::getName).collect(Collectors.toList());
+    nodes.forEach(node -> node.setMembers(members));
+  }
+
+  private ClusterNode<String, String, String> ownerOf(String key) {
+    List<ClusterNode<String, String, String>> owners = nodes.stream().filter(node -> node.getMachine(key) != null).collect(Collectors.toList());
+    assertThat(owners).hasSize(1);
+    return owners.get(0);
+  }
+
+  @Test
+  public void testForwardToOwner() {
+    ClusterNode<String, String, String> a = node("a");
+    node("b");
+    node("c");
+    setMembers();
+
+    for (int i = 0; i < 100; i++) {
+      a.send("key" + i, new DeepStateEvent<>("on"));
+    }
+    a.flush();
+
+    for (int i = 0; i < 100; i++) {
+      ClusterNode<String, String, String> owner = ownerOf("key" + i);
+      assertThat(owner.owns("key" + i)).isTrue();
+      assertThat(owner.getMachine("key" + i).isIn("On")).isTrue();
+    }
+    assertThat(nodes).allSatisfy(node -> assertThat(node.getMachineCount()).isGreaterThan(0));
+  }
+
+  @Test
+  public void testMigrateWithState() {
+    ClusterNode<String, String, String> a = node("a");
+    node("b");
+    setMembers();
+    for (int i = 0; i < 100; i++) {
+      a.send("key" + i, new DeepStateEvent<>(i % 2 == 0 ? "on" : "off"));
+      if (i % 4 == 0) {
+        a.send("key" + i, new DeepStateEvent<>("up"));
+      }
+    }
+    a.flush();
+    Map<String, String> before = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      before.put("key" + i, ownerOf("key" + i).getName());
+    }
+
+    ClusterNode<String, String, String> c = node("c");
+    setMembers();
+
+    // only the partitions taken by the new node move, and their machines keep their nested states
+    assertThat(c.getMachineCount()).isGreaterThan(0);
+    for (int i = 0; i < 100; i++) {
+      ClusterNode<String, String, String> owner = ownerOf("key" + i);
+      assertThat(owner.getName()).isIn(before.get("key" + i), "c");
+      assertThat(owner.getMachine("key" + i).isIn(i % 2 == 0 ? "On" : "Off")).isTrue();
+      if (i % 2 == 0) {
+        assertThat(owner.getMachine("key" + i).isIn(i % 4 == 0 ? "Bright" : "Dim")).isTrue();
+      }
+    }
+  }
+
+  @Test
+  public void testHoldEventsWhileMoving() {
+    ClusterNode<String, String, String> a = node("a");
+    ClusterNode<String, String, String> b = node("b");
+    setMembers();
+    for (int i = 0; i < 100; i++) {
+      a.send("key" + i, new DeepStateEvent<>("on"));
+    }
+    a.flush();
+
+    // the new node learns of the membership before the old owners send their partitions
+    ClusterNode<String, String, String> c = node("c");
+    List<String> members = Arrays.asList("a", "b", "c");
+    c.setMembers(members);
+    List<String> taken = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      if (c.owns("key" + i)) {
+        taken.add("key" + i);
+        c.send("key" + i, new DeepStateEvent<>("up"));
+      }
+    }
+    assertThat(taken).isNotEmpty();
+    assertThat(c.getMachineCount()).isZero();
+
+    a.setMembers(members);
+    b.setMembers(members);
+    assertThat(c.getMachineCount()).isEqualTo(taken.size());
+    assertThat(taken).allSatisfy(key -> assertThat(c.getMachine(key).isIn("Bright")).isTrue());
+
+    // events for the partitions that have arrived are applied at once
+    c.send(taken.get(0), new DeepStateEvent<>("off"));
+    assertThat(c.getMachine(taken.get(0)).isIn("Off")).isTrue();
+  }
+
+  @Test
+  public void testEntryActionSendsToOtherKeys() {
+    List<ClusterNode<String, String, String>> self = new ArrayList<>();
+    ClusterNode<String, String, String> a = new ClusterNode<>("a", transport, 32, (key, state) -> DeepState.<String, String>model()
+        .startingWith("Off")
+        .whenEntering(entered -> {
+          // creating the first machine creates the others from inside its entry action
+          if (key.equals("root")) {
+            for (int i = 0; i < 100; i++) {
+              self.get(0).send("child" + i, new DeepStateEvent<>("on"));
+            }
+          }
+        })
+        .and().define("On")
+        .and().transition("on").from("Off").to("On")
+        .and().ready());
+    self.add(a);
+
+    a.send("root", new DeepStateEvent<>("on"));
+    assertThat(a.getMachineCount()).isEqualTo(101);
+    assertThat(a.getMachine("root").isIn("On")).isTrue();
+    assertThat(a.getMachine("child0").isIn("On")).isTrue();
+  }
+
+  @Test
+  public void testBatchedForwarding() {
+    VirtualScheduler scheduler = new VirtualScheduler();
+    ClusterNode<String, String, String> a = node("a").batchEvents(10).flushEvery(scheduler, Duration.ofMillis(5));
+    ClusterNode<String, String, String> b = node("b");
+    setMembers();
+
+    List<String> remote = new ArrayList<>();
+    for (int i = 0; remote.size() < 15; i++) {
+      if (b.owns("key" + i)) {
+        remote.add("key" + i);
+      }
+    }
+
+    // the first full batch is forwarded at once, the rest waits for the next flush
+    remote.forEach(key -> a.send(key, new DeepStateEvent<>("on")));
+    assertThat(b.getMachineCount()).isEqualTo(10);
+    scheduler.advance(Duration.ofMillis(5));
+    assertThat(b.getMachineCount()).isEqualTo(15);
+    assertThat(remote).allSatisfy(key -> assertThat(b.getMachine(key).isIn("On")).isTrue());
+
+    a.close();
+    b.close();
+  }
+
+  @Test
+  public void testConsistentHash() {
+    ConsistentHash three = new ConsistentHash(Arrays.asList("a", "b", "c"));
+    ConsistentHash four = new ConsistentHash(Arrays.asList("a", "b", "c", "d"));
+
+    int moved = 0;
+    for (int partition = 0; partition < 1024; partition++) {
+      if (!three.owner(partition).equals(four.owner(partition))) {
+        assertThat(four.owner(partition)).isEqualTo("d");
+        moved++;
+      }
+    }
+    assertThat(moved).isBetween(128, 384);
+  }
+}
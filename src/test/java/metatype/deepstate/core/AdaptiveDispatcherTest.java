@@ -0,0 +1,91 @@
+package metatype.deepstate.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import metatype.deepstate.DeepStateEvent;
+
+public class AdaptiveDispatcherTest {
+  private final SimpleState<String, String> source = state("source");
+  private final SimpleState<String, String> low = state("low");
+  private final SimpleState<String, String> high = state("high");
+  private final SimpleState<String, String> other = state("other");
+
+  private final TriggeredTransition<String, String> toLow = new TriggeredTransition<>("go", source, low, (event) -> value(event) < 10, null);
+  private final TriggeredTransition<String, String> toHigh = new TriggeredTransition<>("go", source, high, (event) -> value(event) >= 10, null);
+  private final TriggeredTransition<String, String> toOther = new TriggeredTransition<>("go", source, other, null, null);
+
+  @Test
+  public void testReordersExclusiveTransitions() {
+    AdaptiveDispatcher<String, String> dispatcher = new AdaptiveDispatcher<>(ordered(toLow, toHigh, toOther), unordered(toLow, toHigh), 4);
+
+    for (int i = 0; i < 4; i++) {
+      assertThat(dispatcher.select(source, new DeepStateEvent<>("go", 20))).isSameAs(toHigh);
+    }
+    assertThat(dispatcher.getEvaluationOrder(source, "go")).containsExactly(toHigh, toLow, toOther);
+    assertThat(dispatcher.select(source, new DeepStateEvent<>("go", 5))).isSameAs(toLow);
+  }
+
+  @Test
+  public void testDoesNotReorderAcrossNonExclusiveTransitions() {
+    AdaptiveDispatcher<String, String> dispatcher = new AdaptiveDispatcher<>(ordered(toLow, toOther, toHigh), unordered(toLow, toHigh), 2);
+
+    for (int i = 0; i < 4; i++) {
+      assertThat(dispatcher.select(source, new DeepStateEvent<>("go", 20))).isSameAs(toOther);
+    }
+    assertThat(dispatcher.getEvaluationOrder(source, "go")).containsExactly(toLow, toOther, toHigh);
+  }
+
+  @Test
+  public void testReordersEachTrigger() {
+    TriggeredTransition<String, String> stopLow = new TriggeredTransition<>("stop", source, low, (event) -> value(event) < 10, null);
+    TriggeredTransition<String, String> stopHigh = new TriggeredTransition<>("stop", source, high, (event) -> value(event) >= 10, null);
+    AdaptiveDispatcher<String, String> dispatcher = new AdaptiveDispatcher<>(ordered(toLow, toHigh, stopLow, stopHigh),
+        unordered(toLow, toHigh, stopLow, stopHigh), 2);
+
+    // only the candidates for the trigger are evaluated, and each trigger keeps its own order
+    for (int i = 0; i < 2; i++) {
+      assertThat(dispatcher.select(source, new DeepStateEvent<>("go", 20))).isSameAs(toHigh);
+      assertThat(dispatcher.select(source, new DeepStateEvent<>("stop", 5))).isSameAs(stopLow);
+    }
+    assertThat(dispatcher.getEvaluationOrder(source, "go")).containsExactly(toHigh, toLow);
+    assertThat(dispatcher.getEvaluationOrder(source, "stop")).containsExactly(stopLow, stopHigh);
+    assertThat(dispatcher.select(source, new DeepStateEvent<>("missing", 5))).isNull();
+  }
+
+  @Test
+  public void testUnknownState() {
+    AdaptiveDispatcher<String, String> dispatcher = new AdaptiveDispatcher<>(ordered(toLow), Collections.emptySet(), 1);
+    assertThat(dispatcher.select(other, new DeepStateEvent<>("go", 5))).isNull();
+    assertThat(dispatcher.getEvaluationOrder(other, "go")).isEmpty();
+  }
+
+  private static SimpleState<String, String> state(String name) {
+    return new SimpleState<>(name, null, null, Collections.emptyMap(), null, null);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static int value(Object event) {
+    return ((DeepStateEvent<String, Integer>) event).getPayload().orElse(0);
+  }
+
+  @SafeVarargs
+  private static Set<TriggeredTransition<String, String>> ordered(TriggeredTransition<String, String>... transitions) {
+    Set<TriggeredTransition<String, String>> set = new LinkedHashSet<>();
+    Collections.addAll(set, transitions);
+    return set;
+  }
+
+  @SafeVarargs
+  private static Set<TriggeredTransition<String, String>> unordered(TriggeredTransition<String, String>... transitions) {
+    Set<TriggeredTransition<String, String>> set = new HashSet<>();
+    Collections.addAll(set, transitions);
+    return set;
+  }
+}
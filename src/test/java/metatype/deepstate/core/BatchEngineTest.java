@@ -0,0 +1,87 @@
+package metatype.deepstate.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import metatype.deepstate.DeepState;
+import metatype.deepstate.DeepState.FsmFactory;
+import metatype.deepstate.FiniteStateMachine;
+
+public class BatchEngineTest {
+  private static final String[] TRIGGERS = { "pay", "ship", "cancel", "reopen" };
+
+  private FsmFactory<String, String> orders() {
+    return DeepState.<String, String>model()
+        .startingWith("Created")
+        .and().define("Paid")
+        .and().define("Shipped")
+        .and().define("Cancelled")
+        .and().transition("pay").from("Created").to("Paid")
+        .and().transition("ship").from("Paid").to("Shipped")
+        .and().transition("cancel").from("Created").to("Cancelled")
+        .and().transition("cancel").from("Paid").to("Cancelled")
+        .and().transition("reopen").from("Cancelled").to("Created")
+        .and();
+  }
+
+  @Test
+  public void testMatchesStateMachines() {
+    BatchEngine<String, String> engine = orders().batch();
+    Random random = new Random(7);
+    int[] states = engine.newInstances(500);
+    int[] instances = new int[100_000];
+    int[] triggers = new int[instances.length];
+    List<FiniteStateMachine<String, String>> machines = new ArrayList<>();
+    for (int i = 0; i < states.length; i++) {
+      machines.add(orders().ready());
+    }
+
+    for (int i = 0; i < instances.length; i++) {
+      String trigger = TRIGGERS[random.nextInt(TRIGGERS.length)];
+      instances[i] = random.nextInt(states.length);
+      triggers[i] = engine.triggerId(trigger);
+      machines.get(instances[i]).trigger(trigger);
+    }
+
+    int[] parallel = engine.newInstances(states.length);
+    long taken = engine.advance(states, instances, triggers);
+    assertThat(engine.advance(parallel, instances, triggers, new ForkJoinPool(4))).isEqualTo(taken);
+    assertThat(parallel).isEqualTo(states);
+    for (int i = 0; i < states.length; i++) {
+      assertThat(engine.stateName(states[i])).isEqualTo(machines.get(i).getCurrentState().getIdentity());
+    }
+  }
+
+  @Test
+  public void testCascades() {
+    BatchEngine<String, String> engine = DeepState.<String, String>model()
+        .startingWith("A")
+        .and().define("B")
+        .and().define("C")
+        .and().transition("go").from("A").to("B")
+        .and().transition("go").from("B").to("C")
+        .and().batch();
+
+    int[] states = engine.newInstances(1);
+    assertThat(engine.advance(states, new int[] { 0 }, new int[] { engine.triggerId("go") })).isEqualTo(2);
+    assertThat(engine.stateName(states[0])).isEqualTo("C");
+  }
+
+  @Test
+  public void testUnsupportedModels() {
+    assertThatThrownBy(() -> orders().transition("audit").from("Shipped").to("Created").guardedBy(event -> true).and().batch())
+        .isInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(() -> orders().define("Archived").whenEntering(state -> { }).and().batch())
+        .isInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(() -> orders().transition("loop").from("Created").to("Cancelled")
+        .and().transition("loop").from("Cancelled").to("Created").and().batch())
+        .isInstanceOf(IllegalStateException.class);
+  }
+}
@@ -9,18 +9,32 @@ import static org.mockito.Mockito.verify;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 
 import metatype.deepstate.DeepState;
+import metatype.deepstate.DeepStateEvent;
+import metatype.deepstate.DoubleEvent;
 import metatype.deepstate.FiniteStateMachine;
 import metatype.deepstate.FiniteStateMachine.Action;
 import metatype.deepstate.FiniteStateMachine.Event;
+import metatype.deepstate.FiniteStateMachine.State;
 import metatype.deepstate.FiniteStateMachine.StateAction;
+import metatype.deepstate.FiniteStateMachine.StateChange;
 import metatype.deepstate.FiniteStateMachine.TransitionAction;
+import metatype.deepstate.IntEvent;
+import metatype.deepstate.LongEvent;
 
 public class DeepStateFsmTest {
   public class TestEvent implements Event<String> {
@@ -348,4 +362,945 @@ public class DeepStateFsmTest {
     new ArrayList<>(capturedEvents).forEach(fsm::accept);
     assertThat(fsm.getCurrentState().getIdentity()).isEqualTo("C");
   }
+  
+  @Test
+  public void testCompiledTransitionWithGuard() {
+    Action<String> entry = mock(Action.class);
+    TransitionAction<String, String> action = mock(TransitionAction.class);
+
+    FiniteStateMachine<String, String> fsm = DeepState.<String, String>model()
+        .compile()
+        .startingWith("Initial")
+        .and().define("Next")
+        .whenEntering(entry)
+        .and().define("Other")
+        .and().transition("go").from("Initial").to("Next")
+        .invoke(action)
+        .guardedBy((event) -> ((TestEvent) event).get())
+        .and().transition("other").from("Initial").to("Other")
+        .and().ready();
+    
+    fsm.accept(new TestEvent("go", false));
+    fsm.accept(new TestEvent("unknown"));
+    assertThat(fsm.getCurrentState().getIdentity()).isEqualTo("Initial");
+    
+    fsm.accept(new TestEvent("go", true));
+    verify(entry, times(1)).accept(any());
+    verify(action, times(1)).accept(any(), any());
+    assertThat(fsm.getCurrentState().getIdentity()).isEqualTo("Next");
+  }
+  
+  @Test
+  public void testCompiledNestedTransition() {
+    FiniteStateMachine<String, String> fsm = DeepState.<String, String>model()
+        .compile()
+        .startingWith("initial")
+        .nest().startingWith("first")
+        .and().define("second")
+        .and().transition("test").from("first").to("second")
+        .and().parent()
+        .and().define("last")
+        .and().transition("done").from("initial").to("last")
+        .and().ready();
+    
+    fsm.accept(new TestEvent("test"));
+    assertThat(fsm.getCurrentStates().getLast().getIdentity()).isEqualTo("second");
+
+    fsm.accept(new TestEvent("done"));
+    assertThat(fsm.getCurrentState().getIdentity()).isEqualTo("last");
+  }
+  
+  @Test
+  public void testProfiledExclusiveTransitions() {
+    FiniteStateMachine<String, String> fsm = DeepState.<String, String>model()
+        .profile(2)
+        .startingWith("Initial")
+        .and().define("False")
+        .and().define("True")
+        .and().transition("go").from("Initial").to("False")
+        .guardedBy((event) -> !((TestEvent) event).get())
+        .exclusive()
+        .and().transition("go").from("Initial").to("True")
+        .guardedBy((event) -> ((TestEvent) event).get())
+        .exclusive()
+        .and().transition("back").from("True").to("Initial")
+        .and().ready();
+    
+    for (int i = 0; i < 4; i++) {
+      fsm.accept(new TestEvent("go", true));
+      assertThat(fsm.getCurrentState().getIdentity()).isEqualTo("True");
+      fsm.accept(new TestEvent("back"));
+    }
+    fsm.accept(new TestEvent("go", false));
+    assertThat(fsm.getCurrentState().getIdentity()).isEqualTo("False");
+  }
+  
+  @Test
+  public void testProfiledCompiledDispatch() {
+    assertThatThrownBy(() -> { DeepState.<String, String>model()
+        .compile()
+        .profile(10)
+        .startingWith("Initial")
+        .and().ready();
+    }).isInstanceOf(IllegalStateException.class);
+  }
+  
+  @Test
+  public void testMultipleTriggers() {
+    FiniteStateMachine<String, String> fsm = DeepState.<String, String>model()
+        .startingWith("Initial")
+        .and().define("Next")
+        .and().transition("go", "run").from("Initial").to("Next")
+        .and().transition(new HashSet<>(Arrays.asList("back", "return"))).from("Next").to("Initial")
+        .and().ready();
+    
+    fsm.accept(new TestEvent("run"));
+    assertThat(fsm.getCurrentState().getIdentity()).isEqualTo("Next");
+    
+    fsm.accept(new TestEvent("return"));
+    assertThat(fsm.getCurrentState().getIdentity()).isEqualTo("Initial");
+  }
+  
+  @Test
+  public void testPredicateTriggers() {
+    for (boolean compile : new boolean[] { false, true }) {
+      DeepState.FsmFactory<String, String> factory = DeepState.<String, String>model();
+      if (compile) {
+        factory.compile();
+      }
+      
+      FiniteStateMachine<String, String> fsm = factory
+          .startingWith("Initial")
+          .and().define("Next")
+          .and().define("Other")
+          .and().transition((String trigger) -> trigger.startsWith("go")).from("Initial").to("Next")
+          .and().transition("go other").from("Initial").to("Other")
+          .and().transition("back").from("Next").to("Initial")
+          .and().ready();
+      
+      fsm.accept(new TestEvent("go other"));
+      assertThat(fsm.getCurrentState().getIdentity()).isEqualTo("Next");
+      
+      fsm.accept(new TestEvent("back"));
+      fsm.accept(new TestEvent("going"));
+      assertThat(fsm.getCurrentState().getIdentity()).isEqualTo("Next");
+    }
+  }
+  
+  @Test
+  public void testFlattenedNestedTransition() {
+    FiniteStateMachine<String, String> fsm = DeepState.<String, String>model()
+        .flatten()
+        .startingWith("initial")
+        .nest().startingWith("first")
+        .nest().startingWith("first.a")
+        .and().define("first.b")
+        .and().transition("test").from("first.a").to("first.b")
+        .and().parent()
+        .and().define("second")
+        .and().transition("next").from("first").to("second")
+        .and().parent()
+        .and().define("last")
+        .and().transition("done").from("initial").to("last")
+        .and().ready();
+    
+    assertThat(fsm).isInstanceOf(HierarchicalFsm.class);
+    assertThat(fsm.getCurrentStates()).extracting(State::getIdentity).containsExactly("initial", "first", "first.a");
+    
+    fsm.accept(new TestEvent("test"));
+    assertThat(fsm.getCurrentStates()).extracting(State::getIdentity).containsExactly("initial", "first", "first.b");
+    
+    fsm.accept(new TestEvent("next"));
+    assertThat(fsm.getCurrentStates()).extracting(State::getIdentity).containsExactly("initial", "second");
+    
+    fsm.accept(new TestEvent("done"));
+    assertThat(fsm.getCurrentStates()).extracting(State::getIdentity).containsExactly("last");
+  }
+  
+  @Test
+  public void testFlattenedOrderMatchesNested() {
+    List<String> nested = new ArrayList<>();
+    List<String> flattened = new ArrayList<>();
+    for (List<String> log : Arrays.asList(nested, flattened)) {
+      DeepState.FsmFactory<String, String> factory = DeepState.<String, String>model();
+      if (log == flattened) {
+        factory.flatten();
+      }
+      
+      FiniteStateMachine<String, String> fsm = factory
+          .startingWith("outer")
+          .whenEntering((state) -> log.add("enter outer"))
+          .whenExiting((state) -> log.add("exit outer"))
+          .when("go", (state, event) -> log.add("outer action"))
+          .nest().startingWith("a")
+          .whenEntering((state) -> log.add("enter a"))
+          .whenExiting((state) -> log.add("exit a"))
+          .when("go", (state, event) -> log.add("a action"))
+          .nest().startingWith("a.1")
+          .whenEntering((state) -> log.add("enter a.1"))
+          .whenExiting((state) -> log.add("exit a.1"))
+          .and().parent()
+          .and().define("b")
+          .whenEntering((state) -> log.add("enter b"))
+          .when("go", (state, event) -> log.add("b action"))
+          .and().transition("go").from("a").to("b")
+          .invoke((transition, event) -> log.add("a to b"))
+          .and().parent()
+          .and().define("done")
+          .whenEntering((state) -> log.add("enter done"))
+          .and().transition("go").from("outer").to("done")
+          .invoke((transition, event) -> log.add("outer to done"))
+          .and().ready();
+      
+      fsm.accept(new TestEvent("go"));
+    }
+    
+    assertThat(flattened).isEqualTo(nested);
+    assertThat(flattened).containsExactly("enter outer", "enter a", "enter a.1", "outer action", "a action", 
+        "exit a.1", "exit a", "a to b", "enter b", "b action", "exit outer", "outer to done", "enter done");
+  }
+  
+  @Test
+  public void testFlattenNestedFactory() {
+    assertThatThrownBy(() -> { DeepState.<String, String>model()
+        .startingWith("Initial")
+        .nest().flatten();
+    }).isInstanceOf(IllegalStateException.class);
+  }
+  
+  @Test
+  public void testCrossLevelTransitions() {
+    List<String> log = new ArrayList<>();
+    FiniteStateMachine<String, String> fsm = DeepState.<String, String>model()
+        .flatten()
+        .startingWith("outer")
+        .whenExiting((state) -> log.add("exit outer"))
+        .nest().startingWith("a")
+        .whenExiting((state) -> log.add("exit a"))
+        .nest().startingWith("a.1")
+        .whenExiting((state) -> log.add("exit a.1"))
+        .and().define("a.2")
+        .whenEntering((state) -> log.add("enter a.2"))
+        .and().transition("escape").from("a.1").to("done")
+        .invoke((transition, event) -> log.add("escape"))
+        .and().parent()
+        .and().parent()
+        .and().define("done")
+        .whenEntering((state) -> log.add("enter done"))
+        .and().transition("dive").from("done").to("a.2")
+        .and().ready();
+    
+    fsm.accept(new TestEvent("escape"));
+    assertThat(fsm.getCurrentStates()).extracting(State::getIdentity).containsExactly("done");
+    assertThat(log).containsExactly("exit a.1", "exit a", "exit outer", "escape", "enter done");
+    
+    log.clear();
+    fsm.accept(new TestEvent("dive"));
+    assertThat(fsm.getCurrentStates()).extracting(State::getIdentity).containsExactly("outer", "a", "a.2");
+    assertThat(log).containsExactly("enter a.2");
+  }
+  
+  @Test
+  public void testCrossLevelTransitionToAncestor() {
+    List<String> log = new ArrayList<>();
+    FiniteStateMachine<String, String> fsm = DeepState.<String, String>model()
+        .flatten()
+        .startingWith("outer")
+        .whenEntering((state) -> log.add("enter outer"))
+        .whenExiting((state) -> log.add("exit outer"))
+        .nest().startingWith("first")
+        .and().define("second")
+        .and().transition("next").from("first").to("second")
+        .and().transition("reset").from("second").to("outer")
+        .and().parent()
+        .and().ready();
+    
+    fsm.accept(new TestEvent("next"));
+    assertThat(fsm.getCurrentStates()).extracting(State::getIdentity).containsExactly("outer", "second");
+    
+    log.clear();
+    fsm.accept(new TestEvent("reset"));
+    assertThat(fsm.getCurrentStates()).extracting(State::getIdentity).containsExactly("outer", "first");
+    assertThat(log).containsExactly("exit outer", "enter outer");
+  }
+  
+  @Test
+  public void testCrossLevelTransitionRequiresFlatten() {
+    DeepState.FsmFactory<String, String> model = DeepState.<String, String>model()
+        .startingWith("outer")
+        .nest().startingWith("a")
+        .and().transition("escape").from("a").to("done")
+        .and().parent()
+        .and().define("done")
+        .and();
+    
+    assertThatThrownBy(model::ready).isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("state done").hasMessageContaining("flatten()");
+    assertThat(model.flatten().ready().isIn("a")).isTrue();
+  }
+  
+  @Test
+  public void testAmbiguousCrossLevelTransition() {
+    assertThatThrownBy(() -> { DeepState.<String, String>model()
+        .flatten()
+        .startingWith("a")
+        .nest().startingWith("inner")
+        .and().parent()
+        .and().define("b")
+        .nest().startingWith("inner")
+        .and().parent()
+        .and().define("c")
+        .and().transition("go").from("c").to("inner")
+        .and().ready();
+    }).isInstanceOf(IllegalStateException.class);
+  }
+  
+  @Test
+  public void testOrthogonalRegions() {
+    FiniteStateMachine<String, String> fsm = DeepState.<String, String>model()
+        .startingWith("on")
+        .region().startingWith("cold")
+        .and().define("hot")
+        .and().transition("heat").from("cold").to("hot")
+        .and().parent()
+        .region().startingWith("idle")
+        .and().define("timing")
+        .and().transition("start").from("idle").to("timing")
+        .and().transition("heat").from("timing").to("idle")
+        .and().parent()
+        .and().ready();
+    
+    assertThat(fsm.getCurrentStates()).extracting(State::getIdentity).containsExactly("on", "cold", "idle");
+    
+    fsm.accept(new TestEvent("start"));
+    assertThat(fsm.getCurrentStates()).extracting(State::getIdentity).containsExactly("on", "cold", "timing");
+    
+    fsm.accept(new TestEvent("heat"));
+    assertThat(fsm.getCurrentStates()).extracting(State::getIdentity).containsExactly("on", "hot", "idle");
+  }
+  
+  @Test
+  public void testParallelRegions() {
+    ForkJoinPool pool = new ForkJoinPool(2);
+    Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    AtomicReference<FiniteStateMachine<String, String>> holder = new AtomicReference<>();
+    try {
+      FiniteStateMachine<String, String> fsm = DeepState.<String, String>model()
+          .startingWith("on")
+          .parallel(pool)
+          .region().startingWith("a")
+          .when("go", (state, event) -> threads.add(Thread.currentThread()))
+          .and().define("a.done")
+          .and().transition("go").from("a").to("a.done")
+          .and().parent()
+          .region().startingWith("b")
+          .when("go", (state, event) -> {
+            threads.add(Thread.currentThread());
+            holder.get().accept(new TestEvent("stop"));
+          })
+          .and().define("b.done")
+          .and().transition("go").from("b").to("b.done")
+          .and().parent()
+          .and().define("off")
+          .and().transition("stop").from("on").to("off")
+          .and().ready();
+      holder.set(fsm);
+      
+      fsm.accept(new TestEvent("go"));
+      assertThat(threads).hasSize(2);
+      assertThat(fsm.getCurrentState().getIdentity()).isEqualTo("off");
+      
+    } finally {
+      pool.shutdown();
+    }
+  }
+  
+  @Test
+  public void testFlattenedRegions() {
+    assertThatThrownBy(() -> { DeepState.<String, String>model()
+        .flatten()
+        .startingWith("on")
+        .region().startingWith("a")
+        .and().parent()
+        .region().startingWith("b")
+        .and().parent()
+        .and().ready();
+    }).isInstanceOf(IllegalStateException.class);
+  }
+  
+  @Test
+  public void testDeepCascade() {
+    int length = 20_000;
+    DeepState.FsmFactory<String, Integer> factory = DeepState.<String, Integer>model().limitCascades(length);
+    factory.startingWith(0);
+    for (int i = 1; i < length; i++) {
+      factory.define(i);
+      factory.transition("go").from(i - 1).to(i);
+    }
+    DeepStateFsm<String, Integer> fsm = factory.ready();
+    
+    fsm.accept(new TestEvent("go"));
+    assertThat(fsm.getCurrentState().getIdentity()).isEqualTo(length - 1);
+    assertThat(fsm.getCascadeMetrics().getMaxDepth()).isEqualTo(length - 1);
+    assertThat(fsm.getCascadeMetrics().getEvents()).isEqualTo(1);
+  }
+  
+  @Test
+  public void testCascadeLimit() {
+    for (boolean flatten : new boolean[] { false, true }) {
+      List<Exception> errors = new ArrayList<>();
+      DeepState.FsmFactory<String, String> factory = DeepState.<String, String>model();
+      if (flatten) {
+        factory.flatten();
+      }
+      
+      DeepStateFsm<String, String> fsm = factory
+          .limitCascades(100)
+          .catchExceptionsUsing(errors::add)
+          .startingWith("A")
+          .and().define("B")
+          .and().transition("go").from("A").to("B").guardedBy((event) -> true)
+          .and().transition("go").from("B").to("A").guardedBy((event) -> true)
+          .and().ready();
+      
+      fsm.accept(new TestEvent("go"));
+      assertThat(errors).hasSize(1).first().isInstanceOf(CascadeException.class);
+      assertThat(fsm.getCascadeMetrics().getMaxDepth()).isEqualTo(100);
+      assertThat(fsm.getCascadeMetrics().getAbandoned()).isEqualTo(1);
+      assertThat(fsm.getCurrentState().getIdentity()).isEqualTo("A");
+    }
+  }
+  
+  @Test
+  public void testCycleDetection() {
+    for (boolean flatten : new boolean[] { false, true }) {
+      List<Exception> errors = new ArrayList<>();
+      DeepState.FsmFactory<String, String> factory = DeepState.<String, String>model();
+      if (flatten) {
+        factory.flatten();
+      }
+      
+      DeepStateFsm<String, String> fsm = factory
+          .detectCycles()
+          .catchExceptionsUsing(errors::add)
+          .startingWith("A")
+          .and().define("B")
+          .and().define("C")
+          .and().transition("go").from("A").to("B")
+          .and().transition("go").from("B").to("C").guardedBy((event) -> true)
+          .and().transition("go").from("C").to("B").guardedBy((event) -> true)
+          .and().ready();
+      
+      fsm.accept(new TestEvent("go"));
+      assertThat(errors).hasSize(1).first().isInstanceOf(CascadeException.class);
+      assertThat(fsm.getCurrentState().getIdentity()).isEqualTo("B");
+      assertThat(fsm.getCascadeMetrics().getTransitions()).isEqualTo(3);
+    }
+  }
+  
+  @Test
+  public void testStateChanges() {
+    for (boolean flatten : new boolean[] { false, true }) {
+      DeepState.FsmFactory<String, String> factory = DeepState.<String, String>model();
+      if (flatten) {
+        factory.flatten();
+      }
+      
+      DeepStateFsm<String, String> fsm = factory
+          .publishStateChanges(Runnable::run, 16)
+          .startingWith("idle")
+          .and().define("toasting")
+          .nest().startingWith("heating")
+          .and().define("browned")
+          .and().transition("hot").from("heating").to("browned")
+          .and().parent()
+          .and().transition("start").from("idle").to("toasting")
+          .and().transition("pop").from("toasting").to("idle")
+          .and().ready();
+      
+      ChangeSubscriber subscriber = new ChangeSubscriber(Long.MAX_VALUE);
+      fsm.getStateChanges().subscribe(subscriber);
+      
+      fsm.accept(new TestEvent("start"));
+      fsm.accept(new TestEvent("hot"));
+      fsm.accept(new TestEvent("pop"));
+      fsm.end();
+      assertThat(subscriber.changes).containsExactly(
+          "idle -> toasting on start", "null -> heating on null",
+          "heating -> browned on hot",
+          "browned -> null on null", "toasting -> idle on pop",
+          "idle -> null on null");
+    }
+  }
+  
+  @Test
+  public void testStateChangeBackpressure() {
+    DeepStateFsm<String, String> fsm = DeepState.<String, String>model()
+        .publishStateChanges(Runnable::run, 1)
+        .startingWith("A")
+        .and().define("B")
+        .and().transition("go").from("A").to("B")
+        .and().transition("back").from("B").to("A")
+        .and().ready();
+    
+    ChangeSubscriber subscriber = new ChangeSubscriber(1);
+    fsm.getStateChanges().subscribe(subscriber);
+    for (int i = 0; i < 5; i++) {
+      fsm.accept(new TestEvent("go"));
+      fsm.accept(new TestEvent("back"));
+    }
+    
+    // one change was requested, one more fits in the buffer and the rest never block the machine
+    assertThat(subscriber.changes).containsExactly("A -> B on go");
+    assertThat(fsm.getStateChanges().getDropped()).isEqualTo(8);
+    
+    subscriber.subscription.request(Long.MAX_VALUE);
+    assertThat(subscriber.changes).containsExactly("A -> B on go", "B -> A on back");
+  }
+  
+  @Test
+  public void testIsIn() {
+    for (boolean flatten : new boolean[] { false, true }) {
+      DeepState.FsmFactory<String, String> factory = DeepState.<String, String>model();
+      if (flatten) {
+        factory.flatten();
+      }
+      
+      FiniteStateMachine<String, String> fsm = factory
+          .startingWith("idle")
+          .and().define("toasting")
+          .nest().startingWith("heating")
+          .and().define("browned")
+          .and().transition("hot").from("heating").to("browned")
+          .and().parent()
+          .and().transition("start").from("idle").to("toasting")
+          .and().transition("pop").from("toasting").to("idle")
+          .and().ready();
+      
+      assertThat(fsm.isIn("idle")).isTrue();
+      assertThat(fsm.isInAny("toasting", "heating")).isFalse();
+      
+      fsm.accept(new TestEvent("start"));
+      assertThat(fsm.isIn("idle")).isFalse();
+      assertThat(fsm.isIn("toasting")).isTrue();
+      assertThat(fsm.isIn("heating")).isTrue();
+      
+      fsm.accept(new TestEvent("hot"));
+      assertThat(fsm.isIn("heating")).isFalse();
+      assertThat(fsm.isInAny("unknown", "browned")).isTrue();
+      
+      fsm.accept(new TestEvent("pop"));
+      assertThat(fsm.isInAny("toasting", "browned")).isFalse();
+      assertThat(fsm.isIn("idle")).isTrue();
+    }
+  }
+  
+  @Test
+  public void testIsInSharedName() {
+    FiniteStateMachine<String, String> fsm = DeepState.<String, String>model()
+        .startingWith("on")
+        .region().startingWith("idle")
+        .and().define("a")
+        .and().transition("a").from("idle").to("a")
+        .and().parent()
+        .region().startingWith("idle")
+        .and().parent()
+        .and().ready();
+    
+    fsm.accept(new TestEvent("a"));
+    assertThat(fsm.isIn("idle")).isTrue();
+    assertThat(fsm.isIn("a")).isTrue();
+  }
+  
+  @Test
+  public void testResume() {
+    List<String> entered = new ArrayList<>();
+    DeepState.FsmFactory<String, String> model = DeepState.<String, String>model()
+        .startingWith("Idle")
+        .and().define("Running")
+        .whenEntering(state -> entered.add(state.getIdentity()))
+        .nest().startingWith("Warmup").whenEntering(state -> entered.add(state.getIdentity()))
+        .and().define("Steady").whenEntering(state -> entered.add(state.getIdentity()))
+        .and().parent()
+        .and().transition("stop").from("Running").to("Idle")
+        .and();
+    
+    FiniteStateMachine<String, String> fsm = model.resume("Running");
+    assertThat(entered).containsExactly("Running", "Warmup");
+    fsm.trigger("stop");
+    assertThat(fsm.isIn("Idle")).isTrue();
+    
+    // the nested machines resume in their own states
+    entered.clear();
+    fsm = model.resume(Arrays.asList("Running", "Steady"));
+    assertThat(entered).containsExactly("Running", "Steady");
+    fsm.trigger("stop");
+    assertThat(fsm.isIn("Idle")).isTrue();
+    
+    assertThat(model.flatten().resume("Running").isIn("Warmup")).isTrue();
+    assertThat(model.flatten().resume(Arrays.asList("Running", "Steady")).isIn("Steady")).isTrue();
+    assertThatThrownBy(() -> model.resume("Missing")).isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> model.resume(Arrays.asList("Idle", "Warmup"))).isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> model.resume(Arrays.asList("Running", "Missing"))).isInstanceOf(IllegalArgumentException.class);
+  }
+  
+  private FiniteStateMachine<String, String> propagating(Propagation propagation, boolean flatten, List<String> log) {
+    DeepState.FsmFactory<String, String> model = DeepState.<String, String>model()
+        .propagateEvents(propagation)
+        .startingWith("Outer")
+        .when("ping", (state, event) -> log.add("outer"))
+        .nest().startingWith("Inner")
+        .when("ping", (state, event) -> log.add("inner"))
+        .when("inside", (state, event) -> log.add("inner"))
+        .and().define("Inner2")
+        .and().transition("go").from("Inner").to("Inner2")
+        .and().parent()
+        .and().define("Done")
+        .and().transition("go").from("Outer").to("Done")
+        .and();
+    return flatten ? model.flatten().ready() : model.ready();
+  }
+  
+  @Test
+  public void testPropagation() {
+    for (boolean flatten : new boolean[] { false, true }) {
+      List<String> log = new ArrayList<>();
+      FiniteStateMachine<String, String> fsm = propagating(Propagation.BROADCAST, flatten, log);
+      fsm.trigger("ping");
+      assertThat(log).containsExactly("outer", "inner");
+      fsm.trigger("go");
+      assertThat(fsm.isIn("Done")).isTrue();
+      
+      // the outer level handles the event, so the nested machine never sees it
+      log.clear();
+      fsm = propagating(Propagation.OUTER_FIRST, flatten, log);
+      fsm.trigger("ping");
+      fsm.trigger("inside");
+      assertThat(log).containsExactly("outer", "inner");
+      fsm.trigger("go");
+      assertThat(fsm.getCurrentStates()).extracting(State::getIdentity).containsExactly("Done");
+      
+      // the nested machine handles the event, so the outer level never sees it
+      log.clear();
+      fsm = propagating(Propagation.INNER_FIRST, flatten, log);
+      fsm.trigger("ping");
+      assertThat(log).containsExactly("inner");
+      fsm.trigger("go");
+      assertThat(fsm.getCurrentStates()).extracting(State::getIdentity).containsExactly("Outer", "Inner2");
+      fsm.trigger("go");
+      assertThat(fsm.isIn("Done")).isTrue();
+    }
+  }
+  
+  @Test
+  public void testDropIgnoredEvents() {
+    List<Event<String>> audited = new ArrayList<>();
+    List<String> ticks = new ArrayList<>();
+    DeepStateFsm<String, String> fsm = DeepState.<String, String>model()
+        .dropIgnoredEvents()
+        .audit(audited::add)
+        .startingWith("Idle")
+        .and().define("Running")
+        .when("tick", (state, event) -> ticks.add(event.getTrigger()))
+        .and().transition("start").from("Idle").to("Running")
+        .and().transition("stop").from("Running").to("Idle")
+        .and().ready();
+    
+    fsm.trigger("tick");
+    fsm.trigger("unknown");
+    assertThat(fsm.getDroppedEvents()).isEqualTo(2);
+    assertThat(audited).isEmpty();
+    
+    fsm.trigger("start");
+    fsm.trigger("tick");
+    fsm.trigger("start");
+    assertThat(ticks).containsExactly("tick");
+    assertThat(audited).extracting(Event::getTrigger).containsExactly("start", "tick");
+    assertThat(fsm.getDroppedEvents()).isEqualTo(3);
+    
+    // a default action reacts to every event
+    fsm = DeepState.<String, String>model()
+        .dropIgnoredEvents()
+        .startingWith("Idle")
+        .whenNothingElseMatches((state, event) -> ticks.add(event.getTrigger()))
+        .and().ready();
+    fsm.trigger("unknown");
+    assertThat(ticks).containsExactly("tick", "unknown");
+    assertThat(fsm.getDroppedEvents()).isZero();
+  }
+  
+  @Test
+  public void testDropIgnoredEventsByConfiguration() {
+    for (boolean flatten : new boolean[] { false, true }) {
+      List<String> pings = new ArrayList<>();
+      DeepState.FsmFactory<String, String> model = DeepState.<String, String>model()
+          .dropIgnoredEvents()
+          .startingWith("Outer")
+          .nest().startingWith("Inner")
+          .when("ping", (state, event) -> pings.add(state.getIdentity()))
+          .and().define("Inner2")
+          .and().transition("next").from("Inner").to("Inner2")
+          .and().parent()
+          .and().define("Done")
+          .and().transition("done").from("Outer").to("Done")
+          .and();
+      DeepStateFsm<String, String> fsm = flatten ? model.flatten().ready() : model.ready();
+      
+      fsm.trigger("ping");
+      fsm.trigger("next");
+      fsm.trigger("ping");
+      assertThat(pings).containsExactly("Inner");
+      
+      // a flattened machine knows the nested state, while a nested machine listens for every
+      // trigger of the states nested in its current state
+      assertThat(fsm.getDroppedEvents()).isEqualTo(flatten ? 1 : 0);
+      
+      fsm.trigger("done");
+      fsm.trigger("ping");
+      fsm.trigger("next");
+      assertThat(fsm.isIn("Done")).isTrue();
+      assertThat(fsm.getDroppedEvents()).isEqualTo(flatten ? 3 : 2);
+    }
+  }
+  
+  @Test
+  public void testTriggerEvents() {
+    List<Event<String>> seen = new ArrayList<>();
+    FiniteStateMachine<String, String> fsm = DeepState.<String, String>model()
+        .startingWith("A")
+        .when("ping", (state, event) -> seen.add(event))
+        .and().ready();
+    
+    fsm.trigger("ping");
+    fsm.trigger("ping");
+    assertThat(seen).hasSize(2);
+    assertThat(seen.get(0)).isSameAs(seen.get(1));
+    assertThat(seen.get(0).getTrigger()).isEqualTo("ping");
+    assertThat(((DeepStateEvent<String, ?>) seen.get(0)).getPayload()).isEmpty();
+  }
+  
+  @Test
+  public void testPrimitiveEvents() {
+    FiniteStateMachine<String, String> fsm = DeepState.<String, String>model()
+        .startingWith("cold")
+        .and().define("warm")
+        .and().define("hot")
+        .and().transition("heat").from("cold").to("warm")
+        .guardedBy((event) -> ((IntEvent<String>) event).getPayload() > 10)
+        .and().transition("boil").from("warm").to("hot")
+        .guardedBy((event) -> ((DoubleEvent<String>) event).getPayload() > 0.5)
+        .and().ready();
+    
+    fsm.accept(new IntEvent<>("heat", 5));
+    assertThat(fsm.getCurrentState().getIdentity()).isEqualTo("cold");
+    fsm.accept(new IntEvent<>("heat", 20));
+    assertThat(fsm.getCurrentState().getIdentity()).isEqualTo("warm");
+    fsm.accept(new DoubleEvent<>("boil", 0.25));
+    assertThat(fsm.getCurrentState().getIdentity()).isEqualTo("warm");
+    fsm.accept(new DoubleEvent<>("boil", 0.75));
+    assertThat(fsm.getCurrentState().getIdentity()).isEqualTo("hot");
+    assertThat(new LongEvent<>("tick", 1L << 40).getPayload()).isEqualTo(1L << 40);
+  }
+  
+  @Test
+  public void testRingMailbox() throws InterruptedException {
+    AtomicInteger count = new AtomicInteger();
+    List<Exception> errors = new ArrayList<>();
+    AtomicReference<FiniteStateMachine<String, String>> holder = new AtomicReference<>();
+    FiniteStateMachine<String, String> fsm = DeepState.<String, String>model()
+        .queueEventsUsing(() -> new RingMailbox<>(4))
+        .catchExceptionsUsing(errors::add)
+        .startingWith("A")
+        .when("count", (state, event) -> count.incrementAndGet())
+        .when("flood", (state, event) -> {
+          for (int i = 0; i < 5; i++) {
+            holder.get().trigger("count");
+          }
+        })
+        .and().ready();
+    holder.set(fsm);
+    
+    List<Thread> producers = new ArrayList<>();
+    for (int p = 0; p < 4; p++) {
+      Thread producer = new Thread(() -> {
+        for (int i = 0; i < 10_000; i++) {
+          fsm.trigger("count");
+        }
+      });
+      producer.start();
+      producers.add(producer);
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+    assertThat(count.get()).isEqualTo(40_000);
+    
+    // an action can't wait for its own machine to make room
+    fsm.trigger("flood");
+    assertThat(errors).hasSize(1).first().isInstanceOf(IllegalStateException.class);
+    assertThat(count.get()).isEqualTo(40_004);
+  }
+  
+  @Test
+  public void testDrainHandOffToExecutor() {
+    List<Runnable> tasks = new ArrayList<>();
+    List<String> processed = new ArrayList<>();
+    AtomicReference<FiniteStateMachine<String, String>> holder = new AtomicReference<>();
+    FiniteStateMachine<String, String> fsm = DeepState.<String, String>model()
+        .limitDrain(1, null)
+        .handOffTo(tasks::add)
+        .startingWith("A")
+        .when("burst", (state, event) -> {
+          processed.add("burst");
+          for (String trigger : Arrays.asList("one", "two", "three")) {
+            holder.get().trigger(trigger);
+          }
+        })
+        .when("one", (state, event) -> processed.add("one"))
+        .when("two", (state, event) -> processed.add("two"))
+        .when("three", (state, event) -> processed.add("three"))
+        .and().ready();
+    holder.set(fsm);
+    
+    // the sender stops after its budget and each task processes one more event
+    fsm.trigger("burst");
+    assertThat(processed).containsExactly("burst");
+    for (int i = 0; i < tasks.size(); i++) {
+      tasks.get(i).run();
+    }
+    assertThat(tasks).hasSize(3);
+    assertThat(processed).containsExactly("burst", "one", "two", "three");
+  }
+  
+  @Test
+  public void testDrainHandOffRejected() {
+    List<String> processed = new ArrayList<>();
+    AtomicReference<FiniteStateMachine<String, String>> holder = new AtomicReference<>();
+    FiniteStateMachine<String, String> fsm = DeepState.<String, String>model()
+        .limitDrain(1, null)
+        .handOffTo(task -> {
+          throw new RejectedExecutionException("saturated");
+        })
+        .startingWith("A")
+        .when("burst", (state, event) -> {
+          processed.add("burst");
+          holder.get().trigger("one");
+          holder.get().trigger("two");
+        })
+        .when("one", (state, event) -> processed.add("one"))
+        .when("two", (state, event) -> processed.add("two"))
+        .and().ready();
+    holder.set(fsm);
+    
+    // the sender keeps draining when the executor refuses the remaining events
+    fsm.trigger("burst");
+    assertThat(processed).containsExactly("burst", "one", "two");
+  }
+  
+  @Test
+  public void testDrainHandOffToSender() throws InterruptedException {
+    Semaphore started = new Semaphore(0);
+    Semaphore release = new Semaphore(0);
+    AtomicReference<Thread> counter = new AtomicReference<>();
+    FiniteStateMachine<String, String> fsm = DeepState.<String, String>model()
+        .limitDrain(1, null)
+        .startingWith("A")
+        .when("hold", (state, event) -> {
+          started.release();
+          release.acquireUninterruptibly();
+        })
+        .when("count", (state, event) -> counter.set(Thread.currentThread()))
+        .and().ready();
+    
+    Thread owner = new Thread(() -> fsm.trigger("hold"));
+    owner.start();
+    started.acquire();
+    Thread waiting = new Thread(() -> fsm.trigger("hold"));
+    waiting.start();
+    awaitBlocked(waiting);
+    release.release();
+    
+    // the owner has spent its budget on the first event, so the waiting sender takes over
+    started.acquire();
+    Thread sender = new Thread(() -> fsm.trigger("count"));
+    sender.start();
+    awaitBlocked(sender);
+    release.release();
+    sender.join();
+    waiting.join();
+    owner.join();
+    assertThat(counter.get()).isSameAs(sender);
+  }
+  
+  @Test
+  public void testAcceptWaitsForRunningThread() throws InterruptedException {
+    Semaphore started = new Semaphore(0);
+    Semaphore release = new Semaphore(0);
+    FiniteStateMachine<String, String> fsm = DeepState.<String, String>model()
+        .startingWith("A")
+        .when("hold", (state, event) -> {
+          started.release();
+          release.acquireUninterruptibly();
+        })
+        .and().define("B")
+        .and().transition("next").from("A").to("B")
+        .and().ready();
+    
+    Thread owner = new Thread(() -> fsm.trigger("hold"));
+    owner.start();
+    started.acquire();
+    
+    // a sender on another thread returns only once its event has been processed
+    AtomicBoolean inB = new AtomicBoolean();
+    Thread sender = new Thread(() -> {
+      fsm.trigger("next");
+      inB.set(fsm.isIn("B"));
+    });
+    sender.start();
+    awaitBlocked(sender);
+    release.release();
+    sender.join();
+    owner.join();
+    assertThat(inB).isTrue();
+  }
+  
+  private static void awaitBlocked(Thread thread) throws InterruptedException {
+    while (thread.getState() != Thread.State.BLOCKED) {
+      Thread.sleep(1);
+    }
+  }
+  
+  private static class ChangeSubscriber implements Flow.Subscriber<StateChange<String, String>> {
+    private final long initialRequest;
+    private final List<String> changes = new ArrayList<>();
+    private Flow.Subscription subscription;
+    
+    public ChangeSubscriber(long initialRequest) {
+      this.initialRequest = initialRequest;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(initialRequest);
+    }
+
+    @Override
+    public void onNext(StateChange<String, String> change) {
+      changes.add(name(change.getExited()) + " -> " + name(change.getEntered()) + " on " + change.getTrigger());
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      throw new AssertionError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+    }
+    
+    private static String name(State<String> state) {
+      return state == null ? "null" : state.getIdentity();
+    }
+  }
 }
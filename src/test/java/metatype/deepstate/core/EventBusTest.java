@@ -0,0 +1,103 @@
+package metatype.deepstate.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import metatype.deepstate.DeepState;
+import metatype.deepstate.DeepStateEvent;
+import metatype.deepstate.FiniteStateMachine;
+
+public class EventBusTest {
+  @Test
+  public void testSendsDeliveredAfterRunToCompletion() {
+    EventBus<String, String> bus = new EventBus<>();
+    AtomicBoolean finished = new AtomicBoolean();
+    List<String> received = new ArrayList<>();
+
+    FiniteStateMachine<String, String> sender = DeepState.<String, String>model()
+        .startingWith("A")
+        .when("go", (state, event) -> {
+          for (int i = 0; i < 3; i++) {
+            bus.send("receiver", new DeepStateEvent<>("item" + i));
+          }
+          finished.set(true);
+        })
+        .and().ready();
+    FiniteStateMachine<String, String> receiver = DeepState.<String, String>model()
+        .startingWith("B")
+        .whenNothingElseMatches((state, event) -> received.add(event.getTrigger() + (finished.get() ? " after" : " during")))
+        .and().ready();
+    bus.register("sender", sender).register("receiver", receiver);
+
+    bus.send("sender", new DeepStateEvent<>("go"));
+    assertThat(received).containsExactly("item0 after", "item1 after", "item2 after");
+  }
+
+  @Test
+  public void testPingPong() {
+    EventBus<String, String> bus = new EventBus<>();
+    List<String> log = new ArrayList<>();
+    for (String name : new String[] { "ping", "pong" }) {
+      String other = name.equals("ping") ? "pong" : "ping";
+      bus.register(name, DeepState.<String, String>model()
+          .startingWith("Idle")
+          .when("ball", (state, event) -> {
+            log.add(name);
+            if (log.size() < 6) {
+              // each reply waits for the sender to finish instead of nesting inside it
+              bus.send(other, event);
+            }
+          })
+          .and().ready());
+    }
+
+    bus.send("ping", new DeepStateEvent<>("ball"));
+    assertThat(log).containsExactly("ping", "pong", "ping", "pong", "ping", "pong");
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testFailedBatchDoesNotDropOthers() {
+    EventBus<String, String> bus = new EventBus<>();
+    List<String> received = new ArrayList<>();
+    FiniteStateMachine<String, String> broken = mock(FiniteStateMachine.class);
+    doThrow(new IllegalStateException("Mailbox is full")).when(broken).acceptAll(any());
+
+    bus.register("sender", DeepState.<String, String>model()
+        .startingWith("A")
+        .when("go", (state, event) -> {
+          bus.send("broken", new DeepStateEvent<>("item"));
+          bus.send("receiver", new DeepStateEvent<>("item"));
+        })
+        .and().ready());
+    bus.register("broken", broken);
+    bus.register("receiver", DeepState.<String, String>model()
+        .startingWith("B")
+        .whenNothingElseMatches((state, event) -> received.add(event.getTrigger()))
+        .and().ready());
+
+    assertThatThrownBy(() -> bus.send("sender", new DeepStateEvent<>("go"))).hasMessage("Mailbox is full");
+    assertThat(received).containsExactly("item");
+  }
+
+  @Test
+  public void testUnknownMachine() {
+    EventBus<String, String> bus = new EventBus<>();
+    FiniteStateMachine<String, String> fsm = DeepState.<String, String>model()
+        .startingWith("A").and().ready();
+    bus.register("a", fsm);
+
+    assertThatThrownBy(() -> bus.send("b", new DeepStateEvent<>("x"))).isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> bus.register("a", fsm)).isInstanceOf(IllegalStateException.class);
+    assertThat(bus.unregister("a")).isSameAs(fsm);
+  }
+}
@@ -0,0 +1,107 @@
+package metatype.deepstate.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import metatype.deepstate.DeepStateEvent;
+import metatype.deepstate.FiniteStateMachine.Event;
+import metatype.deepstate.IntEvent;
+
+public class RingMailboxTest {
+  @Test
+  public void testCapacity() {
+    assertThat(new RingMailbox<String>(1).getCapacity()).isEqualTo(1);
+    assertThat(new RingMailbox<String>(5).getCapacity()).isEqualTo(8);
+    assertThat(new RingMailbox<String>(64).getCapacity()).isEqualTo(64);
+  }
+
+  @Test
+  public void testOrderAcrossLaps() {
+    RingMailbox<String> mailbox = new RingMailbox<>(4);
+    assertThat(mailbox.isEmpty()).isTrue();
+
+    for (int lap = 0; lap < 3; lap++) {
+      List<Event<String>> sent = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        Event<String> event = new DeepStateEvent<>("e" + i);
+        sent.add(event);
+        assertThat(mailbox.offer(event)).isTrue();
+      }
+      assertThat(mailbox.offer(new DeepStateEvent<>("overflow"))).isFalse();
+
+      for (Event<String> event : sent) {
+        assertThat(mailbox.poll()).isSameAs(event);
+      }
+      assertThat(mailbox.poll()).isNull();
+      assertThat(mailbox.isEmpty()).isTrue();
+    }
+  }
+
+  @Test
+  public void testEmptyFromSender() throws InterruptedException {
+    RingMailbox<String> mailbox = new RingMailbox<>(2);
+    mailbox.offer(new DeepStateEvent<>("a"));
+    mailbox.offer(new DeepStateEvent<>("b"));
+
+    // a sender sees the events the consumer has taken, and the one it has not
+    Thread consumer = new Thread(mailbox::poll);
+    consumer.start();
+    consumer.join();
+    assertThat(mailbox.isEmpty()).isFalse();
+    consumer = new Thread(mailbox::poll);
+    consumer.start();
+    consumer.join();
+    assertThat(mailbox.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void testConcurrentProducers() throws InterruptedException {
+    int producers = 4;
+    int perProducer = 50_000;
+    RingMailbox<Integer> mailbox = new RingMailbox<>(256);
+    CountDownLatch start = new CountDownLatch(1);
+
+    List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      int producer = p;
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < perProducer; i++) {
+          IntEvent<Integer> event = new IntEvent<>(producer, i);
+          while (!mailbox.offer(event)) {
+            Thread.yield();
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+
+    start.countDown();
+    int[] next = new int[producers];
+    int received = 0;
+    while (received < producers * perProducer) {
+      Event<Integer> event = mailbox.poll();
+      if (event == null) {
+        Thread.yield();
+        continue;
+      }
+      // events from each producer arrive in the order they were sent
+      assertThat(((IntEvent<Integer>) event).getPayload()).isEqualTo(next[event.getTrigger()]++);
+      received++;
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(mailbox.isEmpty()).isTrue();
+  }
+}
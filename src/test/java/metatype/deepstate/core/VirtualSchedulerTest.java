@@ -0,0 +1,89 @@
+package metatype.deepstate.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import metatype.deepstate.core.Scheduler.ScheduledTask;
+
+public class VirtualSchedulerTest {
+  @Test
+  public void testRunsTasksInTimeOrder() {
+    VirtualScheduler scheduler = new VirtualScheduler();
+    List<String> log = new ArrayList<>();
+    scheduler.schedule(() -> log.add("late " + scheduler.currentTimeMillis()), Duration.ofSeconds(2));
+    scheduler.schedule(() -> log.add("early " + scheduler.currentTimeMillis()), Duration.ofSeconds(1));
+    scheduler.execute(() -> log.add("now"));
+    scheduler.schedule(() -> log.add("tie"), Duration.ofSeconds(1));
+    
+    assertThat(log).isEmpty();
+    assertThat(scheduler.advance(Duration.ofMillis(1500))).isEqualTo(3);
+    assertThat(log).containsExactly("now", "early 1000", "tie");
+    assertThat(scheduler.currentTimeMillis()).isEqualTo(1500);
+    
+    assertThat(scheduler.advance(Duration.ofHours(1))).isEqualTo(1);
+    assertThat(log).last().isEqualTo("late 2000");
+    assertThat(scheduler.getPendingCount()).isZero();
+  }
+  
+  @Test
+  public void testCancel() {
+    VirtualScheduler scheduler = new VirtualScheduler();
+    List<String> log = new ArrayList<>();
+    ScheduledTask task = scheduler.schedule(() -> log.add("cancelled"), Duration.ofSeconds(1));
+    
+    assertThat(task.cancel()).isTrue();
+    assertThat(task.cancel()).isFalse();
+    scheduler.advance(Duration.ofSeconds(2));
+    assertThat(log).isEmpty();
+  }
+  
+  @Test
+  public void testRestartTimers() {
+    VirtualScheduler scheduler = new VirtualScheduler();
+    List<String> log = new ArrayList<>();
+    List<ScheduledTask> timers = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      String name = "timer " + i;
+      timers.add(scheduler.schedule(() -> log.add(name), Duration.ofSeconds(1)));
+    }
+    
+    // each restart cancels the timer and schedules it again, leaving one task per timer pending
+    for (int restart = 0; restart < 100; restart++) {
+      for (int i = 0; i < timers.size(); i++) {
+        String name = "timer " + i;
+        assertThat(timers.get(i).cancel()).isTrue();
+        timers.set(i, scheduler.schedule(() -> log.add(name), Duration.ofSeconds(1)));
+      }
+      assertThat(scheduler.getPendingCount()).isEqualTo(10);
+    }
+    
+    assertThat(scheduler.advance(Duration.ofSeconds(1))).isEqualTo(10);
+    assertThat(log).hasSize(10).startsWith("timer 0").endsWith("timer 9");
+    assertThat(timers.get(0).cancel()).isFalse();
+    assertThat(scheduler.getPendingCount()).isZero();
+  }
+  
+  @Test
+  public void testTasksScheduleTasks() {
+    VirtualScheduler scheduler = new VirtualScheduler();
+    int[] ticks = new int[1];
+    Runnable tick = new Runnable() {
+      @Override
+      public void run() {
+        ticks[0]++;
+        scheduler.schedule(this, Duration.ofSeconds(1));
+      }
+    };
+    scheduler.schedule(tick, Duration.ofSeconds(1));
+    
+    // a simulated day of ticks runs immediately
+    assertThat(scheduler.advance(Duration.ofDays(1))).isEqualTo(86_400);
+    assertThat(ticks[0]).isEqualTo(86_400);
+    assertThat(scheduler.getPendingCount()).isEqualTo(1);
+  }
+}
@@ -2,9 +2,11 @@ package metatype.deepstate.example;
 
 import java.time.Duration;
 
+import metatype.deepstate.core.Scheduler;
+
 public class ConcurrentToasterTest extends ToasterTest {
   @Override
-  public Toaster create(Duration autoIgnite) {
-    return new ConcurrentToaster(autoIgnite);
+  public Toaster create(Duration autoIgnite, Scheduler scheduler) {
+    return new ConcurrentToaster(autoIgnite, scheduler);
   }
 }
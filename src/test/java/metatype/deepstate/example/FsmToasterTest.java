@@ -2,9 +2,11 @@ package metatype.deepstate.example;
 
 import java.time.Duration;
 
+import metatype.deepstate.core.Scheduler;
+
 public class FsmToasterTest extends ToasterTest {
   @Override
-  public Toaster create(Duration autoIgnite) {
-    return new FsmToaster(autoIgnite);
+  public Toaster create(Duration autoIgnite, Scheduler scheduler) {
+    return new FsmToaster(autoIgnite, scheduler);
   }
 }
@@ -6,16 +6,20 @@ import java.time.Duration;
 
 import org.junit.Test;
 
+import metatype.deepstate.core.Scheduler;
+import metatype.deepstate.core.VirtualScheduler;
 import metatype.deepstate.example.Toaster.Dial;
 
 public abstract class ToasterTest {
-  private Toaster toaster;
+  private final VirtualScheduler scheduler;
+  private final Toaster toaster;
 
   public ToasterTest() {
-    toaster = create(Duration.ofSeconds(30));
+    scheduler = new VirtualScheduler();
+    toaster = create(Duration.ofSeconds(30), scheduler);
   }
   
-  public abstract Toaster create(Duration autoIgnite);
+  public abstract Toaster create(Duration autoIgnite, Scheduler scheduler);
 
   @Test
   public void testInitialToasting() {
@@ -34,16 +38,16 @@ public abstract class ToasterTest {
   }
   
   @Test
-  public void testMakeToast() throws InterruptedException {
+  public void testMakeToast() {
     toaster.changeToasterSetting(Dial.ONE);
     toaster.depressLever();
     
-    Thread.sleep(1000);
+    scheduler.advance(Duration.ofSeconds(1));
     assertThat(toaster.isToasting()).isFalse();
   }
 
   @Test
-  public void testCancelToasting() throws InterruptedException {
+  public void testCancelToasting() {
     toaster.changeToasterSetting(Dial.ELEVEN);
     toaster.depressLever();
     assertThat(toaster.isToasting()).isTrue();
@@ -53,34 +57,52 @@ public abstract class ToasterTest {
   }
 
   @Test
-  public void testChangeDialWhileToasting() throws InterruptedException {
+  public void testChangeDialWhileToasting() {
     toaster.changeToasterSetting(Dial.ELEVEN);
     toaster.depressLever();
     toaster.changeToasterSetting(Dial.ONE);
 
-    Thread.sleep(1000);
+    scheduler.advance(Duration.ofSeconds(1));
     assertThat(toaster.isToasting()).isFalse();
   }
 
   @Test
-  public void testBreakToaster() throws InterruptedException {
+  public void testBreakToaster() {
     toaster.changeToasterSetting(Dial.ONE);
     toaster.jamLever();
     toaster.depressLever();
     
-    Thread.sleep(1000);
+    scheduler.advance(Duration.ofSeconds(1));
     assertThat(toaster.isToasting()).isTrue();
     
-    Thread.sleep(31000);
+    scheduler.advance(Duration.ofSeconds(29));
     assertThat(toaster.isBurning()).isTrue();
   }
 
   @Test
-  public void testBurnToast() throws InterruptedException {
+  public void testBurnToast() {
     toaster.changeToasterSetting(Dial.ELEVEN);
     toaster.depressLever();
     
-    Thread.sleep(31000);
+    scheduler.advance(Duration.ofSeconds(29));
+    assertThat(toaster.isBurning()).isFalse();
+    
+    scheduler.advance(Duration.ofSeconds(1));
     assertThat(toaster.isBurning()).isTrue();
   }
+
+  @Test
+  public void testToastAllDay() {
+    toaster.changeToasterSetting(Dial.TWO);
+    for (int slice = 0; slice < 500; slice++) {
+      toaster.depressLever();
+      assertThat(toaster.isToasting()).isTrue();
+      
+      scheduler.advance(Duration.ofSeconds(15));
+      assertThat(toaster.isToasting()).isFalse();
+    }
+    
+    assertThat(toaster.isBurning()).isFalse();
+    assertThat(scheduler.currentTimeMillis()).isEqualTo(Duration.ofSeconds(500 * 15).toMillis());
+  }
 }
@@ -0,0 +1,130 @@
+package metatype.deepstate.kt.actor
+
+import kotlinx.coroutines.CoroutineExceptionHandler
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
+import metatype.deepstate.kt.core.Event
+import metatype.deepstate.kt.core.builder.StateMachineBuilder
+import metatype.deepstate.kt.dsl.initialState
+import metatype.deepstate.kt.dsl.simpleState
+import metatype.deepstate.kt.dsl.stateMachine
+import metatype.deepstate.kt.dsl.transition
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import java.util.concurrent.Executors
+
+class StateMachineActorTest {
+    private fun turnstile(delayMillis: Long = 0): StateMachineBuilder = stateMachine {
+        name = "Turnstile"
+        states = setOf(simpleState { name = "Locked" }, simpleState { name = "Unlocked" })
+        initialState = initialState { name = "Locked" }
+        transitions = setOf(
+                transition {
+                    fromState = "Locked"
+                    toState = "Unlocked"
+                    event = "Coin"
+                    handleSuspending<Event> { delay(delayMillis) }
+                },
+                transition {
+                    fromState = "Unlocked"
+                    toState = "Locked"
+                    event = "Push"
+                })
+    }
+
+    @Test
+    fun testSuspendingHandler() = runBlocking<Unit> {
+        val actor = turnstile(10).ready().launchIn(this)
+        assertThat(actor.states.value).containsExactly("Locked")
+
+        actor.send(Event("Coin"))
+        assertThat(actor.states.first { it == listOf("Unlocked") }).containsExactly("Unlocked")
+
+        actor.send(Event("Push"))
+        actor.close()
+        actor.join()
+        assertThat(actor.states.value).containsExactly("Locked")
+    }
+
+    @Test
+    fun testManyActorsOnSmallDispatcher() {
+        val executor = Executors.newFixedThreadPool(2)
+        try {
+            runBlocking {
+                withContext(executor.asCoroutineDispatcher()) {
+                    val coin = Event("Coin")
+                    val actors = List(100_000) { turnstile().ready().launchIn(this) }
+                    actors.forEach { it.offer(coin) }
+                    actors.forEach { it.close() }
+                    actors.forEach { it.join() }
+                    assertThat(actors.filter { it.states.value == listOf("Unlocked") }).hasSize(actors.size)
+                }
+            }
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun testSuspendingHandlerRequiresActor() {
+        val errors = mutableListOf<Exception>()
+        val machine = turnstile().ready { catchExceptionsUsing { errors.add(it) } }
+        machine.accept(Event("Coin"))
+        assertThat(errors).hasSize(1)
+        assertThat(errors[0]).isInstanceOf(IllegalStateException::class.java)
+    }
+
+    private var jams = 0
+
+    private fun jam() {
+        jams++
+        throw IllegalStateException("Jammed")
+    }
+
+    private fun jammed(suspending: Boolean): StateMachineBuilder = stateMachine {
+        name = "Jammed"
+        states = setOf(simpleState { name = "Locked" }, simpleState { name = "Unlocked" })
+        initialState = initialState { name = "Locked" }
+        transitions = setOf(
+                transition {
+                    fromState = "Locked"
+                    toState = "Unlocked"
+                    event = "Coin"
+                    if (suspending) handleSuspending<Event> { jam() } else handler = { jam() }
+                },
+                transition {
+                    fromState = "Unlocked"
+                    toState = "Locked"
+                    event = "Push"
+                    if (suspending) handleSuspending<Event> { jam() } else handler = { jam() }
+                })
+    }
+
+    @Test
+    fun testErrorsAreLogged() = runBlocking<Unit> {
+        val actor = jammed(false).ready().launchIn(this)
+        actor.send(Event("Coin"))
+        actor.send(Event("Push"))
+        actor.close()
+        actor.join()
+        assertThat(jams).isEqualTo(2)
+    }
+
+    @Test
+    fun testFailFast() = runBlocking<Unit> {
+        val errors = mutableListOf<Throwable>()
+        val scope = CoroutineScope(SupervisorJob() + Dispatchers.Unconfined + CoroutineExceptionHandler { _, e -> errors.add(e) })
+        val actor = jammed(true).ready().launchIn(scope, onError = StateMachineActor.FAIL_FAST)
+        actor.offer(Event("Coin"))
+        actor.offer(Event("Push"))
+        actor.join()
+        assertThat(jams).isEqualTo(1)
+        assertThat(errors).hasSize(1)
+    }
+}
@@ -0,0 +1,148 @@
+package metatype.deepstate.kt.dsl
+
+import metatype.deepstate.core.HierarchicalFsm
+import metatype.deepstate.kt.core.Event
+import metatype.deepstate.kt.core.PayloadEvent
+import metatype.deepstate.kt.core.builder.StateMachineBuilder
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.Test
+
+class StateMachineDslTest {
+    class SetTimer(seconds: Int) : PayloadEvent<Int>("SetTimer", seconds)
+
+    private val log = mutableListOf<String>()
+
+    private fun toaster(): StateMachineBuilder = stateMachine {
+        name = "Toaster"
+        states = setOf(
+                simpleState {
+                    name = "Off"
+                    onExit = { log.add("exit Off") }
+                },
+                compoundState {
+                    name = "On"
+                    onEnter = { log.add("enter On") }
+                    stateMachineBuilder = stateMachine {
+                        name = "Heating"
+                        states = setOf(
+                                simpleState { name = "Idle" },
+                                simpleState {
+                                    name = "Toasting"
+                                    onEnter = { log.add("enter Toasting") }
+                                })
+                        initialState = initialState { name = "Idle" }
+                        transitions = setOf(
+                                transition {
+                                    fromState = "Idle"
+                                    toState = "Toasting"
+                                    event = "SetTimer"
+                                    guardedBy<SetTimer> { it.payload > 0 }
+                                    handle<SetTimer> { log.add("timer ${it.payload}") }
+                                })
+                    }
+                })
+        initialState = initialState { name = "Off" }
+        transitions = setOf(
+                transition {
+                    fromState = "Off"
+                    toState = "On"
+                    event = "PowerOn"
+                },
+                transition {
+                    fromState = "On"
+                    toState = "Off"
+                    event = "PowerOff"
+                })
+    }
+
+    @Test
+    fun testCompositeStatesOnJavaEngine() {
+        val fsm = toaster().ready()
+        assertThat(fsm.currentState.identity).isEqualTo("Off")
+
+        fsm.accept(Event("PowerOn"))
+        assertThat(fsm.currentStates.map { it.identity }).containsExactly("On", "Idle")
+
+        fsm.accept(SetTimer(0))
+        assertThat(fsm.currentStates.map { it.identity }).containsExactly("On", "Idle")
+
+        fsm.accept(SetTimer(30))
+        assertThat(fsm.currentStates.map { it.identity }).containsExactly("On", "Toasting")
+        assertThat(log).containsExactly("exit Off", "enter On", "timer 30", "enter Toasting")
+
+        fsm.accept(Event("PowerOff"))
+        assertThat(fsm.currentState.identity).isEqualTo("Off")
+    }
+
+    @Test
+    fun testFactoryOptions() {
+        val fsm = toaster().ready { flatten().compile() }
+        assertThat(fsm).isInstanceOf(HierarchicalFsm::class.java)
+
+        fsm.accept(Event("PowerOn"))
+        fsm.accept(SetTimer(30))
+        assertThat(fsm.currentStates.map { it.identity }).containsExactly("On", "Toasting")
+    }
+
+    class Deposit(amount: Int) : PayloadEvent<Int>("Deposit", amount)
+
+    @Test
+    fun testTransitionsPerState() {
+        val fsm = stateMachine {
+            name = "Vending"
+            states = setOf(
+                    simpleState {
+                        name = "Idle"
+                        onExit = { log.add("exit Idle") }
+                    },
+                    simpleState {
+                        name = "Paid"
+                        onEnter = { log.add("enter Paid") }
+                    },
+                    simpleState { name = "Dispensing" })
+            initialState = initialState { name = "Idle" }
+            transitions = setOf(
+                    transition {
+                        fromState = "Idle"
+                        toState = "Paid"
+                        event = "Deposit"
+                        handle<Deposit> { log.add("deposit ${it.payload}") }
+                    },
+                    transition {
+                        fromState = "Paid"
+                        toState = "Dispensing"
+                        event = "Vend"
+                    },
+                    transition {
+                        fromState = "Dispensing"
+                        toState = "Paid"
+                        event = "Deposit"
+                        handle<Deposit> { log.add("more ${it.payload}") }
+                    })
+        }.ready()
+
+        fsm.accept(Event("Vend"))
+        assertThat(fsm.currentState.identity).isEqualTo("Idle")
+
+        fsm.accept(Deposit(25))
+        fsm.accept(Event("Vend"))
+        assertThat(fsm.currentState.identity).isEqualTo("Dispensing")
+
+        fsm.accept(Deposit(50))
+        assertThat(fsm.currentState.identity).isEqualTo("Paid")
+        assertThat(log).containsExactly("exit Idle", "deposit 25", "enter Paid", "more 50", "enter Paid")
+    }
+
+    @Test
+    fun testUnknownInitialState() {
+        assertThatThrownBy {
+            stateMachine {
+                name = "Unknown"
+                states = setOf(simpleState { name = "A" })
+                initialState = initialState { name = "B" }
+                transitions = setOf()
+            }.ready()
+        }.isInstanceOf(IllegalArgumentException::class.java)
+    }
+}